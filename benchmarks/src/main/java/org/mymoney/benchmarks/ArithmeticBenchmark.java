@@ -0,0 +1,57 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures recalculating all {@code months} months of a portfolio, after a CORRECT of its first
+ * month, with the double steps and with {@code FixedPointArithmetic}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArithmeticBenchmark {
+    @Param({"120"})
+    int months;
+
+    @Param({"double", "fixed"})
+    String arithmetic;
+
+    private DefaultPortfolioService service;
+    private YearMonth lastMonth;
+    private List<List<Double>> corrections;
+    private int correction;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DataFormatException {
+        BenchmarkSupport.silenceLogging();
+        service =
+                DefaultPortfolioService.withArithmetic(
+                        BenchmarkSupport.newPortfolioData(), RebalancePolicy.DEFAULT, "fixed".equals(arithmetic));
+        service.allocate(BenchmarkSupport.ALLOCATION);
+        service.sip(BenchmarkSupport.SIP);
+        for (int month = 0; month < months; month++) {
+            service.change(BenchmarkSupport.rates(month), BenchmarkSupport.yearMonth(month));
+        }
+        lastMonth = BenchmarkSupport.yearMonth(months - 1);
+        // Alternates between two rates, a CORRECT with the rates already known recalculates nothing.
+        corrections = Arrays.asList(BenchmarkSupport.rates(0), Arrays.asList(4.25, 9.75, 2.00));
+    }
+
+    @Benchmark
+    public String recalculate() throws DataFormatException {
+        correction ^= 1;
+        service.correct(corrections.get(correction), BenchmarkSupport.yearMonth(0));
+        return service.balance(lastMonth);
+    }
+}
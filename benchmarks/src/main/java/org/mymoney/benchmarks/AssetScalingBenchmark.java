@@ -0,0 +1,75 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures how a year of CHANGE, BALANCE and REBALANCE grows with the size of the {@link
+ * AssetUniverse}, from the three default assets up to 500 funds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssetScalingBenchmark {
+    private static final int MONTHS = 12;
+
+    @Param({"3", "10", "50", "100", "300", "500"})
+    int assets;
+
+    private AssetUniverse assetUniverse;
+    private List<Double> allocation;
+    private List<Double> sip;
+    private List<List<Double>> rates;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceLogging();
+        String[] names = new String[assets];
+        for (int asset = 0; asset < assets; asset++) {
+            names[asset] = "FUND_" + asset;
+        }
+        assetUniverse = AssetUniverse.of(names);
+        SplittableRandom random = new SplittableRandom(42);
+        allocation = new ArrayList<>(assets);
+        sip = new ArrayList<>(assets);
+        for (int asset = 0; asset < assets; asset++) {
+            allocation.add(Math.floor(random.nextDouble(1000, 10_000)));
+            sip.add(Math.floor(random.nextDouble(100, 1000)));
+        }
+        rates = new ArrayList<>(MONTHS);
+        for (int month = 0; month < MONTHS; month++) {
+            List<Double> monthRates = new ArrayList<>(assets);
+            for (int asset = 0; asset < assets; asset++) {
+                monthRates.add(Math.round(random.nextDouble(-10, 15) * 100) / 100.0);
+            }
+            rates.add(monthRates);
+        }
+    }
+
+    /** Allocates, records a year of rates and asks for the balance and the re-balance. */
+    @Benchmark
+    public void year(Blackhole blackhole) throws DataFormatException {
+        PortfolioService service = new DefaultPortfolioService(new PortfolioData(assetUniverse));
+        service.allocate(allocation);
+        service.sip(sip);
+        for (int month = 0; month < MONTHS; month++) {
+            service.change(rates.get(month), BenchmarkSupport.yearMonth(month));
+        }
+        blackhole.consume(service.balance(YearMonth.of(BenchmarkSupport.START_YEAR, MONTHS)));
+        blackhole.consume(service.reBalance());
+    }
+}
@@ -0,0 +1,99 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.impl.AllocationBacktest;
+import org.mymoney.backend.service.impl.AllocationGrid;
+import org.mymoney.backend.service.impl.HistoricalReturns;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures an {@link AllocationBacktest} of the {@value #CONFIGURATIONS} configurations of three
+ * assets in 1% steps crossed with 20 SIP totals, on all cores, over {@code months} of random
+ * monthly returns; and the loading of those returns from CSV and from the memory mapped binary
+ * form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BacktestBenchmark {
+    private static final int CONFIGURATIONS = 5151 * 20;
+
+    @Param({"120", "360"})
+    int months;
+
+    private HistoricalReturns returns;
+    private AllocationGrid grid;
+    private Path csv;
+    private Path binary;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DataFormatException {
+        // EQUITY, DEBT, GOLD around their monthly mean and volatility in percent
+        double[] means = {1.0, 0.5, 0.4};
+        double[] volatilities = {5.0, 1.0, 4.0};
+        Random random = new Random(42);
+        StringBuilder lines = new StringBuilder("month,EQUITY,DEBT,GOLD\n");
+        for (int month = 0; month < months; month++) {
+            lines.append(month);
+            for (int asset = 0; asset < means.length; asset++) {
+                double rate = means[asset] + volatilities[asset] * random.nextGaussian();
+                lines.append(String.format(Locale.ROOT, ",%.2f%%", rate));
+            }
+            lines.append('\n');
+        }
+        csv = Files.createTempFile("returns", ".csv");
+        Files.write(csv, lines.toString().getBytes(StandardCharsets.UTF_8));
+        returns = HistoricalReturns.load(csv);
+        binary = Files.createTempFile("returns", ".mmrh");
+        returns.write(binary);
+        double[] sipTotals = new double[20];
+        for (int index = 0; index < sipTotals.length; index++) {
+            sipTotals[index] = index * 250;
+        }
+        grid = new AllocationGrid(3, 10000, 1, sipTotals);
+        if (grid.size() != CONFIGURATIONS) {
+            throw new IllegalStateException("The grid has " + grid.size() + " configurations");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(csv);
+        Files.delete(binary);
+    }
+
+    @Benchmark
+    public List<AllocationBacktest.Outcome> sweepByFinalValue() {
+        return new AllocationBacktest(returns, grid, RebalancePolicy.DEFAULT, AllocationBacktest.Ranking.FINAL_VALUE, 10)
+                .run();
+    }
+
+    @Benchmark
+    public List<AllocationBacktest.Outcome> sweepByDrawdown() {
+        return new AllocationBacktest(returns, grid, RebalancePolicy.DEFAULT, AllocationBacktest.Ranking.DRAWDOWN, 10)
+                .run();
+    }
+
+    @Benchmark
+    public HistoricalReturns loadCsv() throws IOException, DataFormatException {
+        return HistoricalReturns.load(csv);
+    }
+
+    @Benchmark
+    public HistoricalReturns loadBinary() throws IOException, DataFormatException {
+        return HistoricalReturns.load(binary);
+    }
+}
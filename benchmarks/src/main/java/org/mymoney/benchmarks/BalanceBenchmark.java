@@ -0,0 +1,61 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code DefaultPortfolioService.updateBalance} through {@link
+ * DefaultPortfolioService#balance(Month)} and {@link DefaultPortfolioService#reBalance()} on
+ * portfolios whose balances have not been calculated yet, over {@code months} months of rates
+ * spanning one or more years.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceBenchmark {
+    @Param({"1", "3", "6", "9", "12", "120", "600"})
+    int months;
+
+    @Param({"1", "1000"})
+    int portfolios;
+
+    private PortfolioService[] services;
+    private YearMonth lastMonth;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BenchmarkSupport.silenceLogging();
+        lastMonth = BenchmarkSupport.yearMonth(months - 1);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        services = new PortfolioService[portfolios];
+        for (int index = 0; index < portfolios; index++) {
+            services[index] = BenchmarkSupport.newPortfolio(months);
+        }
+    }
+
+    @Benchmark
+    public void updateBalance(Blackhole blackhole) {
+        for (PortfolioService service : services) {
+            blackhole.consume(service.balance(lastMonth));
+        }
+    }
+
+    @Benchmark
+    public void reBalance(Blackhole blackhole) {
+        for (PortfolioService service : services) {
+            blackhole.consume(service.reBalance());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing the balances of the last {@code rangeMonths} months of a portfolio with {@code
+ * months} calculated months to a writer, with one BALANCE_RANGE and with one BALANCE per month:
+ * through the service, and as commands run by {@link PortfolioManager#executeCommands}. Add {@code
+ * -jvmArgsAppend -Dmymoney.cache.months=0} to measure BALANCE without its cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceRangeBenchmark {
+    @Param({"120"})
+    int months;
+
+    @Param({"12", "120"})
+    int rangeMonths;
+
+    private PortfolioService service;
+    private YearMonth[] range;
+    private CountingWriter output;
+    private PortfolioManager portfolioManager;
+    private String rangeCommand;
+    private String balanceCommands;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceLogging();
+        service = BenchmarkSupport.newPortfolio(months);
+        range = new YearMonth[rangeMonths];
+        for (int index = 0; index < rangeMonths; index++) {
+            range[index] = BenchmarkSupport.yearMonth(months - rangeMonths + index);
+        }
+        output = new CountingWriter();
+        portfolioManager = new PortfolioManager(service);
+        rangeCommand = "BALANCE_RANGE " + command(range[0]) + " " + command(range[rangeMonths - 1]) + "\n";
+        StringBuilder commands = new StringBuilder();
+        for (YearMonth month : range) {
+            commands.append("BALANCE ").append(command(month)).append('\n');
+        }
+        balanceCommands = commands.toString();
+    }
+
+    private static String command(YearMonth month) {
+        return month.getMonth() + " " + month.getYear();
+    }
+
+    @Benchmark
+    public long balanceRange() throws IOException {
+        service.balanceRange(range[0], range[range.length - 1], output);
+        output.write(System.lineSeparator());
+        return output.written;
+    }
+
+    @Benchmark
+    public long monthlyBalances() throws IOException {
+        for (YearMonth month : range) {
+            output.write(service.balance(month));
+            output.write(System.lineSeparator());
+        }
+        return output.written;
+    }
+
+    @Benchmark
+    public long rangeCommand() throws IOException {
+        return portfolioManager.executeCommands(new StringReader(rangeCommand), output);
+    }
+
+    @Benchmark
+    public long balanceCommands() throws IOException {
+        return portfolioManager.executeCommands(new StringReader(balanceCommands), output);
+    }
+
+    /** Counts the characters written, like a buffered writer whose buffer is drained for free. */
+    private static final class CountingWriter extends Writer {
+        private long written;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            written += length;
+        }
+
+        @Override
+        public void write(String text) {
+            written += text.length();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
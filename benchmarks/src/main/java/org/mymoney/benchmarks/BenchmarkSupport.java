@@ -0,0 +1,78 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/** Shared fixtures so that every benchmark replays the same portfolio history. */
+final class BenchmarkSupport {
+    static final List<Double> ALLOCATION = Arrays.asList(6000d, 3000d, 1000d);
+    static final List<Double> SIP = Arrays.asList(2000d, 1000d, 500d);
+    static final double[][] CHANGE_RATES = {
+            {4.00, 10.00, 2.00},
+            {-10.00, 40.00, 0.00},
+            {12.50, 12.50, 12.50},
+            {8.00, -3.00, 7.00},
+            {13.00, 21.00, 10.50},
+            {10.00, 8.00, -5.00},
+            {-2.50, 3.00, 1.25},
+            {6.00, 0.50, -1.00},
+            {1.75, -4.00, 2.50},
+            {-7.00, 6.50, 3.00},
+            {9.25, 1.00, -0.75},
+            {3.50, 2.25, 4.00}
+    };
+
+    private BenchmarkSupport() {
+    }
+
+    /** Keeps the per-command INFO logging of the application out of the measurements. */
+    static void silenceLogging() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+        Arrays.stream(Logger.getLogger("").getHandlers()).forEach(h -> h.setLevel(Level.WARNING));
+    }
+
+    static PortfolioData newPortfolioData() {
+        return new PortfolioData();
+    }
+
+    static final int START_YEAR = 2020;
+
+    /** Returns a portfolio that was allocated, has a SIP and knows the rates of the first months. */
+    static PortfolioService newPortfolio(int months) {
+        PortfolioService service = new DefaultPortfolioService(newPortfolioData());
+        try {
+            service.allocate(ALLOCATION);
+            service.sip(SIP);
+            for (int month = 0; month < months; month++) {
+                service.change(rates(month), yearMonth(month));
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        return service;
+    }
+
+    static YearMonth yearMonth(int monthIndex) {
+        return YearMonth.of(START_YEAR + monthIndex / 12, monthIndex % 12 + 1);
+    }
+
+    static List<Double> rates(int month) {
+        double[] rates = CHANGE_RATES[month % CHANGE_RATES.length];
+        return Arrays.asList(rates[0], rates[1], rates[2]);
+    }
+
+    static String changeLine(int month) {
+        double[] rates = CHANGE_RATES[month % CHANGE_RATES.length];
+        return String.format(
+                "CHANGE %.2f%% %.2f%% %.2f%% %s", rates[0], rates[1], rates[2], Month.of(month % 12 + 1));
+    }
+}
@@ -0,0 +1,51 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.PortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a dashboard polling the BALANCE of the last {@code polledMonths} months, and
+ * REBALANCE, of a portfolio with {@code months} months. Compare with the cache disabled:
+ * {@code -jvmArgsAppend -Dmymoney.cache.months=0}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    @Param({"120"})
+    int months;
+
+    @Param({"12"})
+    int polledMonths;
+
+    private PortfolioService service;
+    private YearMonth[] polled;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceLogging();
+        service = BenchmarkSupport.newPortfolio(months);
+        polled = new YearMonth[polledMonths];
+        for (int index = 0; index < polledMonths; index++) {
+            polled[index] = BenchmarkSupport.yearMonth(months - polledMonths + index);
+        }
+    }
+
+    @Benchmark
+    public String pollBalance() {
+        next = next + 1 == polled.length ? 0 : next + 1;
+        return service.balance(polled[next]);
+    }
+
+    @Benchmark
+    public String pollReBalance() {
+        return service.reBalance();
+    }
+}
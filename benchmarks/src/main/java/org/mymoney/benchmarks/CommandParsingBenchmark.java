@@ -0,0 +1,96 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.MappedCommandParser;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the line based {@link PortfolioManager} with the byte level {@link MappedCommandParser}
+ * on a file of {@code portfolios} portfolios with a year of rates each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandParsingBenchmark {
+    @Param({"1000", "10000"})
+    int portfolios;
+
+    private Path input;
+    private PortfolioManager portfolioManager;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        BenchmarkSupport.silenceLogging();
+        List<String> lines = new ArrayList<>();
+        for (int index = 0; index < portfolios; index++) {
+            String prefix = "@p" + index + " ";
+            lines.add(prefix + "ALLOCATE 6000 3000 1000");
+            lines.add(prefix + "SIP 2000 1000 500");
+            for (int month = 0; month < 12; month++) {
+                lines.add(prefix + BenchmarkSupport.changeLine(month));
+            }
+            lines.add(prefix + "BALANCE DECEMBER");
+            lines.add(prefix + "REBALANCE");
+        }
+        input = Files.createTempFile("commands", ".txt");
+        Files.write(input, lines, StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(input);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        portfolioManager =
+                new PortfolioManager(
+                        new PortfolioRegistry(
+                                1, () -> new DefaultPortfolioService(BenchmarkSupport.newPortfolioData())));
+    }
+
+    @Benchmark
+    public void lineParser() throws IOException {
+        portfolioManager.executeCommandsFromFile(input.toString(), NullWriter.INSTANCE);
+    }
+
+    @Benchmark
+    public void mappedParser() throws IOException {
+        new MappedCommandParser(portfolioManager).executeCommandsFromFile(input, NullWriter.INSTANCE);
+    }
+
+    /** Discards the outputs so that only parsing and execution are measured. */
+    static final class NullWriter extends Writer {
+        static final NullWriter INSTANCE = new NullWriter();
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String text) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
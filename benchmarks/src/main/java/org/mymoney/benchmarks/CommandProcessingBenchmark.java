@@ -0,0 +1,91 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures {@link PortfolioManager#processLineAsCommand(String)} for one command type at a time,
+ * applied once to each of {@code portfolios} portfolios that were prepared up to the point where
+ * the command is valid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandProcessingBenchmark {
+    @Param({"ALLOCATE", "SIP", "CHANGE", "BALANCE", "REBALANCE"})
+    Command command;
+
+    @Param({"1", "100", "10000"})
+    int portfolios;
+
+    private PortfolioManager portfolioManager;
+    private String[] lines;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BenchmarkSupport.silenceLogging();
+        lines = new String[portfolios];
+        for (int index = 0; index < portfolios; index++) {
+            lines[index] = "@p" + index + " " + commandLine();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws DataFormatException {
+        PortfolioRegistry registry =
+                new PortfolioRegistry(
+                        1, () -> new DefaultPortfolioService(BenchmarkSupport.newPortfolioData()));
+        for (int index = 0; index < portfolios; index++) {
+            prepare(registry.getOrCreate("p" + index));
+        }
+        portfolioManager = new PortfolioManager(registry);
+    }
+
+    @Benchmark
+    public void processLineAsCommand(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(portfolioManager.processLineAsCommand(line));
+        }
+    }
+
+    private String commandLine() {
+        switch (command) {
+            case ALLOCATE:
+                return "ALLOCATE 6000 3000 1000";
+            case SIP:
+                return "SIP 2000 1000 500";
+            case CHANGE:
+                return BenchmarkSupport.changeLine(5);
+            case BALANCE:
+                return "BALANCE JUNE";
+            default:
+                return "REBALANCE";
+        }
+    }
+
+    private void prepare(PortfolioService service) throws DataFormatException {
+        if (command == Command.ALLOCATE) {
+            return;
+        }
+        service.allocate(BenchmarkSupport.ALLOCATION);
+        if (command == Command.SIP) {
+            return;
+        }
+        service.sip(BenchmarkSupport.SIP);
+        int months = command == Command.CHANGE ? 5 : 6;
+        for (int month = 0; month < months; month++) {
+            service.change(BenchmarkSupport.rates(month), java.time.Month.of(month + 1));
+        }
+    }
+}
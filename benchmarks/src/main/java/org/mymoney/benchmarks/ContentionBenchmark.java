@@ -0,0 +1,98 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.impl.ConcurrentPortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures BALANCE throughput of readers sharing one portfolio while a writer keeps restating the
+ * rates of DECEMBER, through a {@link ConcurrentPortfolioService} and through a {@code
+ * synchronized} block around a {@link DefaultPortfolioService}. The readers ask for the calculated
+ * months before DECEMBER. Vary the readers with {@code -tg <readers>,1}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentionBenchmark {
+    private static final List<Double> LOW = Arrays.asList(1d, 1d, 1d);
+    private static final List<Double> HIGH = Arrays.asList(5d, 5d, 5d);
+    private static final Month[] READ_MONTHS = Arrays.copyOf(Month.values(), 11);
+
+    /** CPU spent between two writes, in JMH tokens. */
+    @Param({"10000"})
+    long writeInterval;
+
+    private DefaultPortfolioService plain;
+    private ConcurrentPortfolioService concurrent;
+    private boolean high;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DataFormatException {
+        BenchmarkSupport.silenceLogging();
+        plain = newPortfolio();
+        concurrent = new ConcurrentPortfolioService(newPortfolio());
+    }
+
+    private static DefaultPortfolioService newPortfolio() throws DataFormatException {
+        DefaultPortfolioService service = new DefaultPortfolioService(BenchmarkSupport.newPortfolioData());
+        service.allocate(BenchmarkSupport.ALLOCATION);
+        service.sip(BenchmarkSupport.SIP);
+        for (int month = 0; month < 12; month++) {
+            service.change(BenchmarkSupport.rates(month), Month.of(month + 1));
+        }
+        service.balance(Month.DECEMBER);
+        return service;
+    }
+
+    private List<Double> nextRates() {
+        high = !high;
+        return high ? HIGH : LOW;
+    }
+
+    @Benchmark
+    @Group("stamped")
+    @GroupThreads(3)
+    public String stampedRead() {
+        return concurrent.balance(READ_MONTHS[ThreadLocalRandom.current().nextInt(READ_MONTHS.length)]);
+    }
+
+    @Benchmark
+    @Group("stamped")
+    @GroupThreads(1)
+    public void stampedWrite() throws DataFormatException {
+        Blackhole.consumeCPU(writeInterval);
+        concurrent.correct(nextRates(), Month.DECEMBER);
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(3)
+    public String synchronizedRead() {
+        Month month = READ_MONTHS[ThreadLocalRandom.current().nextInt(READ_MONTHS.length)];
+        synchronized (plain) {
+            return plain.balance(month);
+        }
+    }
+
+    @Benchmark
+    @Group("synchronized")
+    @GroupThreads(1)
+    public void synchronizedWrite() throws DataFormatException {
+        Blackhole.consumeCPU(writeInterval);
+        List<Double> rates = nextRates();
+        synchronized (plain) {
+            plain.correct(rates, Month.DECEMBER);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link PortfolioManager#executeCommands} on {@value #LINES} lines of BALANCE and CHANGE
+ * commands of which {@code dirtyPercent} percent are rejected, spread over the causes: unknown
+ * commands, invalid numbers and months, wrong argument counts and balances without data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirtyInputBenchmark {
+    private static final int LINES = 100000;
+    private static final String[] DIRTY_LINES = {
+        "WITHDRAW 100",
+        "SIP 2000 x 500",
+        "CHANGE 4.00% 10.00% 2.00% JANUARI",
+        "BALANCE JANUARY 2020 2021",
+        "BALANCE JANUARY 2019",
+    };
+
+    @Param({"0", "50"})
+    int dirtyPercent;
+
+    private PortfolioManager portfolioManager;
+    private String input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceLogging();
+        portfolioManager =
+                new PortfolioManager(
+                        new PortfolioRegistry(
+                                1, () -> new DefaultPortfolioService(BenchmarkSupport.newPortfolioData())));
+        portfolioManager.setErrorOutput(CommandParsingBenchmark.NullWriter.INSTANCE);
+        portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000");
+        portfolioManager.processLineAsCommand("SIP 2000 1000 500");
+        portfolioManager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% JANUARY 2020");
+        StringBuilder commands = new StringBuilder();
+        for (int line = 0; line < LINES; line++) {
+            if (line % 100 < dirtyPercent) {
+                commands.append(DIRTY_LINES[line % DIRTY_LINES.length]);
+            } else if (line % 2 == 0) {
+                commands.append("BALANCE JANUARY 2020");
+            } else {
+                // Restates the rates already known, which changes nothing.
+                commands.append("CHANGE 4.00% 10.00% 2.00% JANUARY 2020");
+            }
+            commands.append('\n');
+        }
+        input = commands.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long executeCommands() throws IOException {
+        return portfolioManager.executeCommands(new StringReader(input), CommandParsingBenchmark.NullWriter.INSTANCE);
+    }
+}
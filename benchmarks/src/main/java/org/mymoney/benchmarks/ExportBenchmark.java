@@ -0,0 +1,67 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.export.BalanceExporter;
+import org.mymoney.backend.model.AssetUniverse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures exporting the balances of {@code portfolios} portfolios with {@code months} calculated
+ * months each with a {@link BalanceExporter}; divide {@code portfolios * months} by the time per
+ * operation for the portfolio-months per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({"10000"})
+    int portfolios;
+
+    @Param({"120"})
+    int months;
+
+    private PortfolioData[] data;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AssetUniverse universe = AssetUniverse.DEFAULT;
+        SplittableRandom random = new SplittableRandom(42);
+        data = new PortfolioData[portfolios];
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            PortfolioData portfolioData = new PortfolioData(universe);
+            double[] balances = portfolioData.getMonthlyBalance(months);
+            for (int index = 0; index < months * universe.size(); index++) {
+                balances[index] = Math.floor(random.nextDouble(1_000, 100_000));
+            }
+            portfolioData.calculatedMonths = months;
+            data[portfolio] = portfolioData;
+        }
+        file = Files.createTempFile("export", ".mmbx");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        try (BalanceExporter exporter = new BalanceExporter(file)) {
+            for (int portfolio = 0; portfolio < data.length; portfolio++) {
+                exporter.add("P" + portfolio, data[portfolio]);
+            }
+            exporter.finish();
+            return exporter.getTotalRows();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.ColumnarPortfolioEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.YearMonth;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares stepping {@code portfolios} portfolios with the same rates through {@code months}
+ * months as columns in a {@link ColumnarPortfolioEngine} against one {@link PortfolioService} per
+ * portfolio.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockstepBenchmark {
+    @Param({"1000", "100000"})
+    int portfolios;
+
+    @Param({"12"})
+    int months;
+
+    private double[] allocation;
+    private double[] sip;
+
+    /** Fresh services per invocation, so that only the benchmark using them pays for the setup. */
+    @State(Scope.Thread)
+    public static class Services {
+        PortfolioService[] services;
+        YearMonth lastMonth;
+
+        @Setup(Level.Invocation)
+        public void setUp(LockstepBenchmark benchmark) {
+            lastMonth = BenchmarkSupport.yearMonth(benchmark.months - 1);
+            services = new PortfolioService[benchmark.portfolios];
+            for (int index = 0; index < services.length; index++) {
+                services[index] = BenchmarkSupport.newPortfolio(benchmark.months);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        BenchmarkSupport.silenceLogging();
+        allocation = BenchmarkSupport.ALLOCATION.stream().mapToDouble(Double::doubleValue).toArray();
+        sip = BenchmarkSupport.SIP.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    @Benchmark
+    public void portfolioServices(Services state, Blackhole blackhole) {
+        for (PortfolioService service : state.services) {
+            blackhole.consume(service.balance(state.lastMonth));
+        }
+    }
+
+    @Benchmark
+    public ColumnarPortfolioEngine columnar() {
+        ColumnarPortfolioEngine engine = new ColumnarPortfolioEngine(allocation.length, portfolios);
+        for (int index = 0; index < portfolios; index++) {
+            engine.add(allocation, sip);
+        }
+        for (int month = 0; month < months; month++) {
+            engine.step(BenchmarkSupport.CHANGE_RATES[month % BenchmarkSupport.CHANGE_RATES.length]);
+        }
+        return engine;
+    }
+}
@@ -0,0 +1,93 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.output.AsyncWriter;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways of writing the outputs of {@value #LINES} BALANCE commands to {@code /dev/null},
+ * which keeps the cost of the write calls without the one of a terminal: a {@code println} flushed
+ * per line as {@code PortfolioManager.display} did, the {@code BufferedWriter} of {@code
+ * executeCommands}, and an {@link AsyncWriter}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+    private static final String DEV_NULL = "/dev/null";
+    private static final int LINES = 100000;
+
+    private PortfolioManager portfolioManager;
+    private String input;
+    private FileOutputStream devNull;
+    private PrintStream printStream;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkSupport.silenceLogging();
+        portfolioManager =
+                new PortfolioManager(
+                        new PortfolioRegistry(
+                                1, () -> new DefaultPortfolioService(BenchmarkSupport.newPortfolioData())));
+        portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000");
+        portfolioManager.processLineAsCommand("SIP 2000 1000 500");
+        for (int month = 0; month < 12; month++) {
+            portfolioManager.processLineAsCommand(BenchmarkSupport.changeLine(month));
+        }
+        StringBuilder commands = new StringBuilder();
+        for (int line = 0; line < LINES; line++) {
+            commands.append("BALANCE ").append(BenchmarkSupport.yearMonth(line % 12).getMonth()).append('\n');
+        }
+        input = commands.toString();
+        devNull = new FileOutputStream(DEV_NULL);
+        printStream = new PrintStream(new FileOutputStream(DEV_NULL), true, "UTF-8");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        devNull.close();
+        printStream.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void println() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                printStream.println(portfolioManager.processLineAsCommand(line));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long buffered() throws IOException {
+        return portfolioManager.executeCommands(
+                new StringReader(input), new OutputStreamWriter(devNull, StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long async() throws IOException {
+        try (Writer output =
+                new AsyncWriter(new OutputStreamWriter(devNull, StandardCharsets.UTF_8), "benchmark-output")) {
+            return portfolioManager.executeCommands(new StringReader(input), output);
+        }
+    }
+}
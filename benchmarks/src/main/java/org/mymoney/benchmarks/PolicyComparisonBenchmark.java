@@ -0,0 +1,64 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.impl.RebalancePolicyComparison;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares 20 rebalance policies, four calendars and sixteen drift bands, over {@code months}
+ * months: in the single shared pass of {@link RebalancePolicyComparison}, and as one separate
+ * replay per policy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyComparisonBenchmark {
+    private static final double[] ALLOCATION = {6000, 3000, 1000};
+    private static final double[] SIP = {2000, 1000, 500};
+    private static final double[] DESIRED_WEIGHTS = {60, 30, 10};
+
+    @Param({"120"})
+    int months;
+
+    private double[] rates;
+    private List<RebalancePolicy> policies;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rates = new double[months * 3];
+        for (int month = 0; month < months; month++) {
+            System.arraycopy(BenchmarkSupport.CHANGE_RATES[month % 12], 0, rates, month * 3, 3);
+        }
+        policies = new ArrayList<>();
+        policies.add(RebalancePolicy.parse("semiannual"));
+        policies.add(RebalancePolicy.parse("quarterly"));
+        policies.add(RebalancePolicy.parse("calendar:DECEMBER"));
+        policies.add(RebalancePolicy.parse("calendar:MARCH,SEPTEMBER"));
+        for (int band = 1; band <= 16; band++) {
+            policies.add(RebalancePolicy.parse("drift:" + band * 0.5));
+        }
+    }
+
+    @Benchmark
+    public List<RebalancePolicyComparison.Outcome> sharedPass() {
+        return new RebalancePolicyComparison(ALLOCATION, SIP, DESIRED_WEIGHTS, policies).run(rates, months);
+    }
+
+    @Benchmark
+    public void separateReplays(Blackhole blackhole) {
+        for (RebalancePolicy policy : policies) {
+            blackhole.consume(
+                    new RebalancePolicyComparison(ALLOCATION, SIP, DESIRED_WEIGHTS, Collections.singletonList(policy))
+                            .run(rates, months));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.model.AssetUniverse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Measures {@link Portfolio#clone()} and {@link Portfolio#toString()} over many portfolios. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortfolioBenchmark {
+    @Param({"1", "1000", "100000"})
+    int portfolios;
+
+    private Portfolio[] funds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AssetUniverse assetUniverse = AssetUniverse.DEFAULT;
+        SplittableRandom random = new SplittableRandom(42);
+        funds = new Portfolio[portfolios];
+        for (int index = 0; index < portfolios; index++) {
+            double[] amounts = new double[assetUniverse.size()];
+            for (int asset = 0; asset < amounts.length; asset++) {
+                amounts[asset] = Math.floor(random.nextDouble(1, 1_000_000));
+            }
+            funds[index] = new Portfolio(assetUniverse, amounts);
+        }
+    }
+
+    @Benchmark
+    public void cloneFunds(Blackhole blackhole) {
+        for (Portfolio portfolio : funds) {
+            blackhole.consume(portfolio.clone());
+        }
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        for (Portfolio portfolio : funds) {
+            blackhole.consume(portfolio.toString());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.journal.DurablePortfolioStore;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+
+/**
+ * Measures opening a {@link DurablePortfolioStore} holding {@code portfolios} portfolios with
+ * {@code months} months of history each, recovered either by replaying the whole journal or from a
+ * snapshot taken before the last month plus the journal of that month.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecoveryBenchmark {
+    @Param({"1000"})
+    int portfolios;
+
+    @Param({"120"})
+    int months;
+
+    private Path journalOnly;
+    private Path snapshotAndTail;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DataFormatException {
+        BenchmarkSupport.silenceLogging();
+        journalOnly = Files.createTempDirectory("recovery-journal");
+        snapshotAndTail = Files.createTempDirectory("recovery-snapshot");
+        record(journalOnly, false);
+        record(snapshotAndTail, true);
+    }
+
+    private void record(Path directory, boolean snapshot) throws IOException, DataFormatException {
+        try (DurablePortfolioStore store = open(directory)) {
+            PortfolioRegistry registry = store.getPortfolioRegistry();
+            for (int month = 0; month < months; month++) {
+                if (snapshot && month == months - 1) {
+                    store.checkpoint();
+                }
+                for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                    PortfolioService service = registry.getOrCreate("P" + portfolio);
+                    if (month == 0) {
+                        service.allocate(BenchmarkSupport.ALLOCATION);
+                        service.sip(BenchmarkSupport.SIP);
+                    }
+                    service.change(BenchmarkSupport.rates(month), BenchmarkSupport.yearMonth(month));
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(journalOnly);
+        delete(snapshotAndTail);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static DurablePortfolioStore open(Path directory) throws IOException, DataFormatException {
+        return DurablePortfolioStore.open(directory, AssetUniverse.DEFAULT, 1, Long.MAX_VALUE, 1 << 16, 1000);
+    }
+
+    @Benchmark
+    public long journalOnly() throws IOException, DataFormatException {
+        try (DurablePortfolioStore store = open(journalOnly)) {
+            return store.getPortfolioRegistry().size();
+        }
+    }
+
+    @Benchmark
+    public long snapshotAndTail() throws IOException, DataFormatException {
+        try (DurablePortfolioStore store = open(snapshotAndTail)) {
+            return store.getPortfolioRegistry().size();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.metrics.Histogram;
+import org.mymoney.backend.server.CommandServer;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Load test of the {@link CommandServer} on loopback. Every connection sets up its own portfolio
+ * and then pipelines {@code requests} BALANCE commands, keeping at most {@code window} of them
+ * unanswered. Reports the throughput and the latency percentiles from sending a request to
+ * reading its response:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.mymoney.benchmarks.ServerLoadTest \
+ *     [connections] [requests per connection] [window]
+ * </pre>
+ */
+public final class ServerLoadTest {
+    private ServerLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+        BenchmarkSupport.silenceLogging();
+        Supplier<PortfolioService> factory = () -> new DefaultPortfolioService(BenchmarkSupport.newPortfolioData());
+        try (CommandServer server =
+                new CommandServer(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        new PortfolioRegistry(factory),
+                        factory,
+                        CommandServer.SessionMode.PORTFOLIO)) {
+            Thread serverThread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "server");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            // A first round warms up the server, the measured round follows.
+            run(server.getLocalAddress(), connections, requests / 4, window, "warmup");
+            Histogram latencies = new Histogram();
+            long start = System.nanoTime();
+            long answered = run(server.getLocalAddress(), connections, requests, window, "run", latencies);
+            long nanos = System.nanoTime() - start;
+            System.out.printf(
+                    "%d connections, window %d: %d requests in %d ms, %.0f requests/s%n",
+                    connections,
+                    window,
+                    answered,
+                    TimeUnit.NANOSECONDS.toMillis(nanos),
+                    answered * 1e9 / nanos);
+            System.out.printf(
+                    "latency p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                    TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(50)),
+                    TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99)),
+                    TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(99.9)),
+                    TimeUnit.NANOSECONDS.toMicros(latencies.getPercentile(100)));
+        }
+    }
+
+    private static long run(InetSocketAddress address, int connections, int requests, int window, String name)
+            throws Exception {
+        return run(address, connections, requests, window, name, new Histogram());
+    }
+
+    private static long run(
+            InetSocketAddress address, int connections, int requests, int window, String name, Histogram latencies)
+            throws Exception {
+        List<Client> clients = new ArrayList<>();
+        for (int connection = 0; connection < connections; connection++) {
+            clients.add(new Client(address, name + connection, requests, window));
+        }
+        for (Client client : clients) {
+            client.start();
+        }
+        long answered = 0;
+        for (Client client : clients) {
+            client.join();
+            if (client.failure != null) {
+                throw client.failure;
+            }
+            answered += client.answered;
+            synchronized (latencies) {
+                for (long latency : client.latencies) {
+                    latencies.record(latency);
+                }
+            }
+        }
+        return answered;
+    }
+
+    /** One connection: the thread sends the requests while a reader thread collects the responses. */
+    private static final class Client extends Thread {
+        private final InetSocketAddress address;
+        private final String portfolio;
+        private final long[] sentAt;
+        private final long[] latencies;
+        private final Semaphore window;
+        private volatile Exception failure;
+        private long answered;
+
+        Client(InetSocketAddress address, String portfolio, int requests, int window) {
+            this.address = address;
+            this.portfolio = portfolio;
+            this.sentAt = new long[requests];
+            this.latencies = new long[requests];
+            this.window = new Semaphore(window);
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                socket.setTcpNoDelay(true);
+                OutputStream output = socket.getOutputStream();
+                BufferedReader input =
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                StringBuilder setup = new StringBuilder();
+                setup.append('@').append(portfolio).append(" ALLOCATE 6000 3000 1000\n");
+                setup.append('@').append(portfolio).append(" SIP 2000 1000 500\n");
+                for (int month = 0; month < 12; month++) {
+                    setup.append('@').append(portfolio).append(' ').append(BenchmarkSupport.changeLine(month)).append('\n');
+                }
+                output.write(setup.toString().getBytes(StandardCharsets.UTF_8));
+                for (int line = 0; line < 14; line++) {
+                    input.readLine();
+                }
+                Thread reader = new Thread(() -> readResponses(input));
+                reader.start();
+                byte[][] requests = new byte[12][];
+                for (int month = 0; month < 12; month++) {
+                    requests[month] = ("@" + portfolio + " BALANCE " + Month.of(month + 1) + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                }
+                for (int request = 0; request < sentAt.length; request++) {
+                    window.acquire();
+                    sentAt[request] = System.nanoTime();
+                    output.write(requests[request % 12]);
+                }
+                reader.join();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        private void readResponses(BufferedReader input) {
+            try {
+                for (int request = 0; request < sentAt.length; request++) {
+                    if (input.readLine() == null) {
+                        throw new IOException("The server closed the connection");
+                    }
+                    latencies[request] = System.nanoTime() - sentAt[request];
+                    answered++;
+                    window.release();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
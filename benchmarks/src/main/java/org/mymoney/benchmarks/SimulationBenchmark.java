@@ -0,0 +1,43 @@
+package org.mymoney.benchmarks;
+
+import org.mymoney.backend.service.impl.MonteCarloSimulator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link MonteCarloSimulator#simulate(int, int, long)} on all cores for the SIP fixture,
+ * including the selection of the monthly percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulationBenchmark {
+    @Param({"100000", "1000000"})
+    int paths;
+
+    @Param({"12", "120"})
+    int months;
+
+    private MonteCarloSimulator simulator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // EQUITY, DEBT, GOLD at 60/30/10 with their monthly mean and volatility in percent
+        simulator =
+                new MonteCarloSimulator(
+                        new double[] {6000, 3000, 1000},
+                        new double[] {2000, 1000, 500},
+                        new double[] {60, 30, 10},
+                        new double[] {1.0, 0.5, 0.4},
+                        new double[] {5.0, 1.0, 4.0});
+    }
+
+    @Benchmark
+    public double[] simulate() {
+        return simulator.simulate(paths, months, 42);
+    }
+}
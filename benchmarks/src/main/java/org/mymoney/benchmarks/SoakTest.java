@@ -0,0 +1,215 @@
+package org.mymoney.benchmarks;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.metrics.Histogram;
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test of {@link PortfolioManager#executeCommandsFromFile(String, java.io.Writer)} on a large
+ * input, typically one of {@link WorkloadGenerator}, with the outputs discarded. Every {@code
+ * interval} seconds it prints the lines run and the rate since the previous report, and at the end
+ * the overall and the lowest sustained rate, the p50 and p99 latency of every command, the GC
+ * pauses and the peak heap:
+ *
+ * <pre>
+ * java -Dmymoney.assets=EQUITY,DEBT,GOLD -Xmx1g -cp benchmarks/target/benchmarks.jar \
+ *     org.mymoney.benchmarks.SoakTest &lt;input file&gt; [interval seconds]
+ * </pre>
+ *
+ * <p>The latencies come from {@link MetricsRegistry}, which is enabled for the run, so they include
+ * its two clock reads per command. The peak heap is the highest heap use seen before a collection or
+ * at a report.
+ */
+public final class SoakTest {
+    private SoakTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Please specify <input file> [interval seconds]");
+        }
+        String input = args[0];
+        long interval = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        BenchmarkSupport.silenceLogging();
+        MetricsRegistry metrics = MetricsRegistry.get();
+        metrics.setEnabled(true);
+        GcMonitor gc = new GcMonitor();
+        AssetUniverse universe = AssetUniverse.fromSystemProperty();
+        PortfolioManager portfolioManager =
+                new PortfolioManager(
+                        new PortfolioRegistry(() -> new DefaultPortfolioService(new PortfolioData(universe))));
+        portfolioManager.setErrorOutput(CommandParsingBenchmark.NullWriter.INSTANCE);
+
+        AtomicLong commands = new AtomicLong();
+        Exception[] failure = new Exception[1];
+        Thread runner = new Thread(() -> {
+            try {
+                commands.set(
+                        portfolioManager.executeCommandsFromFile(input, CommandParsingBenchmark.NullWriter.INSTANCE));
+            } catch (IOException | RuntimeException e) {
+                failure[0] = e;
+            }
+        }, "soak");
+        long start = System.nanoTime();
+        runner.start();
+        long lastLines = 0;
+        long lastNanos = start;
+        double lowestRate = Double.MAX_VALUE;
+        while (true) {
+            runner.join(TimeUnit.SECONDS.toMillis(interval));
+            if (!runner.isAlive()) {
+                break;
+            }
+            long now = System.nanoTime();
+            long lines = linesRun(metrics);
+            double rate = (lines - lastLines) * 1e9 / (now - lastNanos);
+            lowestRate = Math.min(lowestRate, rate);
+            gc.sampleHeap();
+            System.out.printf(
+                    "%4d s: %d lines, %.0f lines/s, heap %d MB, %d GC pauses%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start),
+                    lines,
+                    rate,
+                    gc.currentHeap() >> 20,
+                    gc.pauses.getCount());
+            lastLines = lines;
+            lastNanos = now;
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        long nanos = System.nanoTime() - start;
+        gc.sampleHeap();
+        long lines = commands.get();
+        long rejected = 0;
+        for (long count : metrics.getFailureCounts().values()) {
+            rejected += count;
+        }
+        System.out.printf(
+                "%d lines (%d rejected) in %d ms: %.0f lines/s",
+                lines,
+                rejected,
+                TimeUnit.NANOSECONDS.toMillis(nanos),
+                lines * 1e9 / nanos);
+        if (lowestRate != Double.MAX_VALUE) {
+            System.out.printf(", lowest %d s interval %.0f lines/s", interval, lowestRate);
+        }
+        System.out.println();
+        Map<String, Long> counts = metrics.getCommandCounts();
+        Map<String, Long> p50 = metrics.getCommandLatencyP50Nanos();
+        Map<String, Long> p99 = metrics.getCommandLatencyP99Nanos();
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            if (count.getValue() > 0) {
+                System.out.printf(
+                        "%-14s %12d  p50 %7d ns  p99 %7d ns%n",
+                        count.getKey(),
+                        count.getValue(),
+                        p50.get(count.getKey()),
+                        p99.get(count.getKey()));
+            }
+        }
+        System.out.printf(
+                "GC: %d pauses, %d ms in total, p99 %d ms, max %d ms; peak heap %d MB%n",
+                gc.pauses.getCount(),
+                gc.pauses.getSum(),
+                gc.pauses.getPercentile(99),
+                gc.longestPause,
+                gc.peakHeap >> 20);
+    }
+
+    /**
+     * Returns the non-blank lines run so far: every one is recorded either as a command or as a
+     * failure.
+     */
+    private static long linesRun(MetricsRegistry metrics) {
+        long lines = 0;
+        for (long count : metrics.getCommandCounts().values()) {
+            lines += count;
+        }
+        for (long count : metrics.getFailureCounts().values()) {
+            lines += count;
+        }
+        return lines;
+    }
+
+    /**
+     * Records the duration of every stop-the-world collection in milliseconds and the heap use
+     * before it, from the notifications of the collectors. Concurrent cycles are not pauses and are
+     * left out.
+     */
+    private static final class GcMonitor {
+        private final Histogram pauses = new Histogram();
+        private final Set<String> heapPools = new HashSet<>();
+        private volatile long longestPause;
+        private volatile long peakHeap;
+
+        GcMonitor() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPools.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+                            notification.getType())) {
+                        return;
+                    }
+                    GarbageCollectionNotificationInfo info =
+                            GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    if (info.getGcAction().contains("concurrent")) {
+                        return;
+                    }
+                    recordPause(info.getGcInfo().getDuration());
+                    recordHeap(heapUse(info.getGcInfo().getMemoryUsageBeforeGc()));
+                }, null, null);
+            }
+        }
+
+        void sampleHeap() {
+            recordHeap(currentHeap());
+        }
+
+        long currentHeap() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        private synchronized void recordPause(long millis) {
+            pauses.record(millis);
+            longestPause = Math.max(longestPause, millis);
+        }
+
+        private synchronized void recordHeap(long used) {
+            peakHeap = Math.max(peakHeap, used);
+        }
+
+        private long heapUse(Map<String, MemoryUsage> usages) {
+            long used = 0;
+            for (Map.Entry<String, MemoryUsage> usage : usages.entrySet()) {
+                if (heapPools.contains(usage.getKey())) {
+                    used += usage.getValue().getUsed();
+                }
+            }
+            return used;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.mymoney.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Reports the time from starting a JVM to the first BALANCE/REBALANCE output for each launch path:
+ * the Spring Boot application, the fast-start launcher, and the launcher with an AppCDS archive
+ * when one is given. JMH cannot measure JVM startup, so this is a plain program that forks fresh
+ * JVMs and reports the median and the minimum over the runs:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.mymoney.benchmarks.StartupBenchmark \
+ *     &lt;application classpath&gt; &lt;input file&gt; [runs] [AppCDS archive]
+ * </pre>
+ */
+public final class StartupBenchmark {
+    private static final Pattern OUTPUT = Pattern.compile("(-?\\d+( -?\\d+)*|CANNOT_REBALANCE)");
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: StartupBenchmark <application classpath> <input file> [runs] [AppCDS archive]");
+            System.exit(1);
+        }
+        String classpath = args[0];
+        String input = args[1];
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+        report("spring", runs, Arrays.asList(java, "-cp", classpath, "org.mymoney.backend.MyMoneyApplication", input));
+        report("launcher", runs, Arrays.asList(java, "-cp", classpath, "org.mymoney.backend.MyMoneyLauncher", input));
+        if (args.length > 3) {
+            report(
+                    "launcher+appcds",
+                    runs,
+                    Arrays.asList(
+                            java,
+                            "-XX:SharedArchiveFile=" + args[3],
+                            "-cp",
+                            classpath,
+                            "org.mymoney.backend.MyMoneyLauncher",
+                            input));
+        }
+    }
+
+    private static void report(String name, int runs, List<String> command)
+            throws IOException, InterruptedException {
+        // One unmeasured run warms up the file system cache.
+        timeToFirstOutput(command);
+        long[] nanos = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            nanos[run] = timeToFirstOutput(command);
+        }
+        Arrays.sort(nanos);
+        System.out.printf(
+                "%-16s time to first output: median %d ms, min %d ms over %d runs%n",
+                name,
+                TimeUnit.NANOSECONDS.toMillis(nanos[runs / 2]),
+                TimeUnit.NANOSECONDS.toMillis(nanos[0]),
+                runs);
+    }
+
+    private static long timeToFirstOutput(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(new ArrayList<>(command)).redirectErrorStream(true).start();
+        long firstOutput = -1;
+        try (BufferedReader reader =
+                new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (firstOutput < 0 && OUTPUT.matcher(line.trim()).matches()) {
+                    firstOutput = System.nanoTime() - start;
+                }
+            }
+        }
+        process.waitFor();
+        if (firstOutput < 0) {
+            throw new IllegalStateException("No output from " + String.join(" ", command));
+        }
+        return firstOutput;
+    }
+}
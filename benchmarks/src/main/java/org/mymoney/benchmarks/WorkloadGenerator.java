@@ -0,0 +1,195 @@
+package org.mymoney.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Month;
+import java.util.Random;
+
+/**
+ * Writes a synthetic stream of commands in the line format of {@code PortfolioManager}, for inputs
+ * far larger than the sample files. Every portfolio {@code @P<n>} is allocated and given a SIP, then
+ * the months follow in order: a CHANGE per portfolio with random rates, and an even share of the
+ * queries on random portfolios. A query is a REBALANCE {@code reBalancePercent} percent of the time
+ * and otherwise a BALANCE of a random month already changed; {@code dirtyPercent} percent of the
+ * queries are replaced by lines the manager rejects, spread over its error causes.
+ *
+ * <p>The asset count has to match the universe of the portfolios reading the stream, {@code
+ * -Dmymoney.assets} with as many names. Numbers are rendered by hand, since {@code String.format}
+ * would be most of the time of a multi-GB stream:
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.mymoney.benchmarks.WorkloadGenerator \
+ *     &lt;output file&gt; &lt;lines&gt; [portfolios] [months] [assets] [rebalance %] [dirty %] [seed]
+ * </pre>
+ */
+public final class WorkloadGenerator {
+    private static final int START_YEAR = 2000;
+    private static final Month[] MONTHS = Month.values();
+
+    private final int portfolios;
+    private final int months;
+    private final int assets;
+    private final int reBalancePercent;
+    private final int dirtyPercent;
+    private final Random random;
+    private final StringBuilder line = new StringBuilder(128);
+
+    public WorkloadGenerator(
+            int portfolios, int months, int assets, int reBalancePercent, int dirtyPercent, long seed) {
+        if (portfolios <= 0 || months <= 0 || assets <= 0) {
+            throw new IllegalArgumentException("The workload needs portfolios, months and assets");
+        }
+        if (reBalancePercent < 0 || reBalancePercent > 100 || dirtyPercent < 0 || dirtyPercent > 100) {
+            throw new IllegalArgumentException("Percentages must be between 0 and 100");
+        }
+        this.portfolios = portfolios;
+        this.months = months;
+        this.assets = assets;
+        this.reBalancePercent = reBalancePercent;
+        this.dirtyPercent = dirtyPercent;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException(
+                    "Please specify <output file> <lines> [portfolios] [months] [assets] [rebalance %] [dirty %]"
+                            + " [seed]");
+        }
+        long lines = Long.parseLong(args[1]);
+        WorkloadGenerator generator =
+                new WorkloadGenerator(
+                        args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 120,
+                        args.length > 4 ? Integer.parseInt(args[4]) : 3,
+                        args.length > 5 ? Integer.parseInt(args[5]) : 10,
+                        args.length > 6 ? Integer.parseInt(args[6]) : 0,
+                        args.length > 7 ? Long.parseLong(args[7]) : 42);
+        long start = System.nanoTime();
+        long written;
+        try (Writer output = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            written = generator.generate(output, lines);
+        }
+        System.out.printf(
+                "%d lines, %d MB in %d ms%n",
+                written,
+                Files.size(Paths.get(args[0])) >> 20,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Writes at least {@code lines} lines, more when the allocations and the CHANGE of every month
+     * of every portfolio need them, and returns the number written.
+     */
+    public long generate(Writer output, long lines) throws IOException {
+        long written = 0;
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            command(portfolio, "ALLOCATE");
+            appendAmounts(1000, 10000);
+            written += write(output);
+            command(portfolio, "SIP");
+            appendAmounts(100, 2000);
+            written += write(output);
+        }
+        long queries = Math.max(0, lines - written - (long) portfolios * months);
+        for (int month = 0; month < months; month++) {
+            for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+                command(portfolio, "CHANGE");
+                for (int asset = 0; asset < assets; asset++) {
+                    appendRate(random.nextInt(3001) - 1000);
+                }
+                appendMonth(month);
+                written += write(output);
+            }
+            long monthQueries = queries * (month + 1) / months - queries * month / months;
+            for (long query = 0; query < monthQueries; query++) {
+                appendQuery(random.nextInt(portfolios), month);
+                written += write(output);
+            }
+        }
+        return written;
+    }
+
+    private void appendQuery(int portfolio, int month) {
+        if (random.nextInt(100) < dirtyPercent) {
+            appendDirty(portfolio, month);
+        } else if (random.nextInt(100) < reBalancePercent) {
+            command(portfolio, "REBALANCE");
+        } else {
+            command(portfolio, "BALANCE");
+            appendMonth(random.nextInt(month + 1));
+        }
+    }
+
+    /**
+     * Appends a line rejected as an unknown command, a wrong argument count, an invalid number or
+     * month, or a BALANCE of a month without rates yet.
+     */
+    private void appendDirty(int portfolio, int month) {
+        switch (random.nextInt(5)) {
+            case 0:
+                command(portfolio, "WITHDRAW");
+                line.append(" 100");
+                break;
+            case 1:
+                command(portfolio, "SIP");
+                break;
+            case 2:
+                command(portfolio, "CHANGE");
+                for (int asset = 0; asset < assets; asset++) {
+                    line.append(" x%");
+                }
+                appendMonth(month);
+                break;
+            case 3:
+                command(portfolio, "BALANCE");
+                line.append(" JANUARI ").append(START_YEAR);
+                break;
+            default:
+                command(portfolio, "BALANCE");
+                appendMonth(month + 1 + random.nextInt(12));
+        }
+    }
+
+    private void command(int portfolio, String command) {
+        if (portfolios > 1) {
+            line.append("@P").append(portfolio).append(' ');
+        }
+        line.append(command);
+    }
+
+    private void appendAmounts(int minimum, int maximum) {
+        for (int asset = 0; asset < assets; asset++) {
+            line.append(' ').append(minimum + random.nextInt(maximum - minimum + 1));
+        }
+    }
+
+    /** Appends a rate given in hundredths of a percent, e.g. -1250 as {@code -12.50%}. */
+    private void appendRate(int hundredths) {
+        line.append(' ');
+        if (hundredths < 0) {
+            line.append('-');
+            hundredths = -hundredths;
+        }
+        int fraction = hundredths % 100;
+        line.append(hundredths / 100)
+                .append('.')
+                .append((char) ('0' + fraction / 10))
+                .append((char) ('0' + fraction % 10))
+                .append('%');
+    }
+
+    private void appendMonth(int month) {
+        line.append(' ').append(MONTHS[month % 12].name()).append(' ').append(START_YEAR + month / 12);
+    }
+
+    private int write(Writer output) throws IOException {
+        line.append('\n');
+        output.append(line);
+        line.setLength(0);
+        return 1;
+    }
+}
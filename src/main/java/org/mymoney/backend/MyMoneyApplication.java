@@ -1,28 +1,44 @@
 package org.mymoney.backend;
 
 
-import org.mymoney.backend.config.MyMoneyConfig;
-import org.mymoney.backend.dao.PortfolioData;
-import org.mymoney.backend.service.PortfolioManager;
-import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
-import java.util.InputMismatchException;
-import java.util.logging.Level;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
+/**
+ * Spring Boot entry point. The beans come from {@link org.mymoney.backend.config.MyMoneyConfig}
+ * in the application context; {@link MyMoneyLauncher} runs the same commands without Spring.
+ */
 @SpringBootApplication
 @EnableAutoConfiguration
 public class MyMoneyApplication implements CommandLineRunner {
+    /** Input argument that makes the application read commands from the standard input. */
+    public static final String STDIN = MyMoneyLauncher.STDIN;
+    /**
+     * Option running every file of a directory, or listed in a manifest, into an output directory:
+     * {@code --batch <directory|manifest> <output directory>}.
+     */
+    public static final String BATCH = MyMoneyLauncher.BATCH;
+    /** Option serving the commands over TCP: {@code --serve [host:]port}. */
+    public static final String SERVE = MyMoneyLauncher.SERVE;
+    /** System property bounding the number of files processed at once in batch mode. */
+    public static final String BATCH_PARALLELISM_PROPERTY = MyMoneyLauncher.BATCH_PARALLELISM_PROPERTY;
     static Logger log = Logger.getLogger(MyMoneyApplication.class.getName());
-    ApplicationContext context = new AnnotationConfigApplicationContext(MyMoneyConfig.class);
-    PortfolioData portfolioData = context.getBean("portfolioData", PortfolioData.class);
-    PortfolioManager portfolioManager = new PortfolioManager(new DefaultPortfolioService(portfolioData));
+    private final Supplier<PortfolioService> portfolioFactory;
+    private final PortfolioRegistry portfolioRegistry;
+
+    public MyMoneyApplication(
+            Supplier<PortfolioService> portfolioFactory, PortfolioRegistry portfolioRegistry) {
+        this.portfolioFactory = portfolioFactory;
+        this.portfolioRegistry = portfolioRegistry;
+    }
 
     public static void main(String[] args) {
         SpringApplication.run(MyMoneyApplication.class, args);
@@ -30,18 +46,8 @@ public class MyMoneyApplication implements CommandLineRunner {
 
     @Override
     public void run(String... args) throws Exception {
-        if (args.length < 1) {
-            log.severe("Input Not Found");
-            throw new InputMismatchException(
-                    "Please specify input file.");
-        } else if (args.length > 1) {
-            log.severe("More than 1 arguments were supplied");
-            throw new InputMismatchException(
-                    "Please specify only the input file");
-        }
-        String input = args[0];
-        log.info("Starting Command Processing");
-        portfolioManager.executeCommandsFromFile(input);
+        MetricsRegistry.get().registerMBean();
+        MyMoneyLauncher.run(portfolioFactory, portfolioRegistry, args);
         System.exit(0);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,283 @@
+package org.mymoney.backend;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.export.BalanceExporter;
+import org.mymoney.backend.journal.DurablePortfolioStore;
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.metrics.MetricsReporter;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.output.AsyncWriter;
+import org.mymoney.backend.server.CommandServer;
+import org.mymoney.backend.service.BatchCommandExecutor;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.ShardedCommandExecutor;
+import org.mymoney.backend.service.impl.AllocationBacktest;
+import org.mymoney.backend.service.impl.AllocationGrid;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.mymoney.backend.service.impl.HistoricalReturns;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Entry point that wires {@link PortfolioData}, {@link DefaultPortfolioService} and {@link
+ * PortfolioManager} directly, without starting Spring, for short invocations where the startup is
+ * most of the wall time. It takes the same arguments and prints the same outputs as {@link
+ * MyMoneyApplication}, which runs through {@link #run} as well.
+ *
+ * <p>Unlike the Spring application it only registers the metrics MBean when metrics are enabled,
+ * since starting the platform MBean server is a noticeable part of a short run.
+ *
+ * <p>With {@code -Dmymoney.journal.dir=<directory>} the portfolios are journaled to, and recovered
+ * from, that directory through a {@link DurablePortfolioStore}. Batch mode is never journaled.
+ * With {@code -Dmymoney.export.file=<file>} the balances of every portfolio are exported to that
+ * file by a {@link BalanceExporter} once the commands are done.
+ */
+public final class MyMoneyLauncher {
+    /** Input argument that makes the application read commands from the standard input. */
+    public static final String STDIN = "-";
+    /**
+     * Option running every file of a directory, or listed in a manifest, into an output directory:
+     * {@code --batch <directory|manifest> <output directory>}.
+     */
+    public static final String BATCH = "--batch";
+    /**
+     * Option serving the commands over TCP until the process is stopped: {@code --serve
+     * [host:]port}. The host defaults to the loopback interface.
+     */
+    public static final String SERVE = "--serve";
+    /**
+     * Option sweeping a grid of allocations and SIPs through a history of monthly returns and
+     * printing the best ones: {@code --backtest <returns file>}. The grid and the ranking are set
+     * by the {@code mymoney.backtest.*} properties of {@link AllocationBacktest}.
+     */
+    public static final String BACKTEST = "--backtest";
+    /** System property bounding the number of files processed at once in batch mode. */
+    public static final String BATCH_PARALLELISM_PROPERTY = "mymoney.batch.parallelism";
+    /**
+     * System property choosing how outputs and errors reach the standard streams: {@code async}, the
+     * default, writes them from dedicated threads through {@link AsyncWriter}s, {@code direct} from
+     * the threads running the commands.
+     */
+    public static final String OUTPUT_PROPERTY = "mymoney.output";
+    static Logger log = Logger.getLogger(MyMoneyLauncher.class.getName());
+
+    private MyMoneyLauncher() {
+    }
+
+    public static void main(String[] args) throws IOException, DataFormatException {
+        AssetUniverse assetUniverse = AssetUniverse.fromSystemProperty();
+        Supplier<PortfolioService> portfolioFactory =
+                () -> new DefaultPortfolioService(new PortfolioData(assetUniverse));
+        MetricsRegistry metrics = MetricsRegistry.get();
+        if (metrics.isEnabled()) {
+            metrics.registerMBean();
+        }
+        String journalDirectory = System.getProperty(DurablePortfolioStore.DIRECTORY_PROPERTY);
+        if (Objects.isNull(journalDirectory) || (args.length > 0 && (BATCH.equals(args[0]) || BACKTEST.equals(args[0])))) {
+            run(portfolioFactory, new PortfolioRegistry(portfolioFactory), args);
+            return;
+        }
+        try (DurablePortfolioStore store = DurablePortfolioStore.open(Paths.get(journalDirectory), assetUniverse)) {
+            run(portfolioFactory, store.getPortfolioRegistry(), store::checkpointIfDue, args);
+        }
+    }
+
+    /** Runs the command line against portfolios created by the factory. */
+    static void run(
+            Supplier<PortfolioService> portfolioFactory, PortfolioRegistry portfolioRegistry, String... args)
+            throws IOException {
+        run(portfolioFactory, portfolioRegistry, null, args);
+    }
+
+    /**
+     * Runs the command line, calling {@code batchListener}, when given, between the batches of
+     * commands.
+     */
+    static void run(
+            Supplier<PortfolioService> portfolioFactory,
+            PortfolioRegistry portfolioRegistry,
+            Runnable batchListener,
+            String... args)
+            throws IOException {
+        if (args.length > 0 && BATCH.equals(args[0])) {
+            runBatch(portfolioFactory, args);
+            return;
+        }
+        if (args.length > 0 && BACKTEST.equals(args[0])) {
+            runBacktest(args);
+            return;
+        }
+        if (args.length > 0 && SERVE.equals(args[0])) {
+            runServer(portfolioFactory, portfolioRegistry, batchListener, args);
+            return;
+        }
+        if (args.length < 1) {
+            log.severe("Input Not Found");
+            throw new InputMismatchException(
+                    "Please specify input file.");
+        } else if (args.length > 1) {
+            log.severe("More than 1 arguments were supplied");
+            throw new InputMismatchException(
+                    "Please specify only the input file");
+        }
+        String input = args[0];
+        log.info("Starting Command Processing");
+        MetricsRegistry metrics = MetricsRegistry.get();
+        MetricsReporter reporter =
+                new MetricsReporter(
+                        metrics,
+                        Long.getLong(MetricsReporter.INTERVAL_PROPERTY, MetricsReporter.DEFAULT_INTERVAL_SECONDS),
+                        TimeUnit.SECONDS,
+                        log::info);
+        boolean async = !"direct".equalsIgnoreCase(System.getProperty(OUTPUT_PROPERTY, "async").trim());
+        Writer output = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        Writer errors = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+        if (async) {
+            output = new AsyncWriter(output, "mymoney-output");
+            errors = new AsyncWriter(errors, "mymoney-errors");
+        }
+        PortfolioManager portfolioManager = new PortfolioManager(portfolioRegistry);
+        portfolioManager.setErrorOutput(errors);
+        try (ShardedCommandExecutor executor = new ShardedCommandExecutor(portfolioManager)) {
+            executor.setBatchListener(batchListener);
+            if (STDIN.equals(input)) {
+                executor.executeCommands(new InputStreamReader(System.in, StandardCharsets.UTF_8), output);
+            } else {
+                try (Reader reader = PortfolioManager.openFile(input)) {
+                    executor.executeCommands(reader, output);
+                }
+            }
+            String exportFile = System.getProperty(BalanceExporter.FILE_PROPERTY);
+            if (Objects.nonNull(exportFile)) {
+                long rows = BalanceExporter.export(Paths.get(exportFile), portfolioRegistry);
+                log.info("Exported " + rows + " monthly balances to " + exportFile);
+            }
+        } finally {
+            finish(output);
+            finish(errors);
+            reporter.close();
+            if (metrics.isEnabled()) {
+                log.info("Metrics at exit:" + System.lineSeparator() + metrics.dump());
+            }
+        }
+    }
+
+    /** Waits for an asynchronous writer to write everything, or flushes a direct one. */
+    private static void finish(Writer writer) throws IOException {
+        if (writer instanceof AsyncWriter) {
+            writer.close();
+        } else {
+            writer.flush();
+        }
+    }
+
+    private static void runServer(
+            Supplier<PortfolioService> portfolioFactory,
+            PortfolioRegistry portfolioRegistry,
+            Runnable batchListener,
+            String... args)
+            throws IOException {
+        if (args.length != 2) {
+            log.severe("Server mode expects the port to listen on");
+            throw new InputMismatchException("Please specify " + SERVE + " [host:]port");
+        }
+        String address = args[1];
+        int separator = address.lastIndexOf(':');
+        String host = separator < 0 ? InetAddress.getLoopbackAddress().getHostAddress() : address.substring(0, separator);
+        int port = Integer.parseInt(address.substring(separator + 1));
+        try (CommandServer server =
+                new CommandServer(
+                        new InetSocketAddress(host, port),
+                        portfolioRegistry,
+                        portfolioFactory,
+                        CommandServer.SessionMode.fromSystemProperty())) {
+            server.setBatchListener(batchListener);
+            server.run();
+        }
+    }
+
+    private static void runBatch(Supplier<PortfolioService> portfolioFactory, String... args)
+            throws IOException {
+        if (args.length != 3) {
+            log.severe("Batch mode expects an input and an output location");
+            throw new InputMismatchException(
+                    "Please specify " + BATCH + " <directory|manifest> <output directory>");
+        }
+        List<Path> inputs = BatchCommandExecutor.listInputs(Paths.get(args[1]));
+        log.info("Starting Batch Processing of " + inputs.size() + " files");
+        int parallelism =
+                Integer.getInteger(BATCH_PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        try (BatchCommandExecutor executor =
+                new BatchCommandExecutor(
+                        () -> new PortfolioManager(new PortfolioRegistry(1, portfolioFactory)), parallelism)) {
+            List<BatchCommandExecutor.FileResult> results = executor.execute(inputs, Paths.get(args[2]));
+            System.out.print(BatchCommandExecutor.summarize(results, System.nanoTime() - start));
+        }
+    }
+
+    private static void runBacktest(String... args) throws IOException {
+        if (args.length != 2) {
+            log.severe("Backtest mode expects a returns file");
+            throw new InputMismatchException("Please specify " + BACKTEST + " <returns file>");
+        }
+        HistoricalReturns returns;
+        try {
+            returns = HistoricalReturns.load(Paths.get(args[1]));
+        } catch (DataFormatException e) {
+            log.severe(e.getMessage());
+            throw new InputMismatchException(e.getMessage());
+        }
+        String[] sips = System.getProperty(AllocationBacktest.SIPS_PROPERTY, "0").split(",");
+        double[] sipTotals = new double[sips.length];
+        for (int index = 0; index < sips.length; index++) {
+            sipTotals[index] = Double.parseDouble(sips[index].trim());
+        }
+        AllocationGrid grid =
+                new AllocationGrid(
+                        returns.getAssetCount(),
+                        Double.parseDouble(System.getProperty(AllocationBacktest.ALLOCATION_PROPERTY, "10000")),
+                        Double.parseDouble(System.getProperty(AllocationBacktest.STEP_PROPERTY, "5")),
+                        sipTotals);
+        AllocationBacktest.Ranking ranking =
+                AllocationBacktest.Ranking.valueOf(
+                        System.getProperty(AllocationBacktest.RANKING_PROPERTY, "final_value")
+                                .trim()
+                                .toUpperCase(Locale.ROOT));
+        log.info("Backtesting " + grid.size() + " configurations over " + returns.getMonths() + " months");
+        long start = System.nanoTime();
+        List<AllocationBacktest.Outcome> outcomes =
+                new AllocationBacktest(
+                                returns,
+                                grid,
+                                DefaultPortfolioService.CONFIGURED_POLICY,
+                                ranking,
+                                Integer.getInteger(AllocationBacktest.TOP_PROPERTY, 10))
+                        .run();
+        log.info("Backtested in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        StringBuilder report = new StringBuilder();
+        for (int rank = 0; rank < outcomes.size(); rank++) {
+            report.append(rank + 1).append(' ').append(outcomes.get(rank)).append(System.lineSeparator());
+        }
+        System.out.print(report);
+    }
+}
@@ -1,20 +1,33 @@
 package org.mymoney.backend.config;
 
 import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import static org.mymoney.backend.model.Asset.*;
+import java.util.function.Supplier;
 
 @Configuration
 public class MyMoneyConfig {
 
+    /** The assets of every portfolio, configured with {@link AssetUniverse#PROPERTY}. */
     @Bean
-    public PortfolioData portfolioData() {
-        PortfolioData data = new PortfolioData();
-        data.defaultAssetOrderForIO.add(EQUITY);
-        data.defaultAssetOrderForIO.add(DEBT);
-        data.defaultAssetOrderForIO.add(GOLD);
-        return data;
+    public AssetUniverse assetUniverse() {
+        return AssetUniverse.fromSystemProperty();
     }
-}
\ No newline at end of file
+
+    @Bean
+    public Supplier<PortfolioService> portfolioFactory() {
+        // Every portfolio shares the one immutable asset universe.
+        AssetUniverse assetUniverse = assetUniverse();
+        return () -> new DefaultPortfolioService(new PortfolioData(assetUniverse));
+    }
+
+    @Bean
+    public PortfolioRegistry portfolioRegistry() {
+        return new PortfolioRegistry(portfolioFactory());
+    }
+}
@@ -2,4 +2,8 @@ package org.mymoney.backend.constants;
 
 public class MyMoneyConstants {
     public static final String CANNOT_REBALANCE = "CANNOT_REBALANCE";
+    /** Server response to a command that succeeded without an output. */
+    public static final String OK = "OK";
+    /** Prefix of the server response to a rejected command, followed by its error code. */
+    public static final String ERROR_PREFIX = "ERROR ";
 }
@@ -2,30 +2,241 @@ package org.mymoney.backend.dao;
 
 import org.mymoney.backend.dto.Portfolio;
 import org.mymoney.backend.model.Asset;
-import org.springframework.context.annotation.Scope;
+import org.mymoney.backend.model.AssetUniverse;
 
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.*;
 
-@Scope("singleton")
+/**
+ * State of a single portfolio.
+ *
+ * <p>The timeline starts in the JANUARY of the allocation year and is indexed by months since
+ * then. Monthly balances and market change rates are kept in flat primitive arrays with one row per
+ * month holding a value per asset of the {@link AssetUniverse}, by asset index, and grow as later
+ * months are added, up to {@link #MAX_MONTHS} months.
+ */
 public class PortfolioData {
-    public TreeMap<Month, Portfolio> monthlyBalance = new TreeMap<>();
-    public TreeMap<Month, Map<Asset, Double>> monthlyMarketChangeRate = new TreeMap<>();
+    public static final int MONTHS_PER_YEAR = Month.values().length;
+    public static final int UNKNOWN_YEAR = Integer.MIN_VALUE;
+    /** System property with the most months a timeline may span, {@value #DEFAULT_MAX_MONTHS} by default. */
+    public static final String MAX_MONTHS_PROPERTY = "mymoney.timeline.maxMonths";
+    public static final int DEFAULT_MAX_MONTHS = 1200;
+    /** The months a timeline may span; CHANGE and CORRECT of later months are rejected. */
+    public static final int MAX_MONTHS = Integer.getInteger(MAX_MONTHS_PROPERTY, DEFAULT_MAX_MONTHS);
+
+    public double[] monthlyBalance;
+    public int calculatedMonths;
+    public double[] monthlyMarketChangeRate;
+    public long[] knownRateMonths;
+    public int rateMonths;
+    /** Bitmap of the calculated months that were re-balanced. */
+    public long[] reBalancedMonths;
+    public int startYear = UNKNOWN_YEAR;
     public Portfolio initialAllocation;
     public Portfolio initialSip;
-    public Map<Asset, Double> desiredWeights = new HashMap<>();
-    public Set<Asset> defaultAssetOrderForIO = new LinkedHashSet<>();
+    public double[] desiredWeights;
+    public AssetUniverse assetUniverse;
+    public int assetCount;
+    /** The assets as {@link Asset} constants, for universes made only of them; taken from the universe. */
+    private final Set<Asset> defaultAssetOrderForIO;
+
+    /** Creates a portfolio over {@link AssetUniverse#DEFAULT}. */
+    public PortfolioData() {
+        this(AssetUniverse.DEFAULT);
+    }
+
+    public PortfolioData(Set<Asset> defaultAssetOrderForIO) {
+        this(AssetUniverse.of(defaultAssetOrderForIO));
+    }
+
+    /**
+     * Creates the state of one portfolio sharing the given universe, so that a registry holding
+     * millions of portfolios keeps a single copy of it.
+     */
+    public PortfolioData(AssetUniverse assetUniverse) {
+        this.assetUniverse = assetUniverse;
+        this.assetCount = assetUniverse.size();
+        this.defaultAssetOrderForIO = assetUniverse.getAssets();
+    }
+
+    public int rowOffset(int monthIndex) {
+        return monthIndex * assetCount;
+    }
+
+    /** Month names without a year address the first year of the timeline. */
+    public static int monthIndex(Month month) {
+        return month.ordinal();
+    }
+
+    /**
+     * Returns the index of the month on the timeline, -1 when the calendar year of the timeline is
+     * not fixed yet or the month is before it, or {@link #MAX_MONTHS} for any month past the
+     * longest timeline. Nothing is changed, so queries and rejected commands leave the timeline as
+     * it is.
+     */
+    public int monthIndex(YearMonth yearMonth) {
+        if (startYear == UNKNOWN_YEAR) {
+            return -1;
+        }
+        long index = ((long) yearMonth.getYear() - startYear) * MONTHS_PER_YEAR + yearMonth.getMonthValue() - 1;
+        return (int) Math.max(Math.min(index, MAX_MONTHS), -1);
+    }
+
+    /** Tells whether the month index lies within the longest timeline, {@link #MAX_MONTHS} months. */
+    public static boolean withinTimeline(int monthIndex) {
+        return monthIndex < MAX_MONTHS;
+    }
+
+    /**
+     * Returns the index a CHANGE or CORRECT of the dated month addresses, or -1 for a month before
+     * the timeline. The first dated month starts the timeline, so it belongs to the first year; once
+     * months without a year have changed rates, the calendar year they meant is unknown and dated
+     * months are -1 too, instead of silently restating one of them.
+     */
+    public int changeIndex(YearMonth yearMonth) {
+        if (startYear == UNKNOWN_YEAR) {
+            return rateMonths == 0 ? yearMonth.getMonthValue() - 1 : -1;
+        }
+        return monthIndex(yearMonth);
+    }
+
+    /** Tells whether months without a year changed rates before any dated month fixed the year. */
+    public boolean hasUndatedRates() {
+        return startYear == UNKNOWN_YEAR && rateMonths > 0;
+    }
+
+    /**
+     * Fixes the calendar year of the timeline to the year of the first dated month whose CHANGE or
+     * CORRECT was accepted; month names without a year then belong to that year.
+     */
+    public void fixStartYear(YearMonth yearMonth) {
+        if (startYear == UNKNOWN_YEAR) {
+            startYear = yearMonth.getYear();
+        }
+    }
+
+    public static Month monthOf(int monthIndex) {
+        return Month.of(monthIndex % MONTHS_PER_YEAR + 1);
+    }
 
+    /** Names the month, adding the year for months after the first year of the timeline. */
+    public String describe(int monthIndex) {
+        if (monthIndex < MONTHS_PER_YEAR) {
+            return monthOf(monthIndex).name();
+        }
+        return appendDescription(new StringBuilder(), monthIndex).toString();
+    }
+
+    /** Appends the name {@link #describe} gives the month. */
+    public StringBuilder appendDescription(StringBuilder builder, int monthIndex) {
+        builder.append(monthOf(monthIndex).name());
+        if (monthIndex >= MONTHS_PER_YEAR) {
+            int year = monthIndex / MONTHS_PER_YEAR;
+            if (startYear == UNKNOWN_YEAR) {
+                builder.append(" of year ").append(year + 1);
+            } else {
+                builder.append(' ').append(startYear + year);
+            }
+        }
+        return builder;
+    }
 
-    public TreeMap<Month, Portfolio> getMonthlyBalance() {
+    public double[] getMonthlyBalance(int months) {
+        monthlyBalance = ensureRows(monthlyBalance, months);
         return monthlyBalance;
     }
 
-    public TreeMap<Month, Map<Asset, Double>> getMonthlyMarketChangeRate() {
+    public double[] getMonthlyMarketChangeRate(int months) {
+        monthlyMarketChangeRate = ensureRows(monthlyMarketChangeRate, months);
         return monthlyMarketChangeRate;
     }
 
-    public Map<Asset, Double> getDesiredWeights() {
+    public boolean hasMarketChangeRate(int monthIndex) {
+        return monthIndex < rateMonths
+                && (knownRateMonths[monthIndex >>> 6] & (1L << monthIndex)) != 0;
+    }
+
+    public boolean hasMarketChangeRate(Month month) {
+        return hasMarketChangeRate(monthIndex(month));
+    }
+
+    public void markMarketChangeRate(int monthIndex) {
+        int words = (monthIndex >>> 6) + 1;
+        if (Objects.isNull(knownRateMonths) || knownRateMonths.length < words) {
+            knownRateMonths =
+                    Objects.isNull(knownRateMonths)
+                            ? new long[words]
+                            : Arrays.copyOf(knownRateMonths, Math.max(words, knownRateMonths.length * 2));
+        }
+        knownRateMonths[monthIndex >>> 6] |= 1L << monthIndex;
+        rateMonths = Math.max(rateMonths, monthIndex + 1);
+    }
+
+    /** Records whether the calculated month was re-balanced. */
+    public void setReBalanced(int monthIndex, boolean reBalanced) {
+        int words = (monthIndex >>> 6) + 1;
+        if (Objects.isNull(reBalancedMonths) || reBalancedMonths.length < words) {
+            if (!reBalanced) {
+                return;
+            }
+            reBalancedMonths =
+                    Objects.isNull(reBalancedMonths)
+                            ? new long[words]
+                            : Arrays.copyOf(reBalancedMonths, Math.max(words, reBalancedMonths.length * 2));
+        }
+        if (reBalanced) {
+            reBalancedMonths[monthIndex >>> 6] |= 1L << monthIndex;
+        } else {
+            reBalancedMonths[monthIndex >>> 6] &= ~(1L << monthIndex);
+        }
+    }
+
+    /** Returns the latest re-balanced month up to the given one, or -1 if there is none. */
+    public int lastReBalancedMonth(int monthIndex) {
+        if (monthIndex < 0 || Objects.isNull(reBalancedMonths)) {
+            return -1;
+        }
+        int word = Math.min(monthIndex >>> 6, reBalancedMonths.length - 1);
+        long bits = reBalancedMonths[word];
+        if (word == monthIndex >>> 6) {
+            bits &= -1L >>> (63 - (monthIndex & 63));
+        }
+        while (bits == 0) {
+            if (--word < 0) {
+                return -1;
+            }
+            bits = reBalancedMonths[word];
+        }
+        return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /** Returns a copy of the rates for the month indexed by asset index, or null if unknown. */
+    public double[] getMarketChangeRate(int monthIndex) {
+        if (!hasMarketChangeRate(monthIndex)) {
+            return null;
+        }
+        int offset = rowOffset(monthIndex);
+        return Arrays.copyOfRange(monthlyMarketChangeRate, offset, offset + assetCount);
+    }
+
+    public double[] getMarketChangeRate(Month month) {
+        return getMarketChangeRate(monthIndex(month));
+    }
+
+    private double[] ensureRows(double[] table, int months) {
+        if (months > MAX_MONTHS) {
+            throw new IllegalArgumentException(
+                    "A timeline of " + months + " months is longer than the limit of " + MAX_MONTHS);
+        }
+        int length = Math.max(months, MONTHS_PER_YEAR) * assetCount;
+        if (Objects.isNull(table)) {
+            return new double[length];
+        }
+        return table.length >= length ? table : Arrays.copyOf(table, Math.max(length, table.length * 2));
+    }
+
+    public double[] getDesiredWeights() {
         return desiredWeights;
     }
 
@@ -37,6 +248,14 @@ public class PortfolioData {
         return defaultAssetOrderForIO;
     }
 
+    public AssetUniverse getAssetUniverse() {
+        return assetUniverse;
+    }
+
+    public int getAssetCount() {
+        return assetCount;
+    }
+
     public Portfolio getInitialSip() {
         return initialSip;
     }
@@ -1,38 +1,90 @@
 package org.mymoney.backend.dto;
 
+import org.mymoney.backend.model.Asset;
+import org.mymoney.backend.model.AssetUniverse;
 import org.mymoney.backend.model.Fund;
 import org.springframework.lang.NonNull;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
+/**
+ * Amounts held per asset, stored in a primitive array indexed by the asset index of an {@link
+ * AssetUniverse}, which is also the order the portfolio is printed in.
+ */
 public class Portfolio implements Cloneable {
-    @NonNull private final List<Fund> funds;
+    @NonNull private final AssetUniverse assetUniverse;
+    @NonNull private final double[] amounts;
+
+    public Portfolio(AssetUniverse assetUniverse, double[] amounts) {
+        if (amounts.length != assetUniverse.size()) {
+            throw new IllegalArgumentException("Amounts must be indexed by asset index");
+        }
+        this.assetUniverse = assetUniverse;
+        this.amounts = amounts;
+    }
 
     public Portfolio(List<Fund> funds) {
-        this.funds = funds;
+        Asset[] assets = new Asset[funds.size()];
+        this.amounts = new double[funds.size()];
+        for (int index = 0; index < funds.size(); index++) {
+            assets[index] = funds.get(index).getAsset();
+            amounts[index] = funds.get(index).getAmount();
+        }
+        this.assetUniverse = AssetUniverse.of(assets);
     }
 
+    /**
+     * Returns a snapshot of the funds in index order; changing them does not write back. Only
+     * universes made of {@link Asset} constants can be listed as funds.
+     */
     public List<Fund> getFunds() {
-        return this.funds;
+        List<Fund> funds = new ArrayList<>(amounts.length);
+        for (int index = 0; index < amounts.length; index++) {
+            funds.add(new Fund(Asset.valueOf(assetUniverse.name(index)), amounts[index]));
+        }
+        return funds;
+    }
+
+    public AssetUniverse getAssetUniverse() {
+        return assetUniverse;
+    }
+
+    /** Returns the backing amounts indexed by asset index. */
+    public double[] getAmounts() {
+        return amounts;
+    }
+
+    public double getAmount(int assetIndex) {
+        return amounts[assetIndex];
     }
 
     @Override
     public String toString() {
-        return funds.stream()
-                .map(entity -> Integer.toString((int) Math.floor(entity.getAmount())))
-                .collect(Collectors.joining(" "));
+        return appendTo(new StringBuilder(), amounts, 0, amounts.length).toString();
+    }
+
+    /** Appends {@code count} floored amounts found at {@code offset}, separated by spaces. */
+    public static StringBuilder appendTo(StringBuilder builder, double[] amounts, int offset, int count) {
+        for (int index = 0; index < count; index++) {
+            if (index > 0) {
+                builder.append(' ');
+            }
+            builder.append((int) Math.floor(amounts[offset + index]));
+        }
+        return builder;
     }
 
     @Override
     public Portfolio clone() {
-        return new Portfolio(
-                funds.stream()
-                        .map(e -> new Fund(e.getAsset(), e.getAmount()))
-                        .collect(Collectors.toList()));
+        return new Portfolio(assetUniverse, amounts.clone());
     }
 
     public double getTotalInvestment() {
-        return funds.stream().mapToDouble(Fund::getAmount).sum();
+        double total = 0;
+        for (double amount : amounts) {
+            total += amount;
+        }
+        return total;
     }
 }
@@ -0,0 +1,236 @@
+package org.mymoney.backend.export;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.journal.JournaledPortfolioService;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Writes the monthly balances of many portfolios to a columnar binary file for analytics, with the
+ * exact amounts instead of their rendering.
+ *
+ * <p>The rows are portfolio-months, one per calculated month of every portfolio, and the columns
+ * are the assets. The rows are written in groups of about {@code groupRows} rows, and a group holds
+ * one contiguous column per asset, so a group is streamed through one direct buffer whatever the
+ * number of portfolios. The file is little-endian, and every column starts at a multiple of 8
+ * bytes so that it can be memory mapped as an array of doubles (numpy {@code '<f8'}):
+ *
+ * <pre>
+ * int    magic {@link #MAGIC} ("MMBX"), int version {@link #VERSION}
+ * int    number of assets, then per asset an int length and the name in UTF-8
+ *        zero padding to a multiple of 8 bytes
+ * groups, each made of:
+ *   int    number of portfolios, never 0
+ *   int    number of rows
+ *   per portfolio: int ID length, the ID in UTF-8, int start year of the timeline, int months
+ *          zero padding to a multiple of 8 bytes
+ *   per asset: a double per row, by portfolio and then by month since the January of the start
+ *          year (month index 0)
+ * int    0 in place of the number of portfolios, int 0, long total number of rows
+ * </pre>
+ *
+ * <p>The start year is {@link PortfolioData#UNKNOWN_YEAR} for portfolios addressed with month
+ * names only. The portfolios must not change while they are exported.
+ */
+public class BalanceExporter implements AutoCloseable {
+    /** System property naming the file the balances of every portfolio are exported to on exit. */
+    public static final String FILE_PROPERTY = "mymoney.export.file";
+    public static final int MAGIC = 0x58424D4D;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_GROUP_ROWS = 1 << 16;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int ALIGNMENT = Double.BYTES;
+
+    private final FileChannel channel;
+    private final int groupRows;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<String> groupIds = new ArrayList<>();
+    private final List<PortfolioData> group = new ArrayList<>();
+    private AssetUniverse assetUniverse;
+    private int rows;
+    private long written;
+    private long totalRows;
+
+    public BalanceExporter(Path file) throws IOException {
+        this(file, DEFAULT_GROUP_ROWS);
+    }
+
+    public BalanceExporter(Path file, int groupRows) throws IOException {
+        this.channel =
+                FileChannel.open(
+                        file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.groupRows = groupRows;
+    }
+
+    /** Exports every portfolio of the registry and returns the number of rows written. */
+    public static long export(Path file, PortfolioRegistry portfolioRegistry) throws IOException {
+        try (BalanceExporter exporter = new BalanceExporter(file)) {
+            try {
+                portfolioRegistry.forEach(
+                        (portfolioId, portfolio) -> {
+                            try {
+                                exporter.add(portfolioId, portfolio);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            exporter.finish();
+            return exporter.totalRows;
+        }
+    }
+
+    /** Adds the balances calculated so far of a {@link DefaultPortfolioService}, or of one it decorates. */
+    public void add(String portfolioId, PortfolioService portfolio) throws IOException {
+        PortfolioService service =
+                portfolio instanceof JournaledPortfolioService
+                        ? ((JournaledPortfolioService) portfolio).getDelegate()
+                        : portfolio;
+        if (!(service instanceof DefaultPortfolioService)) {
+            throw new IllegalArgumentException("Unable to export a " + portfolio.getClass().getSimpleName());
+        }
+        add(portfolioId, ((DefaultPortfolioService) service).getUpdatedPortfolioData());
+    }
+
+    /** Adds the calculated months of the portfolio; the first portfolio fixes the assets of the file. */
+    public void add(String portfolioId, PortfolioData portfolioData) throws IOException {
+        if (Objects.isNull(assetUniverse)) {
+            writeHeader(portfolioData.assetUniverse);
+        } else if (!sameAssets(assetUniverse, portfolioData.assetUniverse)) {
+            throw new IllegalStateException("The portfolio " + portfolioId + " has different assets");
+        }
+        if (portfolioData.calculatedMonths == 0) {
+            return;
+        }
+        groupIds.add(portfolioId);
+        group.add(portfolioData);
+        rows += portfolioData.calculatedMonths;
+        if (rows >= groupRows) {
+            writeGroup();
+        }
+    }
+
+    private static boolean sameAssets(AssetUniverse first, AssetUniverse second) {
+        if (first == second) {
+            return true;
+        }
+        if (first.size() != second.size()) {
+            return false;
+        }
+        for (int asset = 0; asset < first.size(); asset++) {
+            if (!first.name(asset).equals(second.name(asset))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Writes the header, with no assets when {@code universe} is null. */
+    private void writeHeader(AssetUniverse universe) throws IOException {
+        assetUniverse = universe;
+        int assets = Objects.isNull(universe) ? 0 : universe.size();
+        ensure(3 * Integer.BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(assets);
+        for (int asset = 0; asset < assets; asset++) {
+            putString(universe.name(asset));
+        }
+        pad();
+    }
+
+    private void writeGroup() throws IOException {
+        ensure(2 * Integer.BYTES);
+        buffer.putInt(group.size()).putInt(rows);
+        for (int index = 0; index < group.size(); index++) {
+            PortfolioData portfolioData = group.get(index);
+            putString(groupIds.get(index));
+            ensure(2 * Integer.BYTES);
+            buffer.putInt(portfolioData.startYear).putInt(portfolioData.calculatedMonths);
+        }
+        pad();
+        int assets = assetUniverse.size();
+        for (int asset = 0; asset < assets; asset++) {
+            for (PortfolioData portfolioData : group) {
+                double[] balances = portfolioData.monthlyBalance;
+                int months = portfolioData.calculatedMonths;
+                int month = 0;
+                while (month < months) {
+                    ensure(Double.BYTES);
+                    int end = Math.min(months, month + buffer.remaining() / Double.BYTES);
+                    for (int offset = month * assets + asset; month < end; month++, offset += assets) {
+                        buffer.putDouble(balances[offset]);
+                    }
+                }
+            }
+        }
+        totalRows += rows;
+        rows = 0;
+        group.clear();
+        groupIds.clear();
+    }
+
+    private void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private void pad() throws IOException {
+        ensure(ALIGNMENT);
+        while ((written + buffer.position()) % ALIGNMENT != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Writes the pending group and the end of the file; nothing can be added afterwards. */
+    public void finish() throws IOException {
+        if (written == 0 && buffer.position() == 0) {
+            writeHeader(null);
+        }
+        if (!group.isEmpty()) {
+            writeGroup();
+        }
+        ensure(2 * Integer.BYTES + Long.BYTES);
+        buffer.putInt(0).putInt(0).putLong(totalRows);
+        flush();
+    }
+
+    /** The number of rows written so far. */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
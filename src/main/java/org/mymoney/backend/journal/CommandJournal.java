@@ -0,0 +1,328 @@
+package org.mymoney.backend.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Append-only binary journal of the accepted ALLOCATE, SIP, CHANGE and CORRECT commands.
+ *
+ * <p>The journal is a sequence of segment files {@code journal-<segment>.log}; every snapshot
+ * starts a new segment, so recovery only replays the segments written after the newest snapshot.
+ * A record is laid out big-endian as
+ *
+ * <pre>
+ * int    payload length
+ * int    CRC32 of the payload
+ * payload:
+ *   byte   command ({@link #ALLOCATE}, {@link #SIP}, {@link #CHANGE} or {@link #CORRECT})
+ *   short  portfolio ID length, followed by the ID in UTF-8
+ *   int    year, or {@link #NO_YEAR} for a month of the first year
+ *   byte   month 1-12, or 0 for ALLOCATE and SIP
+ *   short  number of values, followed by the values as doubles
+ * </pre>
+ *
+ * <p>Records are gathered in a direct buffer and written with one {@link FileChannel#write} when it
+ * fills up; the channel is forced to disk every {@code syncEveryRecords} records or {@code
+ * syncIntervalMillis} milliseconds, whichever comes first, and on {@link #sync()}. The interval is
+ * kept by a background thread, so it holds when no further record is appended. A crash can
+ * therefore lose the records appended since the last sync, and leaves at most one torn record at
+ * the end of the last segment, which the CRC detects. Opening the journal cuts that tail off before
+ * starting a new segment, so the records appended after a recovery are replayed as well. A corrupt
+ * record anywhere else is damage rather than a crash, and fails the recovery.
+ */
+public class CommandJournal implements AutoCloseable {
+    public static final byte ALLOCATE = 1;
+    public static final byte SIP = 2;
+    public static final byte CHANGE = 3;
+    public static final byte CORRECT = 4;
+    public static final int NO_YEAR = Integer.MIN_VALUE;
+    static final String SEGMENT_PREFIX = "journal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+    static Logger log = Logger.getLogger(CommandJournal.class.getName());
+
+    private final Path directory;
+    private final int syncEveryRecords;
+    private final long syncIntervalNanos;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService syncScheduler;
+    private FileChannel channel;
+    private long segment;
+    private int unsyncedRecords;
+    private long lastSyncNanos = System.nanoTime();
+    private long records;
+
+    /** Opens a new, empty segment after every existing one for appending. */
+    public CommandJournal(Path directory, int syncEveryRecords, long syncIntervalMillis)
+            throws IOException {
+        this.directory = directory;
+        this.syncEveryRecords = syncEveryRecords;
+        this.syncIntervalNanos = syncIntervalMillis * 1_000_000L;
+        Files.createDirectories(directory);
+        List<Long> segments = segments(directory);
+        if (!segments.isEmpty()) {
+            truncateTornTail(segments.get(segments.size() - 1));
+        }
+        openSegment(segments.isEmpty() ? 0 : segments.get(segments.size() - 1) + 1);
+        this.syncScheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "journal-sync");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        long period = Math.max(1, syncIntervalMillis);
+        syncScheduler.scheduleWithFixedDelay(this::syncIfDue, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** Syncs the records appended since the last sync once they waited the sync interval. */
+    private synchronized void syncIfDue() {
+        if (unsyncedRecords == 0 || System.nanoTime() - lastSyncNanos < syncIntervalNanos || !channel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            log.severe("Unable to sync the journal: " + e);
+        }
+    }
+
+    /** Cuts the torn or corrupt records a crash left at the end of the segment off. */
+    private void truncateTornTail(long segment) throws IOException {
+        Path path = segmentPath(directory, segment);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            long valid = 0;
+            while (data.remaining() >= HEADER_SIZE) {
+                int length = checkRecord(data, crc);
+                if (length < 0) {
+                    break;
+                }
+                data.position(data.position() + length);
+                valid = data.position();
+            }
+            if (valid < size) {
+                log.warning("Truncating " + (size - valid) + " bytes of torn records off journal segment " + segment);
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private void openSegment(long segment) throws IOException {
+        this.segment = segment;
+        this.channel =
+                FileChannel.open(
+                        segmentPath(directory, segment),
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE);
+    }
+
+    public synchronized void append(byte command, String portfolioId, int year, Month month, double[] values) {
+        byte[] id = portfolioId.getBytes(StandardCharsets.UTF_8);
+        int payload = 1 + Short.BYTES + id.length + Integer.BYTES + 1 + Short.BYTES + values.length * Double.BYTES;
+        try {
+            if (buffer.remaining() < HEADER_SIZE + payload) {
+                write();
+            }
+            if (buffer.remaining() < HEADER_SIZE + payload) {
+                throw new IOException("Journal record of " + payload + " bytes does not fit the buffer");
+            }
+            int start = buffer.position();
+            buffer.putInt(payload).putInt(0);
+            buffer.put(command).putShort((short) id.length).put(id);
+            buffer.putInt(year).put((byte) (Objects.isNull(month) ? 0 : month.getValue()));
+            buffer.putShort((short) values.length);
+            for (double value : values) {
+                buffer.putDouble(value);
+            }
+            ByteBuffer written = buffer.duplicate();
+            written.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + payload);
+            crc.reset();
+            crc.update(written);
+            buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+            records++;
+            if (++unsyncedRecords >= syncEveryRecords || System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to journal the command", e);
+        }
+    }
+
+    /** Writes the buffered records and forces them to disk. */
+    public synchronized void sync() throws IOException {
+        write();
+        channel.force(false);
+        unsyncedRecords = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Syncs the current segment and continues in a new one. Returns the number of the new segment:
+     * state that includes every record appended so far only needs the segments from that one on.
+     */
+    public synchronized long rollOver() throws IOException {
+        sync();
+        channel.close();
+        openSegment(segment + 1);
+        return segment;
+    }
+
+    /** Deletes the segments before the given one, once a snapshot made them redundant. */
+    public void deleteSegmentsBefore(long firstNeeded) throws IOException {
+        for (long existing : segments(directory)) {
+            if (existing < firstNeeded) {
+                Files.deleteIfExists(segmentPath(directory, existing));
+            }
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    /** Syncs and closes the journal, removing the current segment if nothing was appended to it. */
+    @Override
+    public synchronized void close() throws IOException {
+        syncScheduler.shutdownNow();
+        sync();
+        boolean empty = channel.size() == 0;
+        channel.close();
+        if (empty) {
+            Files.deleteIfExists(segmentPath(directory, segment));
+        }
+    }
+
+    /** Receives the replayed records; the buffer of values is reused between records. */
+    public interface RecordHandler {
+        void accept(byte command, String portfolioId, int year, Month month, double[] values, int count)
+                throws IOException, DataFormatException;
+    }
+
+    /**
+     * Replays the records of the segments from {@code firstSegment} on, in order, and returns how
+     * many were replayed. Only the last segment may end in a torn or corrupt record, which a crash
+     * leaves behind; replay stops there. Anywhere else such a record fails the replay with a {@link
+     * DataFormatException}, since replaying the records after it would skip an accepted command.
+     */
+    public static long replay(Path directory, long firstSegment, RecordHandler handler)
+            throws IOException, DataFormatException {
+        long replayed = 0;
+        double[] values = new double[0];
+        List<Long> segments = segments(directory);
+        for (int segmentIndex = 0; segmentIndex < segments.size(); segmentIndex++) {
+            long segment = segments.get(segmentIndex);
+            if (segment < firstSegment) {
+                continue;
+            }
+            ByteBuffer data;
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, segment), StandardOpenOption.READ)) {
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            CRC32 crc = new CRC32();
+            while (data.remaining() >= HEADER_SIZE) {
+                int length = checkRecord(data, crc);
+                if (length < 0 && segmentIndex < segments.size() - 1) {
+                    throw new DataFormatException(
+                            "Corrupt record at byte offset "
+                                    + (data.position() - HEADER_SIZE)
+                                    + " of journal segment "
+                                    + segment
+                                    + ", which is not the last one");
+                } else if (length < 0) {
+                    log.warning("Torn record at the end of journal segment " + segment + ", replay stops there");
+                    return replayed;
+                }
+                ByteBuffer payload = data.slice();
+                payload.limit(length);
+                byte command = payload.get();
+                byte[] id = new byte[payload.getShort()];
+                payload.get(id);
+                int year = payload.getInt();
+                int month = payload.get();
+                int count = payload.getShort();
+                if (values.length < count) {
+                    values = new double[count];
+                }
+                for (int index = 0; index < count; index++) {
+                    values[index] = payload.getDouble();
+                }
+                handler.accept(
+                        command,
+                        new String(id, StandardCharsets.UTF_8),
+                        year,
+                        month == 0 ? null : Month.of(month),
+                        values,
+                        count);
+                data.position(data.position() + length);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Reads the header of the record at the position of {@code data} and returns the length of its
+     * payload, which follows, or -1 when the record is torn or its CRC does not match.
+     */
+    private static int checkRecord(ByteBuffer data, CRC32 crc) {
+        int length = data.getInt();
+        int checksum = data.getInt();
+        if (length <= 0 || length > data.remaining()) {
+            return -1;
+        }
+        ByteBuffer payload = data.slice();
+        payload.limit(length);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum ? length : -1;
+    }
+
+    static List<Long> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static Path segmentPath(Path directory, long segment) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+}
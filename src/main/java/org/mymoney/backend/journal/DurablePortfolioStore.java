@@ -0,0 +1,217 @@
+package org.mymoney.backend.journal;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Keeps the portfolios of a {@link PortfolioRegistry} durable in a directory holding a {@link
+ * CommandJournal} and a {@link PortfolioSnapshot}.
+ *
+ * <p>Opening the store restores the newest snapshot and replays the journal segments written after
+ * it, so the recovery time depends on the commands since the last snapshot rather than on the
+ * whole history. {@link #checkpointIfDue()} takes a new snapshot once {@link
+ * #SNAPSHOT_EVERY_PROPERTY} commands were journaled since the last one; it must be called while no
+ * command is running, such as between the batches of a {@link
+ * org.mymoney.backend.service.ShardedCommandExecutor}.
+ */
+public class DurablePortfolioStore implements AutoCloseable {
+    /** System property naming the directory of the journal; the journal is off without it. */
+    public static final String DIRECTORY_PROPERTY = "mymoney.journal.dir";
+    /** System property with the number of journaled commands between two snapshots. */
+    public static final String SNAPSHOT_EVERY_PROPERTY = "mymoney.journal.snapshotEvery";
+    /** System property with the number of journaled commands between two syncs to disk. */
+    public static final String SYNC_EVERY_PROPERTY = "mymoney.journal.syncEvery";
+    /** System property with the longest time in milliseconds a journaled command stays unsynced. */
+    public static final String SYNC_INTERVAL_PROPERTY = "mymoney.journal.syncMillis";
+    public static final long DEFAULT_SNAPSHOT_EVERY = 100_000;
+    public static final int DEFAULT_SYNC_EVERY = 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+    static Logger log = Logger.getLogger(DurablePortfolioStore.class.getName());
+
+    private final Path directory;
+    private final AssetUniverse assetUniverse;
+    private final CommandJournal journal;
+    private final PortfolioRegistry portfolioRegistry;
+    private final long snapshotEvery;
+    private final Map<String, PortfolioData> restored;
+    private long recordsAtSnapshot;
+    private long replayedRecords;
+
+    private DurablePortfolioStore(
+            Path directory,
+            AssetUniverse assetUniverse,
+            CommandJournal journal,
+            int shardCount,
+            long snapshotEvery,
+            Map<String, PortfolioData> restored) {
+        this.directory = directory;
+        this.assetUniverse = assetUniverse;
+        this.journal = journal;
+        this.snapshotEvery = snapshotEvery;
+        this.restored = restored;
+        this.portfolioRegistry = new PortfolioRegistry(shardCount, this::createPortfolio);
+    }
+
+    /** Opens the store configured by the system properties, recovering its portfolios. */
+    public static DurablePortfolioStore open(Path directory, AssetUniverse assetUniverse)
+            throws IOException, DataFormatException {
+        return open(
+                directory,
+                assetUniverse,
+                Runtime.getRuntime().availableProcessors(),
+                Long.getLong(SNAPSHOT_EVERY_PROPERTY, DEFAULT_SNAPSHOT_EVERY),
+                Integer.getInteger(SYNC_EVERY_PROPERTY, DEFAULT_SYNC_EVERY),
+                Long.getLong(SYNC_INTERVAL_PROPERTY, DEFAULT_SYNC_INTERVAL_MILLIS));
+    }
+
+    public static DurablePortfolioStore open(
+            Path directory,
+            AssetUniverse assetUniverse,
+            int shardCount,
+            long snapshotEvery,
+            int syncEveryRecords,
+            long syncIntervalMillis)
+            throws IOException, DataFormatException {
+        long start = System.nanoTime();
+        PortfolioSnapshot snapshot = PortfolioSnapshot.read(directory, assetUniverse);
+        CommandJournal journal = new CommandJournal(directory, syncEveryRecords, syncIntervalMillis);
+        DurablePortfolioStore store =
+                new DurablePortfolioStore(
+                        directory,
+                        assetUniverse,
+                        journal,
+                        shardCount,
+                        snapshotEvery,
+                        snapshot == null ? new HashMap<>() : new HashMap<>(snapshot.getPortfolios()));
+        if (snapshot != null) {
+            for (String portfolioId : snapshot.getPortfolios().keySet()) {
+                store.portfolioRegistry.getOrCreate(portfolioId);
+            }
+        }
+        store.replayedRecords = CommandJournal.replay(directory, snapshot == null ? 0 : snapshot.getNextSegment(),
+                store::replay);
+        log.info(
+                String.format(
+                        "Recovered %d portfolios from %s (%d journaled commands replayed) in %d ms",
+                        store.portfolioRegistry.size(),
+                        snapshot == null ? "the journal" : "the snapshot",
+                        store.replayedRecords,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return store;
+    }
+
+    private PortfolioService createPortfolio(String portfolioId) {
+        PortfolioData portfolioData = restored.remove(portfolioId);
+        if (portfolioData == null) {
+            portfolioData = new PortfolioData(assetUniverse);
+        }
+        return new JournaledPortfolioService(
+                portfolioId, portfolioData, new DefaultPortfolioService(portfolioData), journal);
+    }
+
+    /**
+     * Applies a journaled command again, bypassing the journal. Commands are journaled before they
+     * are applied, so the ones the portfolio rejected then are rejected again and skipped.
+     */
+    private void replay(byte command, String portfolioId, int year, Month month, double[] values, int count)
+            throws DataFormatException {
+        PortfolioService portfolio =
+                ((JournaledPortfolioService) portfolioRegistry.getOrCreate(portfolioId)).getDelegate();
+        List<Double> list = new ArrayList<>(count);
+        for (int index = 0; index < count; index++) {
+            list.add(values[index]);
+        }
+        ErrorCode rejection;
+        switch (command) {
+            case CommandJournal.ALLOCATE:
+                rejection = portfolio.tryAllocate(list);
+                break;
+            case CommandJournal.SIP:
+                rejection = portfolio.trySip(list);
+                break;
+            case CommandJournal.CHANGE:
+            case CommandJournal.CORRECT:
+                boolean correction = command == CommandJournal.CORRECT;
+                rejection =
+                        year == CommandJournal.NO_YEAR
+                                ? portfolio.tryChange(list, month, correction)
+                                : portfolio.tryChange(list, YearMonth.of(year, month), correction);
+                break;
+            default:
+                throw new DataFormatException("Unknown journaled command " + command);
+        }
+        if (Objects.nonNull(rejection)) {
+            log.fine("Skipped a journaled command of " + portfolioId + " rejected with " + rejection);
+        }
+    }
+
+    /** Takes a snapshot if enough commands were journaled since the last one. */
+    public void checkpointIfDue() {
+        if (journal.getRecordCount() + replayedRecords - recordsAtSnapshot >= snapshotEvery) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to take a snapshot", e);
+            }
+        }
+    }
+
+    /**
+     * Snapshots every portfolio and drops the journal segments the snapshot includes. No command
+     * may run meanwhile.
+     */
+    public void checkpoint() throws IOException {
+        long start = System.nanoTime();
+        long nextSegment = journal.rollOver();
+        Map<String, PortfolioData> portfolios = new LinkedHashMap<>();
+        portfolioRegistry.forEach(
+                (portfolioId, portfolio) ->
+                        portfolios.put(portfolioId, ((JournaledPortfolioService) portfolio).getPortfolioData()));
+        long size = PortfolioSnapshot.write(directory, assetUniverse, nextSegment, portfolios);
+        journal.deleteSegmentsBefore(nextSegment);
+        recordsAtSnapshot = journal.getRecordCount() + replayedRecords;
+        log.info(
+                String.format(
+                        "Snapshot of %d portfolios (%d bytes) taken in %d ms",
+                        portfolios.size(),
+                        size,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    public PortfolioRegistry getPortfolioRegistry() {
+        return portfolioRegistry;
+    }
+
+    /** The number of journaled commands replayed on top of the snapshot when the store opened. */
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public CommandJournal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
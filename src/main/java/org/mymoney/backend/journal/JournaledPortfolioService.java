@@ -0,0 +1,181 @@
+package org.mymoney.backend.journal;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.PortfolioService;
+
+import java.io.IOException;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+
+/**
+ * Records every ALLOCATE, SIP, CHANGE and CORRECT that reaches the wrapped service in a {@link
+ * CommandJournal}. A command is journaled before it is applied: when the journal cannot take it,
+ * the failure is the error of its line and the portfolio stays as it was, so the portfolios never
+ * run ahead of the journal. Commands the portfolio then rejects stay in the journal; a replay
+ * starts from the same state, so it rejects them again and skips them.
+ */
+public class JournaledPortfolioService implements PortfolioService {
+    private final String portfolioId;
+    private final PortfolioData portfolioData;
+    private final PortfolioService delegate;
+    private final CommandJournal journal;
+
+    public JournaledPortfolioService(
+            String portfolioId, PortfolioData portfolioData, PortfolioService delegate, CommandJournal journal) {
+        this.portfolioId = portfolioId;
+        this.portfolioData = portfolioData;
+        this.delegate = delegate;
+        this.journal = journal;
+    }
+
+    @Override
+    public void allocate(List<Double> allocations) throws DataFormatException {
+        append(CommandJournal.ALLOCATE, CommandJournal.NO_YEAR, null, allocations);
+        delegate.allocate(allocations);
+    }
+
+    @Override
+    public void sip(List<Double> sips) throws DataFormatException {
+        append(CommandJournal.SIP, CommandJournal.NO_YEAR, null, sips);
+        delegate.sip(sips);
+    }
+
+    @Override
+    public void change(List<Double> rates, Month month) throws IllegalStateException, DataFormatException {
+        append(CommandJournal.CHANGE, CommandJournal.NO_YEAR, month, rates);
+        delegate.change(rates, month);
+    }
+
+    @Override
+    public void change(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException {
+        append(CommandJournal.CHANGE, month, rates);
+        delegate.change(rates, month);
+    }
+
+    @Override
+    public void correct(List<Double> rates, Month month) throws IllegalStateException, DataFormatException {
+        append(CommandJournal.CORRECT, CommandJournal.NO_YEAR, month, rates);
+        delegate.correct(rates, month);
+    }
+
+    @Override
+    public void correct(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException {
+        append(CommandJournal.CORRECT, month, rates);
+        delegate.correct(rates, month);
+    }
+
+    @Override
+    public ErrorCode tryAllocate(List<Double> allocations) {
+        append(CommandJournal.ALLOCATE, CommandJournal.NO_YEAR, null, allocations);
+        return delegate.tryAllocate(allocations);
+    }
+
+    @Override
+    public ErrorCode trySip(List<Double> sips) {
+        append(CommandJournal.SIP, CommandJournal.NO_YEAR, null, sips);
+        return delegate.trySip(sips);
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, Month month, boolean correction) {
+        append(correction ? CommandJournal.CORRECT : CommandJournal.CHANGE, CommandJournal.NO_YEAR, month, rates);
+        return delegate.tryChange(rates, month, correction);
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, YearMonth month, boolean correction) {
+        append(correction ? CommandJournal.CORRECT : CommandJournal.CHANGE, month, rates);
+        return delegate.tryChange(rates, month, correction);
+    }
+
+    @Override
+    public String balance(Month month) {
+        return delegate.balance(month);
+    }
+
+    @Override
+    public String balance(YearMonth month) {
+        return delegate.balance(month);
+    }
+
+    @Override
+    public String reBalance() {
+        return delegate.reBalance();
+    }
+
+    @Override
+    public String tryBalance(Month month) {
+        return delegate.tryBalance(month);
+    }
+
+    @Override
+    public String tryBalance(YearMonth month) {
+        return delegate.tryBalance(month);
+    }
+
+    @Override
+    public String tryReBalance() {
+        return delegate.tryReBalance();
+    }
+
+    @Override
+    public void balanceRange(Month from, Month to, Appendable output) throws IOException {
+        delegate.balanceRange(from, to, output);
+    }
+
+    @Override
+    public void balanceRange(YearMonth from, YearMonth to, Appendable output) throws IOException {
+        delegate.balanceRange(from, to, output);
+    }
+
+    @Override
+    public String simulate(int paths, int months, List<Double> meanRates, List<Double> volatilities)
+            throws DataFormatException {
+        return delegate.simulate(paths, months, meanRates, volatilities);
+    }
+
+    @Override
+    public int getSupportedAssetClass() {
+        return delegate.getSupportedAssetClass();
+    }
+
+    private void append(byte command, YearMonth month, List<Double> values) {
+        if (Objects.nonNull(month)) {
+            append(command, month.getYear(), month.getMonth(), values);
+        }
+    }
+
+    /** Journals the command; commands missing their values or month are left to the service to reject. */
+    private void append(byte command, int year, Month month, List<Double> values) {
+        boolean needsMonth = command == CommandJournal.CHANGE || command == CommandJournal.CORRECT;
+        if (Objects.nonNull(values) && (!needsMonth || Objects.nonNull(month))) {
+            journal.append(command, portfolioId, year, month, toArray(values));
+        }
+    }
+
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int index = 0; index < array.length; index++) {
+            array[index] = values.get(index);
+        }
+        return array;
+    }
+
+    public String getPortfolioId() {
+        return portfolioId;
+    }
+
+    /** The state the snapshots are taken from. */
+    public PortfolioData getPortfolioData() {
+        return portfolioData;
+    }
+
+    /** The wrapped service, which replays the journal without journaling it again. */
+    public PortfolioService getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,313 @@
+package org.mymoney.backend.journal;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Binary snapshot of the state of every portfolio, so that recovery replays only the journal
+ * written after it. The file {@code snapshot.bin} is laid out big-endian as
+ *
+ * <pre>
+ * int    magic {@link #MAGIC}, int version {@link #VERSION}
+ * long   first journal segment not included in the snapshot
+ * short  number of assets, then per asset a short length and the name in UTF-8
+ * short  length of the rebalance policy the balances were calculated with, then the policy in UTF-8,
+ *        followed by " fixed" when they were calculated with the integer steps
+ * int    number of portfolios, then per portfolio:
+ *   short  ID length, followed by the ID in UTF-8
+ *   int    start year, or {@link PortfolioData#UNKNOWN_YEAR}
+ *   byte   flags: 1 when allocated, 2 when a SIP is registered
+ *   double allocation and desired weights per asset, when allocated
+ *   double SIP per asset, when registered
+ *   int    months with rates, int number of words of the known month bitmap, then the words
+ *   double rates per month and asset
+ *   int    calculated months, then the balances per month and asset
+ *   int    number of words of the re-balanced month bitmap, then the words
+ * int    CRC32 of everything before it
+ * </pre>
+ *
+ * <p>When the configured {@link RebalancePolicy} is no longer the one of the snapshot, the
+ * calculated balances are dropped on restore and recalculated on demand.
+ *
+ * <p>The snapshot is written to a temporary file, forced to disk and then atomically moved over
+ * the previous one, so a crash while writing leaves the previous snapshot in place.
+ */
+public final class PortfolioSnapshot {
+    public static final String FILE_NAME = "snapshot.bin";
+    static final int MAGIC = 0x4D4D534E;
+    static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final byte ALLOCATED = 1;
+    private static final byte SIP_REGISTERED = 2;
+
+    private final long nextSegment;
+    private final Map<String, PortfolioData> portfolios;
+
+    PortfolioSnapshot(long nextSegment, Map<String, PortfolioData> portfolios) {
+        this.nextSegment = nextSegment;
+        this.portfolios = portfolios;
+    }
+
+    /** The first journal segment to replay on top of the snapshot. */
+    public long getNextSegment() {
+        return nextSegment;
+    }
+
+    /** The restored portfolios by ID, in the order they were written. */
+    public Map<String, PortfolioData> getPortfolios() {
+        return portfolios;
+    }
+
+    /** Writes the portfolios, which must not change meanwhile, and returns the snapshot size. */
+    public static long write(
+            Path directory, AssetUniverse assetUniverse, long nextSegment, Map<String, PortfolioData> portfolios)
+            throws IOException {
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        long size;
+        try (Writer writer = new Writer(FileChannel.open(
+                temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE))) {
+            writer.ensure(2 * Integer.BYTES + Long.BYTES + Short.BYTES);
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putLong(nextSegment);
+            writer.buffer.putShort((short) assetUniverse.size());
+            for (int asset = 0; asset < assetUniverse.size(); asset++) {
+                writer.putString(assetUniverse.name(asset));
+            }
+            writer.putString(DefaultPortfolioService.configuredCalculation());
+            writer.ensure(Integer.BYTES);
+            writer.buffer.putInt(portfolios.size());
+            for (Map.Entry<String, PortfolioData> entry : portfolios.entrySet()) {
+                writePortfolio(writer, entry.getKey(), entry.getValue());
+            }
+            size = writer.finish();
+        }
+        Files.move(temporary, directory.resolve(FILE_NAME), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        return size;
+    }
+
+    private static void writePortfolio(Writer writer, String portfolioId, PortfolioData data) throws IOException {
+        int assets = data.assetCount;
+        writer.putString(portfolioId);
+        byte flags = 0;
+        if (Objects.nonNull(data.initialAllocation)) {
+            flags |= ALLOCATED;
+        }
+        if (Objects.nonNull(data.initialSip)) {
+            flags |= SIP_REGISTERED;
+        }
+        writer.ensure(Integer.BYTES + 1);
+        writer.buffer.putInt(data.startYear).put(flags);
+        if (Objects.nonNull(data.initialAllocation)) {
+            writer.putDoubles(data.initialAllocation.getAmounts(), 0, assets);
+            writer.putDoubles(data.desiredWeights, 0, assets);
+        }
+        if (Objects.nonNull(data.initialSip)) {
+            writer.putDoubles(data.initialSip.getAmounts(), 0, assets);
+        }
+        int words = data.rateMonths == 0 ? 0 : ((data.rateMonths - 1) >>> 6) + 1;
+        writer.ensure(2 * Integer.BYTES + words * Long.BYTES);
+        writer.buffer.putInt(data.rateMonths).putInt(words);
+        for (int word = 0; word < words; word++) {
+            writer.buffer.putLong(data.knownRateMonths[word]);
+        }
+        writer.putDoubles(data.monthlyMarketChangeRate, 0, data.rateMonths * assets);
+        writer.ensure(Integer.BYTES);
+        writer.buffer.putInt(data.calculatedMonths);
+        writer.putDoubles(data.monthlyBalance, 0, data.calculatedMonths * assets);
+        int reBalancedWords =
+                data.calculatedMonths == 0 || Objects.isNull(data.reBalancedMonths)
+                        ? 0
+                        : Math.min(((data.calculatedMonths - 1) >>> 6) + 1, data.reBalancedMonths.length);
+        writer.ensure(Integer.BYTES + reBalancedWords * Long.BYTES);
+        writer.buffer.putInt(reBalancedWords);
+        for (int word = 0; word < reBalancedWords; word++) {
+            writer.buffer.putLong(data.reBalancedMonths[word]);
+        }
+    }
+
+    /** Reads the snapshot of the directory, or returns null if there is none yet. */
+    public static PortfolioSnapshot read(Path directory, AssetUniverse assetUniverse)
+            throws IOException, DataFormatException {
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 3 * Integer.BYTES + Long.BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new DataFormatException("The snapshot " + file + " has an invalid size");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer body = data.duplicate();
+        body.limit(data.limit() - Integer.BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != data.getInt(data.limit() - Integer.BYTES)) {
+            throw new DataFormatException("The snapshot " + file + " is corrupt");
+        }
+        if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+            throw new DataFormatException("The snapshot " + file + " is not in a supported format");
+        }
+        long nextSegment = data.getLong();
+        int assets = data.getShort();
+        if (assets != assetUniverse.size()) {
+            throw new DataFormatException("The snapshot was taken over " + assets + " assets");
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            String name = getString(data);
+            if (!name.equals(assetUniverse.name(asset))) {
+                throw new DataFormatException("The snapshot has asset " + name + " in place of "
+                        + assetUniverse.name(asset));
+            }
+        }
+        boolean samePolicy = getString(data).equals(DefaultPortfolioService.configuredCalculation());
+        int count = data.getInt();
+        Map<String, PortfolioData> portfolios = new LinkedHashMap<>();
+        for (int portfolio = 0; portfolio < count; portfolio++) {
+            String portfolioId = getString(data);
+            portfolios.put(portfolioId, readPortfolio(data, assetUniverse, samePolicy));
+        }
+        return new PortfolioSnapshot(nextSegment, portfolios);
+    }
+
+    private static PortfolioData readPortfolio(ByteBuffer data, AssetUniverse assetUniverse, boolean samePolicy) {
+        PortfolioData portfolio = new PortfolioData(assetUniverse);
+        int assets = portfolio.assetCount;
+        portfolio.startYear = data.getInt();
+        byte flags = data.get();
+        if ((flags & ALLOCATED) != 0) {
+            portfolio.initialAllocation = new Portfolio(assetUniverse, getDoubles(data, assets));
+            portfolio.desiredWeights = getDoubles(data, assets);
+        }
+        if ((flags & SIP_REGISTERED) != 0) {
+            portfolio.initialSip = new Portfolio(assetUniverse, getDoubles(data, assets));
+        }
+        int rateMonths = data.getInt();
+        int words = data.getInt();
+        if (words > 0) {
+            portfolio.knownRateMonths = new long[words];
+            data.asLongBuffer().get(portfolio.knownRateMonths);
+            data.position(data.position() + words * Long.BYTES);
+        }
+        portfolio.rateMonths = rateMonths;
+        if (rateMonths > 0) {
+            double[] rates = portfolio.getMonthlyMarketChangeRate(rateMonths);
+            data.asDoubleBuffer().get(rates, 0, rateMonths * assets);
+            data.position(data.position() + rateMonths * assets * Double.BYTES);
+        }
+        int calculatedMonths = data.getInt();
+        if (calculatedMonths > 0) {
+            double[] balances = portfolio.getMonthlyBalance(calculatedMonths);
+            data.asDoubleBuffer().get(balances, 0, calculatedMonths * assets);
+            data.position(data.position() + calculatedMonths * assets * Double.BYTES);
+        }
+        int reBalancedWords = data.getInt();
+        if (reBalancedWords > 0) {
+            portfolio.reBalancedMonths = new long[reBalancedWords];
+            data.asLongBuffer().get(portfolio.reBalancedMonths);
+            data.position(data.position() + reBalancedWords * Long.BYTES);
+        }
+        portfolio.calculatedMonths = samePolicy ? calculatedMonths : 0;
+        return portfolio;
+    }
+
+    private static double[] getDoubles(ByteBuffer data, int count) {
+        double[] values = new double[count];
+        data.asDoubleBuffer().get(values);
+        data.position(data.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getShort()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Streams the snapshot through one direct buffer, computing the checksum on the way. */
+    private static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long size;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Short.BYTES + bytes.length);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+
+        /** Copies the values in bulk, a buffer at a time. */
+        void putDoubles(double[] values, int offset, int count) throws IOException {
+            int written = 0;
+            while (written < count) {
+                ensure(Double.BYTES);
+                int chunk = Math.min(count - written, buffer.remaining() / Double.BYTES);
+                DoubleBuffer doubles = buffer.asDoubleBuffer();
+                doubles.put(values, offset + written, chunk);
+                buffer.position(buffer.position() + chunk * Double.BYTES);
+                written += chunk;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            size += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /** Appends the checksum, forces the file to disk and returns its size. */
+        long finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            size += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
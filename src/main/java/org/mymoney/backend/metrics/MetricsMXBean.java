@@ -0,0 +1,34 @@
+package org.mymoney.backend.metrics;
+
+import java.util.Map;
+
+/** JMX view of the {@link MetricsRegistry}, registered as {@value MetricsRegistry#OBJECT_NAME}. */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandLatencyP50Nanos();
+
+    Map<String, Long> getCommandLatencyP99Nanos();
+
+    Map<String, Long> getFailureCounts();
+
+    long getBalanceUpdates();
+
+    long getMonthsRecalculated();
+
+    long getMonthsRecalculatedP99();
+
+    long getReBalances();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    String dump();
+
+    void reset();
+}
@@ -0,0 +1,230 @@
+package org.mymoney.backend.metrics;
+
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.ErrorCode;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/**
+ * Process wide counters and histograms of command processing.
+ *
+ * <p>Every recording method starts with a check of a volatile flag, so a disabled registry costs a
+ * single load per call. It is enabled with {@code -D}{@value #ENABLED_PROPERTY}{@code =true} or at
+ * runtime through JMX.
+ */
+public final class MetricsRegistry implements MetricsMXBean {
+    public static final String ENABLED_PROPERTY = "mymoney.metrics.enabled";
+    public static final String OBJECT_NAME = "org.mymoney:type=Metrics";
+    private static final Command[] COMMANDS = Command.values();
+    private static final ErrorCode[] ERROR_CODES = ErrorCode.values();
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry(Boolean.getBoolean(ENABLED_PROPERTY));
+    static Logger log = Logger.getLogger(MetricsRegistry.class.getName());
+
+    private volatile boolean enabled;
+    private final LongAdder[] commandCounts = adders(COMMANDS.length);
+    private final Histogram[] commandLatencies = new Histogram[COMMANDS.length];
+    private final LongAdder[] failureCounts = adders(ERROR_CODES.length);
+    private final Histogram monthsRecalculated = new Histogram();
+    private final LongAdder reBalances = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    MetricsRegistry(boolean enabled) {
+        this.enabled = enabled;
+        for (int index = 0; index < COMMANDS.length; index++) {
+            commandLatencies[index] = new Histogram();
+        }
+    }
+
+    public static MetricsRegistry get() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Returns the start time to pass to {@link #recordCommand}, or 0 when disabled. */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void recordCommand(Command command, long startNanos) {
+        if (enabled && startNanos != 0) {
+            commandCounts[command.ordinal()].increment();
+            commandLatencies[command.ordinal()].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void recordFailure(ErrorCode cause) {
+        if (enabled) {
+            failureCounts[cause.ordinal()].increment();
+        }
+    }
+
+    public void recordBalanceUpdate(int months) {
+        if (enabled) {
+            monthsRecalculated.record(months);
+        }
+    }
+
+    public void recordReBalance() {
+        if (enabled) {
+            reBalances.increment();
+        }
+    }
+
+    /** Counts a BALANCE or REBALANCE answered from, or missing in, the cache of rendered results. */
+    public void recordCacheLookup(boolean hit) {
+        if (enabled) {
+            (hit ? cacheHits : cacheMisses).increment();
+        }
+    }
+
+    public long getCommandCount(Command command) {
+        return commandCounts[command.ordinal()].sum();
+    }
+
+    public long getFailureCount(ErrorCode cause) {
+        return failureCounts[cause.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return byCommand(command -> commandCounts[command.ordinal()].sum());
+    }
+
+    @Override
+    public Map<String, Long> getCommandLatencyP50Nanos() {
+        return byCommand(command -> commandLatencies[command.ordinal()].getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Long> getCommandLatencyP99Nanos() {
+        return byCommand(command -> commandLatencies[command.ordinal()].getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Long> getFailureCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (ErrorCode cause : ERROR_CODES) {
+            counts.put(cause.name(), failureCounts[cause.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getBalanceUpdates() {
+        return monthsRecalculated.getCount();
+    }
+
+    @Override
+    public long getMonthsRecalculated() {
+        return monthsRecalculated.getSum();
+    }
+
+    @Override
+    public long getMonthsRecalculatedP99() {
+        return monthsRecalculated.getPercentile(99);
+    }
+
+    @Override
+    public long getReBalances() {
+        return reBalances.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /** Renders every metric as {@code name value} lines, suitable for logs and scrapers. */
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Command command : COMMANDS) {
+            Histogram latency = commandLatencies[command.ordinal()];
+            String prefix = "mymoney.command." + command.name().toLowerCase();
+            line(builder, prefix + ".count", commandCounts[command.ordinal()].sum());
+            line(builder, prefix + ".latency.mean.ns", latency.getMean());
+            line(builder, prefix + ".latency.p50.ns", latency.getPercentile(50));
+            line(builder, prefix + ".latency.p99.ns", latency.getPercentile(99));
+            line(builder, prefix + ".latency.p999.ns", latency.getPercentile(99.9));
+        }
+        for (ErrorCode cause : ERROR_CODES) {
+            line(builder, "mymoney.failure." + cause.name().toLowerCase(), failureCounts[cause.ordinal()].sum());
+        }
+        line(builder, "mymoney.balance.updates", monthsRecalculated.getCount());
+        line(builder, "mymoney.balance.months.recalculated", monthsRecalculated.getSum());
+        line(builder, "mymoney.balance.months.recalculated.p99", monthsRecalculated.getPercentile(99));
+        line(builder, "mymoney.rebalance.count", reBalances.sum());
+        line(builder, "mymoney.cache.hits", cacheHits.sum());
+        line(builder, "mymoney.cache.misses", cacheMisses.sum());
+        return builder.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (int index = 0; index < COMMANDS.length; index++) {
+            commandCounts[index].reset();
+            commandLatencies[index].reset();
+        }
+        for (LongAdder failures : failureCounts) {
+            failures.reset();
+        }
+        monthsRecalculated.reset();
+        reBalances.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    /** Registers the registry with the platform MBean server; repeated calls are ignored. */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered.
+        } catch (JMException e) {
+            log.warning("Unable to register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Long> byCommand(ToLongFunction<Command> value) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Command command : COMMANDS) {
+            values.put(command.name(), value.applyAsLong(command));
+        }
+        return values;
+    }
+
+    private static void line(StringBuilder builder, String name, long value) {
+        builder.append(name).append(' ').append(value).append(System.lineSeparator());
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int index = 0; index < size; index++) {
+            adders[index] = new LongAdder();
+        }
+        return adders;
+    }
+}
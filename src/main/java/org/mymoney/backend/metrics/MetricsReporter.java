@@ -0,0 +1,38 @@
+package org.mymoney.backend.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/** Periodically hands a text dump of the {@link MetricsRegistry} to a consumer. */
+public class MetricsReporter implements AutoCloseable {
+    public static final String INTERVAL_PROPERTY = "mymoney.metrics.dumpIntervalSeconds";
+    public static final long DEFAULT_INTERVAL_SECONDS = 60;
+
+    private final ScheduledExecutorService scheduler;
+
+    public MetricsReporter(MetricsRegistry registry, long period, TimeUnit unit, Consumer<String> sink) {
+        this.scheduler =
+                Executors.newSingleThreadScheduledExecutor(
+                        runnable -> {
+                            Thread thread = new Thread(runnable, "metrics-reporter");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        scheduler.scheduleAtFixedRate(
+                () -> {
+                    if (registry.isEnabled()) {
+                        sink.accept(registry.dump());
+                    }
+                },
+                period,
+                period,
+                unit);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,104 @@
+package org.mymoney.backend.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The assets a portfolio can hold, registered under dense indexes {@code 0..size()-1} in the order
+ * the commands list their values.
+ *
+ * <p>Amounts, SIPs, weights and rates are stored in primitive arrays by asset index, so the index
+ * is all the calculations need; names are only looked up while the universe is configured. The
+ * universe is chosen once at startup, by default {@link Asset#EQUITY}, {@link Asset#DEBT} and
+ * {@link Asset#GOLD}, and is shared by every portfolio.
+ */
+public final class AssetUniverse {
+    /** System property listing the asset names in input order, separated by commas. */
+    public static final String PROPERTY = "mymoney.assets";
+    public static final AssetUniverse DEFAULT = of(Asset.values());
+
+    private final String[] names;
+    private final Map<String, Integer> indexes;
+    private final Set<Asset> assets;
+
+    private AssetUniverse(String[] names) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("The asset universe is empty");
+        }
+        this.names = names;
+        this.indexes = new HashMap<>(names.length * 2);
+        Set<Asset> known = new LinkedHashSet<>();
+        for (int index = 0; index < names.length; index++) {
+            String name = names[index];
+            if (Objects.isNull(name) || name.trim().isEmpty() || indexes.put(name, index) != null) {
+                throw new IllegalArgumentException("Invalid or repeated asset name " + name);
+            }
+            known.add(assetOf(name));
+        }
+        this.assets = known.contains(null) ? Collections.emptySet() : Collections.unmodifiableSet(known);
+    }
+
+    public static AssetUniverse of(String... names) {
+        return new AssetUniverse(names.clone());
+    }
+
+    public static AssetUniverse of(Asset... assets) {
+        return of(Arrays.asList(assets));
+    }
+
+    public static AssetUniverse of(Collection<Asset> assets) {
+        return new AssetUniverse(assets.stream().map(Asset::name).toArray(String[]::new));
+    }
+
+    /** Reads the universe from {@link #PROPERTY}, or returns {@link #DEFAULT} when it is not set. */
+    public static AssetUniverse fromSystemProperty() {
+        String property = System.getProperty(PROPERTY);
+        if (Objects.isNull(property) || property.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        return new AssetUniverse(
+                Arrays.stream(property.split(",")).map(String::trim).toArray(String[]::new));
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    /** Returns the index of the named asset, or -1 if it is not part of the universe. */
+    public int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return Objects.isNull(index) ? -1 : index;
+    }
+
+    /**
+     * Returns the assets as {@link Asset} constants in index order, or an empty set when the
+     * universe holds assets the enum does not know.
+     */
+    public Set<Asset> getAssets() {
+        return assets;
+    }
+
+    private static Asset assetOf(String name) {
+        for (Asset asset : Asset.values()) {
+            if (asset.name().equals(name)) {
+                return asset;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+}
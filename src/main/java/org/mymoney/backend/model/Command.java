@@ -4,6 +4,9 @@ public enum Command {
     ALLOCATE,
     SIP,
     CHANGE,
+    CORRECT,
     BALANCE,
-    REBALANCE
+    REBALANCE,
+    SIMULATE,
+    BALANCE_RANGE
 }
@@ -0,0 +1,67 @@
+package org.mymoney.backend.model;
+
+/**
+ * A rejected command line: the line as it was read, its number in the input, counted from 1 and
+ * including blank lines, the cause and a message. The line number is 0 for lines that were not
+ * read from an input. Lines read from a mapped file also carry the byte offset they start at, so
+ * they can be found in inputs too large to open in an editor; the offset is {@link #NO_OFFSET}
+ * otherwise.
+ */
+public class CommandError {
+    public static final long NO_OFFSET = -1;
+
+    private final long lineNumber;
+    private final long byteOffset;
+    private final String line;
+    private final ErrorCode cause;
+    private final String message;
+
+    public CommandError(long lineNumber, String line, ErrorCode cause, String message) {
+        this(lineNumber, NO_OFFSET, line, cause, message);
+    }
+
+    public CommandError(long lineNumber, long byteOffset, String line, ErrorCode cause, String message) {
+        this.lineNumber = lineNumber;
+        this.byteOffset = byteOffset;
+        this.line = line;
+        this.cause = cause;
+        this.message = message;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public ErrorCode getCause() {
+        return cause;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The report written for the line, e.g. {@code Error Occurred while processing line 7: ...}, or
+     * {@code ... line 7 at byte offset 120: ...} when the offset is known.
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder("Error Occurred while processing ");
+        if (lineNumber > 0) {
+            report.append("line ").append(lineNumber);
+            if (byteOffset != NO_OFFSET) {
+                report.append(" at byte offset ").append(byteOffset);
+            }
+            report.append(": ");
+        }
+        return report.append(line.trim()).append(' ').append(message).toString();
+    }
+}
@@ -0,0 +1,52 @@
+package org.mymoney.backend.model;
+
+import java.time.DateTimeException;
+import java.util.InputMismatchException;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+
+/** Causes a command can be rejected for. */
+public enum ErrorCode {
+    UNKNOWN_COMMAND("Invalid Command supplied"),
+    WRONG_ARGUMENT_COUNT("Please check the number of inputs of the command"),
+    INVALID_NUMBER("Invalid number"),
+    INVALID_MONTH("Please check the month of the command"),
+    INVALID_PORTFOLIO_ID("Invalid portfolio ID"),
+    MALFORMED_INPUT("Malformed Input."),
+    INVALID_STATE("The command is not valid in the current state of the portfolio"),
+    LIMIT_EXCEEDED("The command exceeds the configured limits"),
+    UNEXPECTED("Unexpected failure");
+
+    private final String description;
+
+    ErrorCode(String description) {
+        this.description = description;
+    }
+
+    /** The message a rejection is reported with when there is no more specific one. */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Classifies why a command failed from what it threw; {@code command} is null if the keyword
+     * was not parsed. Only a {@link DateTimeException}, a month or year out of range, is an {@link
+     * #INVALID_MONTH}; any other illegal argument is {@link #MALFORMED_INPUT}.
+     */
+    public static ErrorCode of(Exception e, Command command) {
+        if (e instanceof NumberFormatException) {
+            return INVALID_NUMBER;
+        } else if (e instanceof InputMismatchException) {
+            return Objects.isNull(command) ? INVALID_PORTFOLIO_ID : WRONG_ARGUMENT_COUNT;
+        } else if (e instanceof IllegalStateException) {
+            return INVALID_STATE;
+        } else if (e instanceof DataFormatException) {
+            return MALFORMED_INPUT;
+        } else if (e instanceof DateTimeException) {
+            return INVALID_MONTH;
+        } else if (e instanceof IllegalArgumentException) {
+            return Objects.isNull(command) ? UNKNOWN_COMMAND : MALFORMED_INPUT;
+        }
+        return UNEXPECTED;
+    }
+}
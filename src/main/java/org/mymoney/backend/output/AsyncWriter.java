@@ -0,0 +1,218 @@
+package org.mymoney.backend.output;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A writer that buffers the characters in large chunks and writes them to its target from a
+ * dedicated thread, so the threads producing the output never wait on a slow console or pipe.
+ *
+ * <p>Chunks are handed to the writer thread in the order they are filled and written in that
+ * order. Their number is fixed: once all of them are waiting to be written, the writing threads
+ * block until the target has caught up, which bounds the memory held to {@code chunks * chunkSize}
+ * characters. {@link #flush()} only hands the chunk being filled over; the writer thread flushes
+ * the target whenever it has written everything handed over, so interactive callers still see
+ * every output. A failure of the target is reported by the next call after it, and everything
+ * written since is dropped. {@link #close()} waits until everything is written and the target
+ * is flushed, and leaves the target open.
+ *
+ * <p>Like other writers, an instance may be shared by threads; each call is written as a whole.
+ */
+public class AsyncWriter extends Writer {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CHUNKS = 16;
+
+    /** Tells the writer thread that nothing follows. */
+    private static final Chunk END = new Chunk(0);
+
+    private final Writer target;
+    private final BlockingQueue<Chunk> filled;
+    private final BlockingQueue<Chunk> free;
+    private final Thread thread;
+    private Chunk current;
+    private volatile IOException failure;
+    private boolean closed;
+
+    public AsyncWriter(Writer target, String threadName) {
+        this(target, threadName, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+    }
+
+    public AsyncWriter(Writer target, String threadName, int chunkSize, int chunks) {
+        if (chunkSize <= 0 || chunks < 2) {
+            throw new IllegalArgumentException("Invalid output buffering of " + chunks + " chunks of " + chunkSize);
+        }
+        this.target = target;
+        this.filled = new ArrayBlockingQueue<>(chunks + 1);
+        this.free = new ArrayBlockingQueue<>(chunks);
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            free.add(new Chunk(chunkSize));
+        }
+        this.current = new Chunk(chunkSize);
+        this.thread = new Thread(this::drain, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            while (length > 0) {
+                int copied = Math.min(length, current.chars.length - current.length);
+                System.arraycopy(buffer, offset, current.chars, current.length, copied);
+                current.length += copied;
+                offset += copied;
+                length -= copied;
+                if (current.length == current.chars.length) {
+                    handOver();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            while (length > 0) {
+                int copied = Math.min(length, current.chars.length - current.length);
+                text.getChars(offset, offset + copied, current.chars, current.length);
+                current.length += copied;
+                offset += copied;
+                length -= copied;
+                if (current.length == current.chars.length) {
+                    handOver();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void write(int character) throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            current.chars[current.length++] = (char) character;
+            if (current.length == current.chars.length) {
+                handOver();
+            }
+        }
+    }
+
+    /** Hands the buffered characters to the writer thread without waiting for them to be written. */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            ensureOpen();
+            if (current.length > 0) {
+                handOver();
+            }
+        }
+    }
+
+    /** Waits until everything written is written to the target and the target is flushed. */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (current.length > 0 && Objects.isNull(failure)) {
+                    filled.put(current);
+                }
+                filled.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing the output");
+            }
+            checkFailure();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The output is closed");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException cause = failure;
+        if (Objects.nonNull(cause)) {
+            throw new IOException("The output failed", cause);
+        }
+    }
+
+    /** Queues the current chunk and takes a free one, waiting for one if they are all queued. */
+    private void handOver() throws IOException {
+        try {
+            filled.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the output");
+        }
+        checkFailure();
+    }
+
+    /** The loop of the writer thread. */
+    private void drain() {
+        boolean unflushed = false;
+        try {
+            while (true) {
+                Chunk chunk = filled.poll();
+                if (Objects.isNull(chunk)) {
+                    // Caught up: make what was written visible before waiting for more.
+                    if (unflushed) {
+                        flushTarget();
+                        unflushed = false;
+                    }
+                    chunk = filled.take();
+                }
+                if (chunk == END) {
+                    if (unflushed) {
+                        flushTarget();
+                    }
+                    return;
+                }
+                if (Objects.isNull(failure)) {
+                    try {
+                        target.write(chunk.chars, 0, chunk.length);
+                        unflushed = true;
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                chunk.length = 0;
+                free.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException("The output thread was interrupted");
+        }
+    }
+
+    private void flushTarget() {
+        if (Objects.isNull(failure)) {
+            try {
+                target.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final char[] chars;
+        private int length;
+
+        Chunk(int size) {
+            this.chars = new char[size];
+        }
+    }
+}
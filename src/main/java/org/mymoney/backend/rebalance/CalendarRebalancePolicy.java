@@ -0,0 +1,73 @@
+package org.mymoney.backend.rebalance;
+
+import org.mymoney.backend.dao.PortfolioData;
+
+import java.time.Month;
+import java.util.StringJoiner;
+
+/** Re-balances in the same calendar months of every year, whatever the balances. */
+public final class CalendarRebalancePolicy implements RebalancePolicy {
+    public static final CalendarRebalancePolicy SEMI_ANNUAL = of(Month.JUNE, Month.DECEMBER);
+    public static final CalendarRebalancePolicy QUARTERLY =
+            of(Month.MARCH, Month.JUNE, Month.SEPTEMBER, Month.DECEMBER);
+
+    /** One bit per month of the year, by {@link Month#ordinal()}. */
+    private final int months;
+
+    private CalendarRebalancePolicy(int months) {
+        this.months = months;
+    }
+
+    public static CalendarRebalancePolicy of(Month... months) {
+        if (months.length == 0) {
+            throw new IllegalArgumentException("A rebalance calendar needs at least one month");
+        }
+        int mask = 0;
+        for (Month month : months) {
+            mask |= 1 << month.ordinal();
+        }
+        return new CalendarRebalancePolicy(mask);
+    }
+
+    /** Parses month names separated by commas. */
+    static CalendarRebalancePolicy parse(String months) {
+        String[] names = months.split(",");
+        Month[] parsed = new Month[names.length];
+        for (int index = 0; index < names.length; index++) {
+            parsed[index] = Month.valueOf(names[index].trim());
+        }
+        return of(parsed);
+    }
+
+    /** Returns whether the month of the timeline is one of the calendar months. */
+    public boolean isScheduled(int monthIndex) {
+        return (months & 1 << monthIndex % PortfolioData.MONTHS_PER_YEAR) != 0;
+    }
+
+    @Override
+    public boolean shouldReBalance(
+            int monthIndex, double[] balances, int offset, double[] desiredWeights, int assets) {
+        return isScheduled(monthIndex);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CalendarRebalancePolicy && ((CalendarRebalancePolicy) other).months == months;
+    }
+
+    @Override
+    public int hashCode() {
+        return months;
+    }
+
+    @Override
+    public String toString() {
+        StringJoiner joiner = new StringJoiner(",", "calendar:", "");
+        for (Month month : Month.values()) {
+            if ((months & 1 << month.ordinal()) != 0) {
+                joiner.add(month.name());
+            }
+        }
+        return joiner.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package org.mymoney.backend.rebalance;
+
+import java.math.BigDecimal;
+
+/**
+ * Re-balances in any month where the weight of an asset in the portfolio is further than a band
+ * of percentage points from its desired weight, so that a calm market is never traded and a
+ * volatile one is corrected right away.
+ */
+public final class DriftBandRebalancePolicy implements RebalancePolicy {
+    private final double band;
+
+    /** Creates the policy with the band in percentage points, e.g. 5 for 60% ± 5%. */
+    public DriftBandRebalancePolicy(double band) {
+        if (!(band > 0) || Double.isInfinite(band)) {
+            throw new IllegalArgumentException("Invalid drift band " + band);
+        }
+        this.band = band;
+    }
+
+    public double getBand() {
+        return band;
+    }
+
+    @Override
+    public boolean shouldReBalance(
+            int monthIndex, double[] balances, int offset, double[] desiredWeights, int assets) {
+        return drift(balances, offset, desiredWeights, assets) > band;
+    }
+
+    /**
+     * Returns the largest distance, in percentage points, between the weight of an asset and its
+     * desired weight, which is all the bands decide on; 0 for a portfolio without funds.
+     */
+    public static double drift(double[] balances, int offset, double[] desiredWeights, int assets) {
+        double total = 0;
+        for (int asset = 0; asset < assets; asset++) {
+            total += balances[offset + asset];
+        }
+        if (!(total > 0)) {
+            return 0;
+        }
+        double drift = 0;
+        for (int asset = 0; asset < assets; asset++) {
+            double weight = balances[offset + asset] * 100 / total;
+            drift = Math.max(drift, Math.abs(weight - desiredWeights[asset]));
+        }
+        return drift;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DriftBandRebalancePolicy
+                && Double.compare(((DriftBandRebalancePolicy) other).band, band) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(band);
+    }
+
+    @Override
+    public String toString() {
+        return "drift:" + BigDecimal.valueOf(band).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,70 @@
+package org.mymoney.backend.rebalance;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Decides which months a portfolio is re-balanced to its desired weights in, after the SIP and the
+ * market change of the month are applied.
+ *
+ * <p>A decision may only depend on the month and on the balances it is given, never on earlier
+ * decisions, so that two portfolios with the same balances always decide alike. Replaying the
+ * months therefore always re-balances the same months, and portfolios following different
+ * policies can share their steps until their decisions first differ.
+ *
+ * <p>A policy is configured with {@link #PROPERTY} as one of
+ *
+ * <pre>
+ * semiannual                  JUNE and DECEMBER of every year, the default
+ * quarterly                   MARCH, JUNE, SEPTEMBER and DECEMBER of every year
+ * calendar:MONTH[,MONTH...]   the listed months of every year
+ * drift:BAND                  any month an asset weight is off its desired weight by more than
+ *                             BAND percentage points
+ * </pre>
+ *
+ * and {@link #toString()} renders a policy back in that form.
+ */
+public interface RebalancePolicy {
+    /** System property with the policy of every portfolio. */
+    String PROPERTY = "mymoney.rebalance.policy";
+    RebalancePolicy DEFAULT = CalendarRebalancePolicy.SEMI_ANNUAL;
+
+    /**
+     * Returns whether the month is re-balanced, given the {@code assets} balances of the month at
+     * {@code offset} and the desired weights in percent, both by asset index.
+     */
+    boolean shouldReBalance(int monthIndex, double[] balances, int offset, double[] desiredWeights, int assets);
+
+    /** Parses a policy in the form described above. */
+    static RebalancePolicy parse(String specification) {
+        if (Objects.isNull(specification) || specification.trim().isEmpty()) {
+            throw new IllegalArgumentException("The rebalance policy is empty");
+        }
+        String value = specification.trim();
+        int colon = value.indexOf(':');
+        String kind = (colon < 0 ? value : value.substring(0, colon)).trim().toLowerCase(Locale.ROOT);
+        String argument = colon < 0 ? null : value.substring(colon + 1).trim();
+        if (kind.equals("semiannual") && Objects.isNull(argument)) {
+            return CalendarRebalancePolicy.SEMI_ANNUAL;
+        }
+        if (kind.equals("quarterly") && Objects.isNull(argument)) {
+            return CalendarRebalancePolicy.QUARTERLY;
+        }
+        if (kind.equals("calendar") && Objects.nonNull(argument)) {
+            return CalendarRebalancePolicy.parse(argument);
+        }
+        if (kind.equals("drift") && Objects.nonNull(argument)) {
+            return new DriftBandRebalancePolicy(Double.parseDouble(argument));
+        }
+        throw new IllegalArgumentException("Unknown rebalance policy " + specification);
+    }
+
+    /** Reads the policy from {@link #PROPERTY}, or returns {@link #DEFAULT} when it is not set. */
+    static RebalancePolicy fromSystemProperty() {
+        String property = System.getProperty(PROPERTY);
+        if (Objects.isNull(property) || property.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        return parse(property);
+    }
+}
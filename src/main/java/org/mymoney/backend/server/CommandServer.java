@@ -0,0 +1,457 @@
+package org.mymoney.backend.server;
+
+import org.apache.logging.log4j.util.Strings;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the command line protocol over TCP, one command per line, with a non-blocking selector
+ * loop on the thread calling {@link #run()}.
+ *
+ * <p>Every non blank line gets exactly one response, in the order of the requests of the
+ * connection, so clients may pipeline any number of commands: the output of BALANCE or REBALANCE,
+ * {@code OK} for the commands without output, or {@code ERROR <code>} with the {@link
+ * org.mymoney.backend.model.ErrorCode} of a rejected command, each on one line. The outputs of
+ * several lines, of BALANCE_RANGE and SIMULATE, are framed by a leading {@code LINES <count>}
+ * line followed by that many lines, so a client always knows where a response ends. A response
+ * is built whole before it is framed, so a BALANCE_RANGE may span at most {@link
+ * org.mymoney.backend.service.PortfolioManager#MAX_BUFFERED_RANGE_PROPERTY} months here.
+ *
+ * <p>The commands run on single-threaded workers. With {@link SessionMode#PORTFOLIO} all
+ * connections share one {@link PortfolioRegistry} and a command runs on the worker of the shard of
+ * its portfolio, like in the {@link org.mymoney.backend.service.ShardedCommandExecutor}, so the
+ * commands of a portfolio run in arrival order whatever connection they come from. With {@link
+ * SessionMode#CONNECTION} every connection gets its own portfolios, created by the factory, and
+ * all its commands run on one worker. A connection stops being read while {@link #MAX_PENDING}
+ * of its responses are waiting, so a client that does not read its responses cannot exhaust the
+ * memory of the server.
+ *
+ * <p>A {@linkplain #setBatchListener batch listener}, such as the checkpoint of a {@link
+ * org.mymoney.backend.journal.DurablePortfolioStore}, runs on the selector thread about every
+ * {@link #LISTENER_INTERVAL_MILLIS} milliseconds while commands are being run, with every worker
+ * paused between two batches.
+ */
+public class CommandServer implements AutoCloseable {
+    /** System property choosing the {@link SessionMode}, {@code portfolio} by default. */
+    public static final String SESSION_PROPERTY = "mymoney.server.session";
+    static final int READ_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_PENDING = 4096;
+    static final long LISTENER_INTERVAL_MILLIS = 1000;
+    private static final int MAX_BUFFERED_OUTPUT = 1 << 20;
+    private static final byte NEW_LINE = '\n';
+    private static final String LINE_COUNT = "LINES ";
+    static Logger log = Logger.getLogger(CommandServer.class.getName());
+
+    /** How the portfolios are shared between the connections. */
+    public enum SessionMode {
+        /** The portfolios are shared by all connections and addressed by their ID. */
+        PORTFOLIO,
+        /** Every connection has its own portfolios, which are dropped when it closes. */
+        CONNECTION;
+
+        public static SessionMode fromSystemProperty() {
+            return valueOf(System.getProperty(SESSION_PROPERTY, PORTFOLIO.name()).toUpperCase());
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final PortfolioManager sharedManager;
+    private final PortfolioRegistry sharedRegistry;
+    private final Supplier<PortfolioService> portfolioFactory;
+    private final SessionMode sessionMode;
+    private final ExecutorService[] workers;
+    private final ConcurrentLinkedQueue<Session> completed = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    /** Set by the workers after a batch, cleared when the batch listener runs. */
+    private final AtomicBoolean ranCommands = new AtomicBoolean();
+    private volatile boolean running = true;
+    private long connections;
+    private Runnable batchListener;
+
+    /**
+     * Listens on the address; the portfolios come from the registry with {@link
+     * SessionMode#PORTFOLIO} and from the factory with {@link SessionMode#CONNECTION}.
+     */
+    public CommandServer(
+            InetSocketAddress address,
+            PortfolioRegistry portfolioRegistry,
+            Supplier<PortfolioService> portfolioFactory,
+            SessionMode sessionMode)
+            throws IOException {
+        this.sharedRegistry = portfolioRegistry;
+        this.sharedManager = new PortfolioManager(portfolioRegistry);
+        this.portfolioFactory = portfolioFactory;
+        this.sessionMode = sessionMode;
+        this.workers = new ExecutorService[portfolioRegistry.getShardCount()];
+        for (int worker = 0; worker < workers.length; worker++) {
+            String name = "server-worker-" + worker;
+            workers[worker] =
+                    Executors.newSingleThreadExecutor(
+                            runnable -> {
+                                Thread thread = new Thread(runnable, name);
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+        }
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Sets the listener to run while no command is running, between the batches of the workers;
+     * it must be set before {@link #run()}.
+     */
+    public void setBatchListener(Runnable batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /** Serves the connections until {@link #close()} is called. */
+    public void run() throws IOException {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("The server is already running");
+        }
+        log.info("Serving commands on " + getLocalAddress() + " with sessions per " + sessionMode);
+        long nextListenerNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LISTENER_INTERVAL_MILLIS);
+        try {
+            while (running) {
+                if (batchListener == null) {
+                    selector.select();
+                } else {
+                    long now = System.nanoTime();
+                    if (now - nextListenerNanos >= 0) {
+                        if (ranCommands.getAndSet(false)) {
+                            runPaused(batchListener);
+                        }
+                        nextListenerNanos = now + TimeUnit.MILLISECONDS.toNanos(LISTENER_INTERVAL_MILLIS);
+                    }
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextListenerNanos - now)));
+                }
+                Session session;
+                while ((session = completed.poll()) != null) {
+                    session.scheduled.set(false);
+                    if (session.channel.isOpen()) {
+                        try {
+                            writeResponses(session);
+                        } catch (IOException e) {
+                            log.log(Level.FINE, "Closing a connection after an I/O error", e);
+                            closeSession(session.key);
+                        }
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read((Session) key.attachment());
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                writeResponses((Session) key.attachment());
+                            }
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() instanceof Session) {
+                            log.log(Level.FINE, "Closing a connection after an I/O error", e);
+                            closeSession(key);
+                        } else {
+                            log.log(Level.WARNING, "Unable to accept a connection", e);
+                        }
+                    }
+                }
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Runs the action once every worker finished the batches queued before and waits for it, so
+     * no command runs meanwhile.
+     */
+    private void runPaused(Runnable action) {
+        CountDownLatch paused = new CountDownLatch(workers.length);
+        CountDownLatch resumed = new CountDownLatch(1);
+        for (ExecutorService worker : workers) {
+            worker.execute(
+                    () -> {
+                        paused.countDown();
+                        try {
+                            resumed.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    });
+        }
+        try {
+            paused.await();
+            action.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.log(Level.SEVERE, "The batch listener failed", e);
+        } finally {
+            resumed.countDown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Session session = new Session(channel, connections++);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+    }
+
+    /** Reads what the connection has sent and dispatches every complete line. */
+    private void read(Session session) throws IOException {
+        ByteBuffer buffer = session.readBuffer;
+        int read = session.channel.read(buffer);
+        if (read < 0) {
+            session.inputClosed = true;
+            session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        byte[] bytes = buffer.array();
+        int start = 0;
+        int end = buffer.position();
+        Batch[] batches = new Batch[workers.length];
+        for (int index = 0; index < end; index++) {
+            if (bytes[index] == NEW_LINE) {
+                dispatch(session, bytes, start, index, batches);
+                start = index + 1;
+            }
+        }
+        if (session.inputClosed && start < end) {
+            dispatch(session, bytes, start, end, batches);
+            start = end;
+        }
+        if (start == 0 && end == buffer.capacity()) {
+            log.warning("Closing connection " + session.id + " sending a line over " + end + " bytes");
+            closeSession(session.key);
+            return;
+        }
+        buffer.position(start);
+        buffer.limit(end);
+        buffer.compact();
+        submit(session, batches);
+        if (session.pending.size() >= MAX_PENDING) {
+            session.key.interestOps(session.key.interestOps() & ~SelectionKey.OP_READ);
+        }
+        if (session.inputClosed && session.pending.isEmpty()) {
+            closeSession(session.key);
+        }
+    }
+
+    /** Queues the response slot of the line and adds the line to the batch of its worker. */
+    private void dispatch(Session session, byte[] bytes, int start, int end, Batch[] batches) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        if (Strings.isBlank(line)) {
+            return;
+        }
+        Response response = new Response();
+        session.pending.add(response);
+        int worker =
+                sessionMode == SessionMode.PORTFOLIO
+                        ? sharedRegistry.shardOf(PortfolioManager.portfolioIdOf(line))
+                        : (int) (session.id % workers.length);
+        if (batches[worker] == null) {
+            batches[worker] = new Batch();
+        }
+        batches[worker].lines.add(line);
+        batches[worker].responses.add(response);
+    }
+
+    /** Runs every batch on its worker as one task and signals the session once it is done. */
+    private void submit(Session session, Batch[] batches) {
+        PortfolioManager manager = sessionMode == SessionMode.PORTFOLIO ? sharedManager : session.manager;
+        for (int worker = 0; worker < batches.length; worker++) {
+            Batch batch = batches[worker];
+            if (batch == null) {
+                continue;
+            }
+            workers[worker].execute(
+                    () -> {
+                        for (int index = 0; index < batch.lines.size(); index++) {
+                            batch.responses.get(index).complete(
+                                    frame(manager.processLineAsResponse(batch.lines.get(index))));
+                        }
+                        ranCommands.set(true);
+                        if (session.scheduled.compareAndSet(false, true)) {
+                            completed.add(session);
+                            selector.wakeup();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Returns the output as is when it is one line, or else prefixed by a {@code LINES <count>}
+     * line and with its lines separated by {@code \n} whatever the platform.
+     */
+    static String frame(String output) {
+        if (output.indexOf('\n') < 0 && output.indexOf('\r') < 0) {
+            return output;
+        }
+        String[] lines = output.split("\r?\n|\r");
+        StringBuilder framed = new StringBuilder(output.length() + 16).append(LINE_COUNT).append(lines.length);
+        for (String line : lines) {
+            framed.append((char) NEW_LINE).append(line);
+        }
+        return framed.toString();
+    }
+
+    /**
+     * Moves the completed responses at the head of the connection into its output buffer and
+     * writes as much of it as the socket takes, waiting for the socket to be writable otherwise.
+     */
+    private void writeResponses(Session session) throws IOException {
+        Response head;
+        while ((head = session.pending.peek()) != null
+                && head.done
+                && session.output.position() < MAX_BUFFERED_OUTPUT) {
+            session.pending.poll();
+            session.append(head.output);
+        }
+        ByteBuffer output = session.output;
+        output.flip();
+        session.channel.write(output);
+        output.compact();
+        int interest = session.key.interestOps();
+        interest = output.position() > 0 ? interest | SelectionKey.OP_WRITE : interest & ~SelectionKey.OP_WRITE;
+        if (!session.inputClosed && session.pending.size() < MAX_PENDING) {
+            interest |= SelectionKey.OP_READ;
+        }
+        session.key.interestOps(interest);
+        if (session.inputClosed && session.pending.isEmpty() && output.position() == 0) {
+            closeSession(session.key);
+        }
+    }
+
+    private void closeSession(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unable to close a connection", e);
+        }
+    }
+
+    /** Stops serving; {@link #run()} returns once the connections are closed. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (started.compareAndSet(false, true)) {
+            shutdown();
+        } else {
+            selector.wakeup();
+        }
+    }
+
+    private void shutdown() throws IOException {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Session) {
+                closeSession(key);
+            }
+        }
+        serverChannel.close();
+        selector.close();
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /** The state of one connection, only touched by the selector thread but for {@link #scheduled}. */
+    private final class Session {
+        final SocketChannel channel;
+        final long id;
+        final PortfolioManager manager;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        final ArrayDeque<Response> pending = new ArrayDeque<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        ByteBuffer output = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        SelectionKey key;
+        boolean inputClosed;
+
+        Session(SocketChannel channel, long id) {
+            this.channel = channel;
+            this.id = id;
+            this.manager =
+                    sessionMode == SessionMode.CONNECTION
+                            ? new PortfolioManager(new PortfolioRegistry(1, portfolioFactory))
+                            : null;
+        }
+
+        void append(String response) {
+            byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            if (output.remaining() < bytes.length + 1) {
+                ByteBuffer larger =
+                        ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + bytes.length + 1));
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+            output.put(bytes).put(NEW_LINE);
+        }
+    }
+
+    /** The lines of one read going to the same worker. */
+    private static final class Batch {
+        final List<String> lines = new ArrayList<>();
+        final List<Response> responses = new ArrayList<>();
+    }
+
+    /** The response to one request, filled in by a worker. */
+    private static final class Response {
+        String output;
+        volatile boolean done;
+
+        void complete(String output) {
+            this.output = output;
+            this.done = true;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package org.mymoney.backend.service;
+
+import org.apache.logging.log4j.util.Strings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many command files concurrently, each against its own freshly created {@link
+ * PortfolioManager}, and writes one output file per input. The commands a file gets rejected are
+ * reported with their line numbers to an error file named like its output with {@link
+ * #ERROR_SUFFIX}, which is removed again when there were none, so the errors of files run at the
+ * same time never mix.
+ *
+ * <p>Every file is processed sequentially by a single worker, so its output order is the same as
+ * in a standalone run. Files are read by a {@link MappedCommandParser}, which parses the commands
+ * straight from the mapped bytes; a file runs on one thread from start to end, which is the case
+ * it is built for. Workers are virtual threads when the JVM supports them and platform threads
+ * otherwise; in both cases at most {@code parallelism} files are processed at once.
+ */
+public class BatchCommandExecutor implements AutoCloseable {
+    public static final String OUTPUT_SUFFIX = ".out";
+    public static final String ERROR_SUFFIX = ".err";
+    static Logger log = Logger.getLogger(BatchCommandExecutor.class.getName());
+
+    private final Supplier<PortfolioManager> portfolioManagerFactory;
+    private final ExecutorService workers;
+
+    public BatchCommandExecutor(Supplier<PortfolioManager> portfolioManagerFactory) {
+        this(portfolioManagerFactory, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchCommandExecutor(Supplier<PortfolioManager> portfolioManagerFactory, int parallelism) {
+        this.portfolioManagerFactory = portfolioManagerFactory;
+        this.workers = Executors.newFixedThreadPool(parallelism, workerThreadFactory());
+    }
+
+    /**
+     * Lists the input files of a batch: the regular files of a directory sorted by name, or the
+     * paths listed one per line in a manifest file, relative to the manifest's directory.
+     */
+    public static List<Path> listInputs(Path directoryOrManifest) throws IOException {
+        if (Files.isDirectory(directoryOrManifest)) {
+            try (Stream<Path> files = Files.list(directoryOrManifest)) {
+                return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+        }
+        Path base = directoryOrManifest.toAbsolutePath().getParent();
+        List<Path> inputs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(directoryOrManifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (Strings.isNotBlank(line)) {
+                    inputs.add(base.resolve(line.trim()));
+                }
+            }
+        }
+        return inputs;
+    }
+
+    /** Executes every input and returns the results in input order. */
+    public List<FileResult> execute(List<Path> inputs, Path outputDirectory) throws IOException {
+        Files.createDirectories(outputDirectory);
+        List<Path> outputs = outputPaths(inputs, outputDirectory);
+        List<Future<FileResult>> pending = new ArrayList<>(inputs.size());
+        for (int index = 0; index < inputs.size(); index++) {
+            Path input = inputs.get(index);
+            Path output = outputs.get(index);
+            pending.add(workers.submit(() -> executeFile(input, output)));
+        }
+        List<FileResult> results = new ArrayList<>(inputs.size());
+        for (int index = 0; index < pending.size(); index++) {
+            try {
+                results.add(pending.get(index).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for " + inputs.get(index), e);
+            } catch (ExecutionException e) {
+                results.add(
+                        new FileResult(
+                                inputs.get(index), outputs.get(index), errorPath(outputs.get(index)), 0, 0, 0,
+                                e.getCause()));
+            }
+        }
+        return results;
+    }
+
+    private FileResult executeFile(Path input, Path output) {
+        long start = System.nanoTime();
+        Path errorOutput = errorPath(output);
+        long[] errors = new long[1];
+        FileResult result;
+        try (Writer writer =
+                        new BufferedWriter(
+                                Files.newBufferedWriter(output, StandardCharsets.UTF_8),
+                                PortfolioManager.IO_BUFFER_SIZE);
+                Writer errorWriter = Files.newBufferedWriter(errorOutput, StandardCharsets.UTF_8)) {
+            PortfolioManager portfolioManager = portfolioManagerFactory.get();
+            portfolioManager.setErrorOutput(errorWriter);
+            portfolioManager.setErrorListener(error -> errors[0]++);
+            long commands = new MappedCommandParser(portfolioManager).executeCommandsFromFile(input, writer);
+            result =
+                    new FileResult(input, output, errorOutput, System.nanoTime() - start, commands, errors[0], null);
+        } catch (Exception e) {
+            log.severe("Failed to process " + input + ": " + e.getMessage());
+            result = new FileResult(input, output, errorOutput, System.nanoTime() - start, 0, errors[0], e);
+        }
+        if (errors[0] == 0) {
+            try {
+                Files.deleteIfExists(errorOutput);
+            } catch (IOException e) {
+                log.warning("Unable to remove the empty " + errorOutput + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private static Path errorPath(Path output) {
+        String name = output.getFileName().toString();
+        return output.resolveSibling(name.substring(0, name.length() - OUTPUT_SUFFIX.length()) + ERROR_SUFFIX);
+    }
+
+    /** Names each output after its input, numbering repeated names so that none is overwritten. */
+    private static List<Path> outputPaths(List<Path> inputs, Path outputDirectory) {
+        Set<String> used = new HashSet<>();
+        List<Path> outputs = new ArrayList<>(inputs.size());
+        for (Path input : inputs) {
+            String name = input.getFileName().toString();
+            String candidate = name + OUTPUT_SUFFIX;
+            for (int copy = 1; !used.add(candidate); copy++) {
+                candidate = name + "-" + copy + OUTPUT_SUFFIX;
+            }
+            outputs.add(outputDirectory.resolve(candidate));
+        }
+        return outputs;
+    }
+
+    public static String summarize(List<FileResult> results, long wallNanos) {
+        StringBuilder builder = new StringBuilder("Batch summary").append(System.lineSeparator());
+        int failures = 0;
+        long errors = 0;
+        for (FileResult result : results) {
+            builder.append(result.getInput())
+                    .append(result.isSuccessful() ? " OK " : " FAILED ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(result.getNanos()))
+                    .append(" ms ")
+                    .append(result.getCommands())
+                    .append(" commands ")
+                    .append(result.getErrors())
+                    .append(" errors");
+            errors += result.getErrors();
+            if (result.getErrors() > 0) {
+                builder.append(" in ").append(result.getErrorOutput());
+            }
+            if (!result.isSuccessful()) {
+                failures++;
+                builder.append(" ").append(result.getError().getMessage());
+            }
+            builder.append(System.lineSeparator());
+        }
+        return builder.append(results.size())
+                .append(" files, ")
+                .append(failures)
+                .append(" failed, ")
+                .append(errors)
+                .append(" errors in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(wallNanos))
+                .append(" ms")
+                .append(System.lineSeparator())
+                .toString();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+    }
+
+    /** Uses virtual threads through reflection, since the code is built for Java 8. */
+    private static ThreadFactory workerThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builderType.getMethod("name", String.class, long.class).invoke(builder, "batch-worker-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return runnable -> {
+                Thread thread = new Thread(runnable, "batch-worker-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+    }
+
+    /** Outcome of one input file. */
+    public static final class FileResult {
+        private final Path input;
+        private final Path output;
+        private final Path errorOutput;
+        private final long nanos;
+        private final long commands;
+        private final long errors;
+        private final Throwable error;
+
+        FileResult(
+                Path input, Path output, Path errorOutput, long nanos, long commands, long errors, Throwable error) {
+            this.input = input;
+            this.output = output;
+            this.errorOutput = errorOutput;
+            this.nanos = nanos;
+            this.commands = commands;
+            this.errors = errors;
+            this.error = error;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+
+        /** The file with the rejected commands, which only exists when there were some. */
+        public Path getErrorOutput() {
+            return errorOutput;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public long getCommands() {
+            return commands;
+        }
+
+        /** The number of commands rejected. */
+        public long getErrors() {
+            return errors;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return Objects.isNull(error);
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package org.mymoney.backend.service;
+
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.CommandError;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.impl.MonteCarloSimulator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Parses command files straight from memory-mapped bytes and feeds the same {@link
+ * PortfolioService} calls as {@link PortfolioManager#processLineAsCommand(String)}.
+ *
+ * <p>Command keywords, month names and numbers are recognised from the raw bytes, so a well formed
+ * line creates no intermediate {@code String}s. Numbers take an exact fast path (at most 15
+ * significant digits) that yields the same {@code double} as {@link Double#parseDouble(String)}
+ * and fall back to it otherwise. Malformed and rejected lines are reported to the error output of
+ * the {@link PortfolioManager} with their line numbers, as {@link PortfolioManager#executeCommands(
+ * java.io.Reader, Writer)} reports them, plus the byte offset they start at, and never mixed into
+ * the outputs.
+ *
+ * <p>Files are mapped in windows, so inputs larger than 2GB are supported as long as no single
+ * line is longer than a window. An instance keeps scratch state and must not be shared between
+ * threads.
+ */
+public class MappedCommandParser {
+    static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final byte[][] COMMANDS = namesOf(Command.values());
+    private static final byte[][] MONTHS = namesOf(Month.values());
+    private static final Command[] COMMAND_VALUES = Command.values();
+    private static final Month[] MONTH_VALUES = Month.values();
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final int NO_YEAR = -1;
+
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    private final PortfolioManager portfolioManager;
+    private final int windowSize;
+    private final byte[] idScratch = new byte[PortfolioManager.MAX_PORTFOLIO_ID_BYTES];
+    private byte[] lastId = new byte[0];
+    private PortfolioService lastService;
+    private double[] values = new double[0];
+    private final Values valueList = new Values();
+    private double number;
+    private Month month;
+    private int year;
+    private Command command;
+    private ErrorCode cause;
+    private String error;
+    private long lineNumber;
+    private long commands;
+
+    public MappedCommandParser(PortfolioManager portfolioManager) {
+        this(portfolioManager, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedCommandParser(PortfolioManager portfolioManager, int windowSize) {
+        this.portfolioManager = portfolioManager;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Executes every command of the file, writing the outputs in input order, and returns the
+     * number of commands run.
+     */
+    public long executeCommandsFromFile(Path file, Writer output) throws IOException {
+        lineNumber = 0;
+        commands = 0;
+        Writer writer =
+                output instanceof BufferedWriter
+                        ? output
+                        : new BufferedWriter(output, PortfolioManager.IO_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(windowSize, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = executeWindow(window, position, length, position + length == size, writer);
+                if (consumed == 0) {
+                    throw new IOException(
+                            "The line at byte offset " + position + " is longer than " + windowSize + " bytes");
+                }
+                position += consumed;
+            }
+        }
+        writer.flush();
+        return commands;
+    }
+
+    /** Executes the complete lines of the window and returns the number of bytes consumed. */
+    private int executeWindow(ByteBuffer window, long windowOffset, int limit, boolean lastWindow, Writer writer)
+            throws IOException {
+        int lineStart = 0;
+        for (int index = 0; index < limit; index++) {
+            if (window.get(index) == '\n') {
+                executeLine(window, lineStart, index, windowOffset + lineStart, writer);
+                lineStart = index + 1;
+            }
+        }
+        if (lastWindow && lineStart < limit) {
+            executeLine(window, lineStart, limit, windowOffset + lineStart, writer);
+            lineStart = limit;
+        }
+        return lineStart;
+    }
+
+    private void executeLine(ByteBuffer line, int start, int end, long offset, Writer writer) throws IOException {
+        lineNumber++;
+        while (end > start && isBlank(line.get(end - 1))) {
+            end--;
+        }
+        int position = skipBlanks(line, start, end);
+        if (position == end) {
+            return;
+        }
+        commands++;
+        error = null;
+        cause = null;
+        command = null;
+        long startNanos = metrics.startTimer();
+        String output = null;
+        try {
+            output = execute(line, position, end, writer);
+        } catch (Exception e) {
+            fail(ErrorCode.of(e, command), e.getMessage());
+        }
+        if (Objects.isNull(error)) {
+            metrics.recordCommand(command, startNanos);
+        }
+        if (Objects.nonNull(error)) {
+            portfolioManager.reportError(
+                    new CommandError(lineNumber, offset, decode(line, start, end), cause, error));
+        } else {
+            PortfolioManager.writeOutput(writer, output);
+        }
+    }
+
+    /**
+     * Executes one trimmed line; returns its output, streams it to the writer, or fails with
+     * {@link #error} set.
+     */
+    private String execute(ByteBuffer line, int position, int end, Writer writer) throws Exception {
+        PortfolioService portfolioService;
+        if (line.get(position) == PortfolioManager.PORTFOLIO_ID_PREFIX.charAt(0)) {
+            int idEnd = tokenEnd(line, position, end);
+            portfolioService = resolvePortfolio(line, position + 1, idEnd);
+            position = skipBlanks(line, idEnd, end);
+        } else {
+            portfolioService = portfolioManager.resolvePortfolio(null);
+        }
+        if (Objects.isNull(portfolioService)) {
+            return null;
+        }
+        int tokenEnd = tokenEnd(line, position, end);
+        int commandIndex = match(COMMANDS, line, position, tokenEnd);
+        if (commandIndex < 0) {
+            fail(ErrorCode.UNKNOWN_COMMAND, "Invalid Command supplied");
+            return null;
+        }
+        command = COMMAND_VALUES[commandIndex];
+        position = skipBlanks(line, tokenEnd, end);
+        int supportedAssetClass = portfolioService.getSupportedAssetClass();
+        switch (command) {
+            case ALLOCATE:
+                if (parseAmounts(line, position, end, supportedAssetClass)) {
+                    reject(portfolioService.tryAllocate(currentValues(supportedAssetClass)));
+                }
+                return null;
+            case SIP:
+                if (parseAmounts(line, position, end, supportedAssetClass)) {
+                    reject(portfolioService.trySip(currentValues(supportedAssetClass)));
+                }
+                return null;
+            case CHANGE:
+            case CORRECT:
+                position = parseNumbers(line, position, end, supportedAssetClass, true);
+                if (position < 0 || !parseMonth(line, position, end)) {
+                    return null;
+                }
+                List<Double> rates = currentValues(supportedAssetClass);
+                boolean correction = command == Command.CORRECT;
+                reject(
+                        year == NO_YEAR
+                                ? portfolioService.tryChange(rates, month, correction)
+                                : portfolioService.tryChange(rates, YearMonth.of(year, month), correction));
+                return null;
+            case BALANCE:
+                if (!parseMonth(line, position, end)) {
+                    return null;
+                }
+                return requireOutput(
+                        year == NO_YEAR
+                                ? portfolioService.tryBalance(month)
+                                : portfolioService.tryBalance(YearMonth.of(year, month)));
+            case REBALANCE:
+                if (position != end) {
+                    fail(ErrorCode.WRONG_ARGUMENT_COUNT, "REBALANCE does not take any input");
+                    return null;
+                }
+                return requireOutput(portfolioService.tryReBalance());
+            case BALANCE_RANGE:
+                // BALANCE_RANGE <from> <to>, both months either with or without a year
+                int fromEnd = monthEnd(line, position, end);
+                if (!parseMonth(line, position, fromEnd)) {
+                    return null;
+                }
+                Month from = month;
+                int fromYear = year;
+                if (!parseMonth(line, skipBlanks(line, fromEnd, end), end)) {
+                    return null;
+                }
+                if ((fromYear == NO_YEAR) != (year == NO_YEAR)) {
+                    fail(ErrorCode.WRONG_ARGUMENT_COUNT, "Both months of BALANCE_RANGE need a year, or neither");
+                    return null;
+                }
+                if (year == NO_YEAR) {
+                    portfolioService.balanceRange(from, month, writer);
+                } else {
+                    portfolioService.balanceRange(YearMonth.of(fromYear, from), YearMonth.of(year, month), writer);
+                }
+                writer.write(System.lineSeparator());
+                return null;
+            case SIMULATE:
+                // SIMULATE <paths> <months> followed by a mean and a volatility per asset
+                if (!parseAmounts(line, position, end, 2 + 2 * supportedAssetClass, true)) {
+                    return null;
+                }
+                double paths = values[0];
+                double months = values[1];
+                if (paths != (int) paths || months != (int) months) {
+                    fail(ErrorCode.INVALID_NUMBER, "The paths and months of SIMULATE must be integers");
+                    return null;
+                } else if (!MonteCarloSimulator.withinLimits((int) paths, (int) months, supportedAssetClass)) {
+                    fail(ErrorCode.LIMIT_EXCEEDED, ErrorCode.LIMIT_EXCEEDED.getDescription());
+                    return null;
+                }
+                List<Double> meanRates = new ArrayList<>(supportedAssetClass);
+                List<Double> volatilities = new ArrayList<>(supportedAssetClass);
+                for (int asset = 0; asset < supportedAssetClass; asset++) {
+                    meanRates.add(values[2 + 2 * asset]);
+                    volatilities.add(values[3 + 2 * asset]);
+                }
+                return portfolioService.simulate((int) paths, (int) months, meanRates, volatilities);
+            default:
+                fail(ErrorCode.UNKNOWN_COMMAND, "Invalid Command supplied");
+                return null;
+        }
+    }
+
+    private void fail(ErrorCode cause, String message) {
+        this.cause = cause;
+        error = String.valueOf(message);
+        metrics.recordFailure(cause);
+    }
+
+    /** Fails with the rejection of a {@code try} operation of the portfolio, if there is one. */
+    private void reject(ErrorCode rejection) {
+        if (Objects.nonNull(rejection)) {
+            fail(rejection, rejection.getDescription());
+        }
+    }
+
+    /** Fails when a {@code try} read of the portfolio has no output; returns the output. */
+    private String requireOutput(String output) {
+        if (Objects.isNull(output)) {
+            fail(ErrorCode.INVALID_STATE, ErrorCode.INVALID_STATE.getDescription());
+        }
+        return output;
+    }
+
+    private PortfolioService resolvePortfolio(ByteBuffer line, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > PortfolioManager.MAX_PORTFOLIO_ID_BYTES) {
+            fail(ErrorCode.INVALID_PORTFOLIO_ID, "Invalid portfolio ID");
+            return null;
+        }
+        for (int index = 0; index < length; index++) {
+            idScratch[index] = line.get(start + index);
+        }
+        // Consecutive commands usually address the same portfolio; only look it up when it changes.
+        if (Objects.isNull(lastService) || !isLastId(length)) {
+            lastService =
+                    portfolioManager.resolvePortfolio(new String(idScratch, 0, length, StandardCharsets.UTF_8));
+            lastId = Arrays.copyOf(idScratch, length);
+        }
+        return lastService;
+    }
+
+    private boolean isLastId(int length) {
+        if (lastId.length != length) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            if (lastId[index] != idScratch[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Parses a line made of exactly {@code count} amounts. */
+    private boolean parseAmounts(ByteBuffer line, int position, int end, int count) {
+        return parseAmounts(line, position, end, count, false);
+    }
+
+    private boolean parseAmounts(ByteBuffer line, int position, int end, int count, boolean percent) {
+        position = parseNumbers(line, position, end, count, percent);
+        if (position >= 0 && position != end) {
+            fail(ErrorCode.WRONG_ARGUMENT_COUNT, "Please check the command, expected " + count + " values");
+        }
+        return position == end;
+    }
+
+    /**
+     * Parses {@code count} blank separated numbers into the value scratch and returns the position
+     * after them, or -1 with {@link #error} set.
+     */
+    private int parseNumbers(ByteBuffer line, int position, int end, int count, boolean percent) {
+        if (values.length < count) {
+            values = new double[count];
+        }
+        for (int index = 0; index < count; index++) {
+            if (position == end) {
+                fail(ErrorCode.WRONG_ARGUMENT_COUNT, "Please check the command, expected " + count + " values");
+                return -1;
+            }
+            int tokenEnd = tokenEnd(line, position, end);
+            int numberEnd = percent && line.get(tokenEnd - 1) == '%' ? tokenEnd - 1 : tokenEnd;
+            if (!parseNumber(line, position, numberEnd)) {
+                fail(ErrorCode.INVALID_NUMBER, "Invalid number " + decode(line, position, tokenEnd));
+                return -1;
+            }
+            values[index] = number;
+            position = skipBlanks(line, tokenEnd, end);
+        }
+        return position;
+    }
+
+    private List<Double> currentValues(int count) {
+        valueList.size = count;
+        return valueList;
+    }
+
+    /**
+     * Parses the end of the line as a month name optionally followed by a year into {@link #month}
+     * and {@link #year}.
+     */
+    private boolean parseMonth(ByteBuffer line, int position, int end) {
+        int tokenEnd = tokenEnd(line, position, end);
+        int monthIndex = match(MONTHS, line, position, tokenEnd);
+        if (monthIndex < 0) {
+            fail(ErrorCode.INVALID_MONTH, "Please check the month of the command");
+            return false;
+        }
+        month = MONTH_VALUES[monthIndex];
+        year = NO_YEAR;
+        position = skipBlanks(line, tokenEnd, end);
+        if (position == end) {
+            return true;
+        }
+        int yearEnd = tokenEnd(line, position, end);
+        int parsedYear = 0;
+        for (int index = position; index < yearEnd; index++) {
+            byte current = line.get(index);
+            if (current < '0' || current > '9' || index - position >= PortfolioManager.MAX_YEAR_DIGITS) {
+                fail(ErrorCode.INVALID_MONTH, PortfolioManager.INVALID_YEAR_MESSAGE);
+                return false;
+            }
+            parsedYear = parsedYear * 10 + (current - '0');
+        }
+        if (yearEnd != end) {
+            fail(ErrorCode.WRONG_ARGUMENT_COUNT, "Please check the command, unexpected input after the year");
+            return false;
+        }
+        year = parsedYear;
+        return true;
+    }
+
+    /** Parses a decimal number into {@link #number}, exactly like {@link Double#parseDouble}. */
+    private boolean parseNumber(ByteBuffer line, int start, int end) {
+        int position = start;
+        boolean negative = false;
+        if (position < end && (line.get(position) == '-' || line.get(position) == '+')) {
+            negative = line.get(position) == '-';
+            position++;
+        }
+        long mantissa = 0;
+        boolean anyDigit = false;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        boolean exact = true;
+        for (; position < end; position++) {
+            byte current = line.get(position);
+            if (current >= '0' && current <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || current != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (current - '0');
+                if (fraction) {
+                    fractionDigits++;
+                }
+                if (digits > MAX_EXACT_DIGITS) {
+                    exact = false;
+                    break;
+                }
+            } else if (current == '.' && !fraction) {
+                fraction = true;
+            } else {
+                exact = false;
+                break;
+            }
+        }
+        if (exact && anyDigit && fractionDigits < POWERS_OF_TEN.length) {
+            // Both operands are exact doubles, so the IEEE division is correctly rounded.
+            double value = mantissa / POWERS_OF_TEN[fractionDigits];
+            number = negative ? -value : value;
+            return true;
+        }
+        String token = decode(line, start, end);
+        if (!PortfolioManager.isNumber(token, 0, token.length())) {
+            return false;
+        }
+        number = Double.parseDouble(token);
+        return true;
+    }
+
+    private static int match(byte[][] names, ByteBuffer line, int start, int end) {
+        int length = end - start;
+        for (int candidate = 0; candidate < names.length; candidate++) {
+            byte[] name = names[candidate];
+            if (name.length != length) {
+                continue;
+            }
+            int index = 0;
+            while (index < length && name[index] == line.get(start + index)) {
+                index++;
+            }
+            if (index == length) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the end of the month name at the position, or of the year that follows it. */
+    private static int monthEnd(ByteBuffer line, int position, int end) {
+        int monthEnd = tokenEnd(line, position, end);
+        int next = skipBlanks(line, monthEnd, end);
+        int nextEnd = tokenEnd(line, next, end);
+        if (next == nextEnd) {
+            return monthEnd;
+        }
+        for (int index = next; index < nextEnd; index++) {
+            byte current = line.get(index);
+            if (current < '0' || current > '9') {
+                return monthEnd;
+            }
+        }
+        return nextEnd;
+    }
+
+    private static int tokenEnd(ByteBuffer line, int position, int end) {
+        while (position < end && !isBlank(line.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int skipBlanks(ByteBuffer line, int position, int end) {
+        while (position < end && isBlank(line.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isBlank(byte value) {
+        return value == ' ' || value == '\t' || value == '\r';
+    }
+
+    private static String decode(ByteBuffer line, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = line.get(start + index);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] namesOf(Enum<?>[] values) {
+        byte[][] names = new byte[values.length][];
+        for (int index = 0; index < values.length; index++) {
+            names[index] = values[index].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        return names;
+    }
+
+    /**
+     * The first {@code size} parsed values as the list the portfolio operations take, reused for
+     * every line; the operations copy what they keep.
+     */
+    private final class Values extends AbstractList<Double> {
+        int size;
+
+        @Override
+        public Double get(int index) {
+            if (index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size + " values");
+            }
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -2,112 +2,587 @@ package org.mymoney.backend.service;
 
 import org.apache.logging.log4j.util.Strings;
 import org.mymoney.backend.MyMoneyApplication;
+import org.mymoney.backend.constants.MyMoneyConstants;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.metrics.MetricsRegistry;
 import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.CommandError;
+import org.mymoney.backend.model.ErrorCode;
 import org.mymoney.backend.model.Command.*;
-import org.springframework.stereotype.Service;
+import org.mymoney.backend.output.AsyncWriter;
+import org.mymoney.backend.service.impl.MonteCarloSimulator;
 
-
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.DataFormatException;
 
 
-@Service
 public class PortfolioManager {
+    public static final String PORTFOLIO_ID_PREFIX = "@";
+    /**
+     * System property with the most months a BALANCE_RANGE may span when its output is built as one
+     * string rather than streamed, {@value #DEFAULT_MAX_BUFFERED_RANGE_MONTHS} by default.
+     */
+    public static final String MAX_BUFFERED_RANGE_PROPERTY = "mymoney.balanceRange.maxBufferedMonths";
+    public static final int DEFAULT_MAX_BUFFERED_RANGE_MONTHS = 120;
+    /** The longest portfolio ID in UTF-8 bytes, in this parser and in {@link MappedCommandParser}. */
+    static final int MAX_PORTFOLIO_ID_BYTES = 256;
+    static final int IO_BUFFER_SIZE = 64 * 1024;
+    /** Standard error, flushed after every report. */
+    static final Writer STANDARD_ERROR = new OutputStreamWriter(System.err, StandardCharsets.UTF_8);
+    /** What {@link #parseInteger} returns for a token that is not an integer. */
+    static final int INVALID_INTEGER = Integer.MIN_VALUE;
+    private static final int MAX_INTEGER_DIGITS = 9;
+    /** The most digits of the year of a dated month, in this parser and in {@link MappedCommandParser}. */
+    static final int MAX_YEAR_DIGITS = 4;
+    static final String INVALID_YEAR_MESSAGE = "Please check the year of the command";
+    private static final Map<String, Command> COMMANDS = byName(Command.values());
+    private static final Map<String, Month> MONTHS = byName(Month.values());
+
     private final PortfolioService portfolioService;
+    private final PortfolioRegistry portfolioRegistry;
+    private Writer errorOutput = STANDARD_ERROR;
+    private Consumer<CommandError> errorListener;
     static Logger log = Logger.getLogger(MyMoneyApplication.class.getName());
 
     public PortfolioManager(PortfolioService portfolioService) {
         this.portfolioService = portfolioService;
+        this.portfolioRegistry = null;
+    }
+
+    /**
+     * Routes every command to the portfolio named by its optional {@code @<portfolioId>} prefix,
+     * e.g. {@code @cust42 ALLOCATE 6000 3000 1000}. Commands without a prefix go to {@link
+     * PortfolioRegistry#DEFAULT_PORTFOLIO_ID}.
+     */
+    public PortfolioManager(PortfolioRegistry portfolioRegistry) {
+        this.portfolioService = null;
+        this.portfolioRegistry = portfolioRegistry;
+    }
+
+    public PortfolioRegistry getPortfolioRegistry() {
+        return portfolioRegistry;
     }
 
+    /**
+     * Sets where the failures of commands run without a response are reported, one line each, apart
+     * from the outputs; standard error by default. The writer may be shared by several threads.
+     */
+    public void setErrorOutput(Writer errorOutput) {
+        this.errorOutput = errorOutput;
+    }
+
+    /**
+     * Sets a listener given every failure reported to the error output, as a {@link CommandError},
+     * on the thread that ran the command.
+     */
+    public void setErrorListener(Consumer<CommandError> errorListener) {
+        this.errorListener = errorListener;
+    }
 
+
+    /**
+     * Executes the file and returns every output, one entry per command, for callers that want to
+     * inspect them. Use {@link #executeCommands(Reader, Writer)} to keep memory flat on large inputs.
+     */
     public List<String> executeCommandsFromFile(String filename) throws IOException {
-        try (Stream<String> lines = Files.lines(Paths.get(filename))) {
-            List<String> outputs =
-                    lines
-                            .filter(l -> Strings.isNotBlank(l))
-                            .map(this::processLineAsCommand)
-                            .collect(Collectors.toList());
-            display(outputs);
-            return outputs;
+        List<String> outputs = new ArrayList<>();
+        try (BufferedReader reader = openFile(filename)) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (Strings.isNotBlank(line)) {
+                    outputs.add(processLineAsCommand(line, lineNumber));
+                }
+            }
+        }
+        display(outputs);
+        return outputs;
+    }
+
+    /** Streams the commands of the file to the output and returns the number of commands run. */
+    public long executeCommandsFromFile(String filename, Writer output) throws IOException {
+        try (BufferedReader reader = openFile(filename)) {
+            return executeCommands(reader, output);
+        }
+    }
+
+    public long executeCommands(InputStream input, OutputStream output) throws IOException {
+        return executeCommands(
+                new InputStreamReader(input, StandardCharsets.UTF_8),
+                new OutputStreamWriter(output, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Executes the commands one line at a time and writes each BALANCE/REBALANCE result to the
+     * output as soon as it is produced. The output is flushed whenever no further input is
+     * buffered, so interactive callers see results without waiting for the end of the input.
+     * Neither stream is closed.
+     *
+     * @return the number of commands executed
+     */
+    public long executeCommands(Reader input, Writer output) throws IOException {
+        BufferedReader reader =
+                input instanceof BufferedReader
+                        ? (BufferedReader) input
+                        : new BufferedReader(input, IO_BUFFER_SIZE);
+        Writer writer = isBuffered(output) ? output : new BufferedWriter(output, IO_BUFFER_SIZE);
+        long commands = 0;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (Strings.isNotBlank(line)) {
+                writeOutput(writer, process(line, lineNumber, false, writer));
+                commands++;
+            }
+            if (!reader.ready()) {
+                writer.flush();
+            }
+        }
+        writer.flush();
+        return commands;
+    }
 
+    /** Returns whether writing to the output costs no more than a copy, so it needs no buffer. */
+    static boolean isBuffered(Writer output) {
+        return output instanceof BufferedWriter || output instanceof AsyncWriter;
+    }
+
+    public static BufferedReader openFile(String filename) throws IOException {
+        try {
+            return new BufferedReader(
+                    new InputStreamReader(Files.newInputStream(Paths.get(filename)), StandardCharsets.UTF_8),
+                    IO_BUFFER_SIZE);
         } catch (IOException e) {
             log.severe("Invalid File. Please check the path & name for input file provided.");
             throw new IOException("Invalid File");
         }
     }
 
+    static void writeOutput(Writer writer, String output) throws IOException {
+        if (Objects.nonNull(output)) {
+            writer.write(output);
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Runs the command and returns its output. Only {@link #executeCommands(Reader, Writer)} and
+     * {@link MappedCommandParser} stream BALANCE_RANGE; here its output is built as one string, so
+     * ranges longer than {@link #MAX_BUFFERED_RANGE_PROPERTY} months are rejected with {@link
+     * ErrorCode#LIMIT_EXCEEDED}. The same holds for the other {@code processLine} methods, which the
+     * sharded executor and the server use.
+     */
     public String processLineAsCommand(String line) {
+        return process(line, 0, false, null);
+    }
+
+    /** Runs the command read from the given line of the input, counted from 1, for its failure report. */
+    public String processLineAsCommand(String line, long lineNumber) {
+        return process(line, lineNumber, false, null);
+    }
+
+    /**
+     * Runs the command and answers it as the server does: with its output, {@link
+     * MyMoneyConstants#OK} when it succeeds without one, or {@link MyMoneyConstants#ERROR_PREFIX}
+     * followed by the {@link ErrorCode} when it fails.
+     */
+    public String processLineAsResponse(String line) {
+        return process(line, 0, true, null);
+    }
+
+    /**
+     * Runs the command and returns its output. Outputs that can be streamed, like BALANCE_RANGE,
+     * are written straight to {@code sink} instead when one is given.
+     *
+     * <p>Malformed lines and the commands a portfolio rejects cost no exception: the arguments are
+     * parsed by helpers answering null, NaN or {@link #INVALID_INTEGER}, and the portfolio is called
+     * through the {@code try} variants of its operations. Only BALANCE_RANGE, SIMULATE and
+     * unexpected failures are still reported by exceptions.
+     */
+    private String process(String line, long lineNumber, boolean respond, Writer sink) {
         String output = null;
-        int supportedAssetClass = portfolioService.getSupportedAssetClass();
+        MetricsRegistry metrics = MetricsRegistry.get();
+        long startNanos = metrics.startTimer();
+        Command command = null;
+        ErrorCode cause = null;
+        String message = null;
         String[] commandAndInputs = line.trim().split(" ");
         try {
-            Command command = Command.valueOf(commandAndInputs[0]);
-            switch (command) {
-                case ALLOCATE:
-                    validateInputSize(commandAndInputs, supportedAssetClass);
-                    List<Double> allocations = getDoubles(1, supportedAssetClass, commandAndInputs);
-                    portfolioService.allocate(allocations);
-                    break;
-                case SIP:
-                    validateInputSize(commandAndInputs, supportedAssetClass);
-                    List<Double> sips = getDoubles(1, supportedAssetClass, commandAndInputs);
-                    portfolioService.sip(sips);
-                    break;
-                case CHANGE:
-                    validateInputSize(commandAndInputs, supportedAssetClass + 1);
-                    List<Double> rates =
-                            Arrays.stream(commandAndInputs)
-                                    .skip(1)
-                                    .limit(supportedAssetClass)
-                                    .map(str -> Double.parseDouble(str.replace("%", "")))
-                                    .collect(Collectors.toList());
-                    Month month = Month.valueOf(commandAndInputs[supportedAssetClass + 1]);
-                    portfolioService.change(rates, month);
-                    break;
-                case BALANCE:
-                    validateInputSize(commandAndInputs, 1);
-                    month = Month.valueOf(commandAndInputs[1]);
-                    output = portfolioService.balance(month);
-                    break;
-                case REBALANCE:
-                    output = portfolioService.reBalance();
-                    break;
-                default:
-                    throw new DataFormatException("Invalid Command " + command + " supplied");
+            String portfolioId = null;
+            if (commandAndInputs[0].startsWith(PORTFOLIO_ID_PREFIX)) {
+                portfolioId = commandAndInputs[0].substring(PORTFOLIO_ID_PREFIX.length());
+                commandAndInputs = Arrays.copyOfRange(commandAndInputs, 1, commandAndInputs.length);
+            }
+            command = commandAndInputs.length == 0 ? null : COMMANDS.get(commandAndInputs[0]);
+            if (Objects.nonNull(portfolioId) && !isPortfolioId(portfolioId)) {
+                cause = ErrorCode.INVALID_PORTFOLIO_ID;
+            } else if (Objects.isNull(command)) {
+                cause = ErrorCode.UNKNOWN_COMMAND;
+            } else if (Objects.isNull(portfolioRegistry) && Objects.nonNull(portfolioId)) {
+                cause = ErrorCode.INVALID_PORTFOLIO_ID;
+                message = "Portfolio IDs are not supported in single portfolio mode";
+            } else {
+                PortfolioService portfolioService = resolvePortfolio(portfolioId);
+                int supportedAssetClass = portfolioService.getSupportedAssetClass();
+                switch (command) {
+                    case ALLOCATE:
+                    case SIP:
+                        if (commandAndInputs.length != supportedAssetClass + 1) {
+                            cause = ErrorCode.WRONG_ARGUMENT_COUNT;
+                            break;
+                        }
+                        List<Double> amounts = parseNumbers(commandAndInputs, 1, supportedAssetClass, false);
+                        if (Objects.isNull(amounts)) {
+                            cause = ErrorCode.INVALID_NUMBER;
+                            message = invalidNumber(commandAndInputs, 1, supportedAssetClass, false);
+                        } else if (command == Command.ALLOCATE) {
+                            cause = portfolioService.tryAllocate(amounts);
+                        } else {
+                            cause = portfolioService.trySip(amounts);
+                        }
+                        break;
+                    case CHANGE:
+                    case CORRECT:
+                        boolean dated = isDated(commandAndInputs, supportedAssetClass + 1);
+                        if (commandAndInputs.length != supportedAssetClass + (dated ? 3 : 2)) {
+                            cause = ErrorCode.WRONG_ARGUMENT_COUNT;
+                            break;
+                        }
+                        List<Double> rates = parseNumbers(commandAndInputs, 1, supportedAssetClass, true);
+                        Month month = MONTHS.get(commandAndInputs[supportedAssetClass + 1]);
+                        int year = dated ? parseYear(commandAndInputs[supportedAssetClass + 2]) : 0;
+                        if (Objects.isNull(rates)) {
+                            cause = ErrorCode.INVALID_NUMBER;
+                            message = invalidNumber(commandAndInputs, 1, supportedAssetClass, true);
+                        } else if (Objects.isNull(month)) {
+                            cause = ErrorCode.INVALID_MONTH;
+                        } else if (year == INVALID_INTEGER) {
+                            cause = ErrorCode.INVALID_MONTH;
+                            message = INVALID_YEAR_MESSAGE;
+                        } else if (dated) {
+                            cause = portfolioService.tryChange(
+                                    rates, YearMonth.of(year, month), command == Command.CORRECT);
+                        } else {
+                            cause = portfolioService.tryChange(rates, month, command == Command.CORRECT);
+                        }
+                        break;
+                    case BALANCE:
+                        dated = isDated(commandAndInputs, 1);
+                        if (commandAndInputs.length != (dated ? 3 : 2)) {
+                            cause = ErrorCode.WRONG_ARGUMENT_COUNT;
+                            break;
+                        }
+                        month = MONTHS.get(commandAndInputs[1]);
+                        year = dated ? parseYear(commandAndInputs[2]) : 0;
+                        if (Objects.isNull(month)) {
+                            cause = ErrorCode.INVALID_MONTH;
+                        } else if (year == INVALID_INTEGER) {
+                            cause = ErrorCode.INVALID_MONTH;
+                            message = INVALID_YEAR_MESSAGE;
+                        } else {
+                            output =
+                                    dated
+                                            ? portfolioService.tryBalance(YearMonth.of(year, month))
+                                            : portfolioService.tryBalance(month);
+                            cause = Objects.isNull(output) ? ErrorCode.INVALID_STATE : null;
+                        }
+                        break;
+                    case REBALANCE:
+                        output = portfolioService.tryReBalance();
+                        cause = Objects.isNull(output) ? ErrorCode.INVALID_STATE : null;
+                        break;
+                    case BALANCE_RANGE:
+                        // BALANCE_RANGE <from> <to>, both months either with or without a year
+                        dated = commandAndInputs.length == 5;
+                        if (commandAndInputs.length != (dated ? 5 : 3)) {
+                            cause = ErrorCode.WRONG_ARGUMENT_COUNT;
+                            break;
+                        }
+                        Month from = MONTHS.get(commandAndInputs[1]);
+                        Month to = MONTHS.get(commandAndInputs[dated ? 3 : 2]);
+                        int fromYear = dated ? parseYear(commandAndInputs[2]) : 0;
+                        year = dated ? parseYear(commandAndInputs[4]) : 0;
+                        if (Objects.isNull(from) || Objects.isNull(to)) {
+                            cause = ErrorCode.INVALID_MONTH;
+                            break;
+                        } else if (fromYear == INVALID_INTEGER || year == INVALID_INTEGER) {
+                            cause = ErrorCode.INVALID_MONTH;
+                            message = INVALID_YEAR_MESSAGE;
+                            break;
+                        } else if (Objects.isNull(sink) && !withinBufferedRange(fromYear, from, year, to)) {
+                            cause = ErrorCode.LIMIT_EXCEEDED;
+                            message = "Only a streamed BALANCE_RANGE may span more than "
+                                    + Integer.getInteger(MAX_BUFFERED_RANGE_PROPERTY, DEFAULT_MAX_BUFFERED_RANGE_MONTHS)
+                                    + " months";
+                            break;
+                        }
+                        Appendable target = Objects.isNull(sink) ? new StringBuilder() : sink;
+                        if (dated) {
+                            portfolioService.balanceRange(
+                                    YearMonth.of(fromYear, from), YearMonth.of(year, to), target);
+                        } else {
+                            portfolioService.balanceRange(from, to, target);
+                        }
+                        if (Objects.isNull(sink)) {
+                            output = target.toString();
+                        } else {
+                            sink.write(System.lineSeparator());
+                        }
+                        break;
+                    case SIMULATE:
+                        // SIMULATE <paths> <months> followed by a mean and a volatility per asset
+                        if (commandAndInputs.length != 3 + 2 * supportedAssetClass) {
+                            cause = ErrorCode.WRONG_ARGUMENT_COUNT;
+                            break;
+                        }
+                        int paths = parseInteger(commandAndInputs[1]);
+                        int months = parseInteger(commandAndInputs[2]);
+                        List<Double> meanRates = new ArrayList<>(supportedAssetClass);
+                        List<Double> volatilities = new ArrayList<>(supportedAssetClass);
+                        for (int asset = 0; asset < supportedAssetClass; asset++) {
+                            meanRates.add(parseNumber(commandAndInputs[3 + 2 * asset], true));
+                            volatilities.add(parseNumber(commandAndInputs[4 + 2 * asset], true));
+                        }
+                        if (paths == INVALID_INTEGER
+                                || months == INVALID_INTEGER
+                                || meanRates.contains(Double.NaN)
+                                || volatilities.contains(Double.NaN)) {
+                            cause = ErrorCode.INVALID_NUMBER;
+                            break;
+                        } else if (!MonteCarloSimulator.withinLimits(paths, months, supportedAssetClass)) {
+                            cause = ErrorCode.LIMIT_EXCEEDED;
+                            break;
+                        }
+                        output = portfolioService.simulate(paths, months, meanRates, volatilities);
+                        break;
+                    default:
+                        cause = ErrorCode.UNKNOWN_COMMAND;
+                }
             }
         } catch (Exception e) {
-            System.out.println(
-                    "Error Occurred while processing " + String.join(" ", commandAndInputs) + e.getMessage());
+            cause = ErrorCode.of(e, command);
+            message = e.getMessage();
+        }
+        if (Objects.isNull(cause)) {
+            metrics.recordCommand(command, startNanos);
+            return respond && Objects.isNull(output) ? MyMoneyConstants.OK : output;
+        }
+        metrics.recordFailure(cause);
+        if (respond) {
+            return MyMoneyConstants.ERROR_PREFIX + cause;
         }
-        return output;
+        if (Objects.isNull(message)) {
+            message = cause.getDescription();
+        }
+        reportError(new CommandError(lineNumber, line, cause, message));
+        return null;
     }
 
-    private List<Double> getDoubles(int skip, int limit, String[] commandAndInputs) {
-        return Arrays.stream(commandAndInputs)
-                .skip(skip)
-                .limit(limit)
-                .map(Double::parseDouble)
-                .collect(Collectors.toList());
+    /**
+     * Returns the portfolio ID a command line is addressed to, or {@link
+     * PortfolioRegistry#DEFAULT_PORTFOLIO_ID} when it carries no prefix.
+     */
+    public static String portfolioIdOf(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith(PORTFOLIO_ID_PREFIX)) {
+            return PortfolioRegistry.DEFAULT_PORTFOLIO_ID;
+        }
+        int end = trimmed.indexOf(' ');
+        return trimmed.substring(PORTFOLIO_ID_PREFIX.length(), end < 0 ? trimmed.length() : end);
     }
-    private void validateInputSize(String[] commandAndInputs, int size) {
-        if (commandAndInputs.length != size + 1) {
-            throw new InputMismatchException(
-                    "Please check the command " + String.join(" ", commandAndInputs));
+
+    /**
+     * Tells whether the ID is one a portfolio may have: not empty and at most {@value
+     * #MAX_PORTFOLIO_ID_BYTES} bytes in UTF-8, so the journal can record it.
+     */
+    static boolean isPortfolioId(String portfolioId) {
+        if (portfolioId.isEmpty()) {
+            return false;
         }
+        // A char takes at most 3 UTF-8 bytes, so short IDs need no encoding
+        return portfolioId.length() * 3 <= MAX_PORTFOLIO_ID_BYTES
+                || portfolioId.getBytes(StandardCharsets.UTF_8).length <= MAX_PORTFOLIO_ID_BYTES;
     }
 
-    private static void display(List<String> outputs) {
-        outputs.stream().filter(Objects::nonNull).forEach(System.out::println);
+    PortfolioService resolvePortfolio(String portfolioId) {
+        if (Objects.nonNull(portfolioRegistry)) {
+            return portfolioRegistry.getOrCreate(portfolioId);
+        }
+        if (Objects.nonNull(portfolioId)) {
+            throw new InputMismatchException("Portfolio IDs are not supported in single portfolio mode");
+        }
+        return portfolioService;
+    }
+
+    /**
+     * Tells whether a BALANCE_RANGE from one month to the other spans at most {@link
+     * #MAX_BUFFERED_RANGE_PROPERTY} months; both years are 0 for months without a year.
+     */
+    private static boolean withinBufferedRange(int fromYear, Month from, int toYear, Month to) {
+        long months = ((long) toYear - fromYear) * PortfolioData.MONTHS_PER_YEAR + to.ordinal() - from.ordinal() + 1;
+        return months <= Integer.getInteger(MAX_BUFFERED_RANGE_PROPERTY, DEFAULT_MAX_BUFFERED_RANGE_MONTHS);
+    }
+
+    /** Tells whether the month at the given position is followed by a year, e.g. JANUARY 2031. */
+    private static boolean isDated(String[] commandAndInputs, int monthPosition) {
+        return commandAndInputs.length == monthPosition + 2;
+    }
+
+    /** Parses {@code count} numbers from {@code from} on, or returns null if one is not a number. */
+    private static List<Double> parseNumbers(String[] tokens, int from, int count, boolean percent) {
+        List<Double> values = new ArrayList<>(count);
+        for (int index = from; index < from + count; index++) {
+            double value = parseNumber(tokens[index], percent);
+            if (Double.isNaN(value)) {
+                return null;
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static String invalidNumber(String[] tokens, int from, int count, boolean percent) {
+        for (int index = from; index < from + count; index++) {
+            if (Double.isNaN(parseNumber(tokens[index], percent))) {
+                return "Invalid number " + tokens[index];
+            }
+        }
+        return ErrorCode.INVALID_NUMBER.getDescription();
+    }
+
+    /**
+     * Parses a number, which may end with {@code %} when {@code percent}, or returns NaN when the
+     * token is not one. Only tokens {@link #isNumber} accepts reach {@link Double#parseDouble}.
+     */
+    static double parseNumber(String token, boolean percent) {
+        int end = percent && token.endsWith("%") ? token.length() - 1 : token.length();
+        if (!isNumber(token, 0, end)) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(end == token.length() ? token : token.substring(0, end));
+    }
+
+    /**
+     * Tells whether the characters are a decimal number with an optional sign and exponent, e.g.
+     * {@code -12.5} or {@code 1e3}, which {@link Double#parseDouble} parses without failing.
+     */
+    static boolean isNumber(CharSequence text, int start, int end) {
+        int position = start;
+        if (position < end && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+            position++;
+        }
+        int digits = 0;
+        boolean fraction = false;
+        for (; position < end; position++) {
+            char current = text.charAt(position);
+            if (current >= '0' && current <= '9') {
+                digits++;
+            } else if (current == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (position < end && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+            position++;
+            if (position < end && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+                position++;
+            }
+            int exponentDigits = 0;
+            for (; position < end && text.charAt(position) >= '0' && text.charAt(position) <= '9'; position++) {
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return position == end;
+    }
+
+    /**
+     * Parses an integer of at most {@value #MAX_INTEGER_DIGITS} digits with an optional sign, which
+     * always fits an int, or returns {@link #INVALID_INTEGER}.
+     */
+    static int parseInteger(String token) {
+        int start = token.startsWith("-") || token.startsWith("+") ? 1 : 0;
+        if (token.length() == start || token.length() - start > MAX_INTEGER_DIGITS) {
+            return INVALID_INTEGER;
+        }
+        for (int index = start; index < token.length(); index++) {
+            if (token.charAt(index) < '0' || token.charAt(index) > '9') {
+                return INVALID_INTEGER;
+            }
+        }
+        return Integer.parseInt(token);
+    }
+
+    /**
+     * Parses the year of a dated month, at most {@value #MAX_YEAR_DIGITS} digits without a sign, or
+     * returns {@link #INVALID_INTEGER}.
+     */
+    static int parseYear(String token) {
+        if (token.isEmpty() || token.length() > MAX_YEAR_DIGITS) {
+            return INVALID_INTEGER;
+        }
+        int year = 0;
+        for (int index = 0; index < token.length(); index++) {
+            char current = token.charAt(index);
+            if (current < '0' || current > '9') {
+                return INVALID_INTEGER;
+            }
+            year = year * 10 + (current - '0');
+        }
+        return year;
+    }
+
+    private static <T extends Enum<T>> Map<String, T> byName(T[] values) {
+        Map<String, T> names = new HashMap<>();
+        for (T value : values) {
+            names.put(value.name(), value);
+        }
+        return names;
+    }
+
+    void reportError(CommandError error) {
+        if (Objects.nonNull(errorListener)) {
+            errorListener.accept(error);
+        }
+        String report = error.toString();
+        try {
+            errorOutput.write(report + System.lineSeparator());
+            errorOutput.flush();
+        } catch (IOException e) {
+            log.warning(report);
+        }
+    }
+
+    /** Prints the outputs to standard output in one write rather than one synchronized line each. */
+    static void display(List<String> outputs) {
+        StringBuilder text = new StringBuilder();
+        for (String output : outputs) {
+            if (Objects.nonNull(output)) {
+                text.append(output).append(System.lineSeparator());
+            }
+        }
+        System.out.print(text);
+        System.out.flush();
     }
 }
@@ -0,0 +1,87 @@
+package org.mymoney.backend.service;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Holds one {@link PortfolioService} per portfolio ID, spread over a fixed number of shards.
+ *
+ * <p>A portfolio always lives in the same shard, so callers that pin each shard to a single
+ * worker thread get lock-free, in-order processing per portfolio while different shards are
+ * updated in parallel.
+ */
+public class PortfolioRegistry {
+    public static final String DEFAULT_PORTFOLIO_ID = "DEFAULT";
+
+    private final ConcurrentHashMap<String, PortfolioService>[] shards;
+    private final int shardMask;
+    private final Function<String, PortfolioService> portfolioFactory;
+
+    public PortfolioRegistry(Supplier<PortfolioService> portfolioFactory) {
+        this(Runtime.getRuntime().availableProcessors(), portfolioFactory);
+    }
+
+    public PortfolioRegistry(int shardCount, Supplier<PortfolioService> portfolioFactory) {
+        this(shardCount, toFunction(portfolioFactory));
+    }
+
+    /** Creates the portfolios with a factory that is given the ID of each new portfolio. */
+    @SuppressWarnings("unchecked")
+    public PortfolioRegistry(int shardCount, Function<String, PortfolioService> portfolioFactory) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        int size = Integer.highestOneBit(shardCount);
+        size = size < shardCount ? size << 1 : size;
+        this.shards = (ConcurrentHashMap<String, PortfolioService>[]) new ConcurrentHashMap<?, ?>[size];
+        for (int index = 0; index < size; index++) {
+            shards[index] = new ConcurrentHashMap<>();
+        }
+        this.shardMask = size - 1;
+        this.portfolioFactory = Objects.requireNonNull(portfolioFactory);
+    }
+
+    public PortfolioService getOrCreate(String portfolioId) {
+        String id = Objects.isNull(portfolioId) ? DEFAULT_PORTFOLIO_ID : portfolioId;
+        return shards[shardOf(id)].computeIfAbsent(id, portfolioFactory);
+    }
+
+    public PortfolioService get(String portfolioId) {
+        String id = Objects.isNull(portfolioId) ? DEFAULT_PORTFOLIO_ID : portfolioId;
+        return shards[shardOf(id)].get(id);
+    }
+
+    public int shardOf(String portfolioId) {
+        String id = Objects.isNull(portfolioId) ? DEFAULT_PORTFOLIO_ID : portfolioId;
+        int hash = id.hashCode();
+        // Spread the high bits so IDs sharing a prefix do not pile into one shard.
+        return (hash ^ (hash >>> 16)) & shardMask;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /** Visits every portfolio; callers must not create portfolios concurrently. */
+    public void forEach(BiConsumer<String, PortfolioService> action) {
+        for (ConcurrentHashMap<String, PortfolioService> shard : shards) {
+            shard.forEach(action);
+        }
+    }
+
+    private static Function<String, PortfolioService> toFunction(Supplier<PortfolioService> factory) {
+        Objects.requireNonNull(factory);
+        return portfolioId -> factory.get();
+    }
+
+    public long size() {
+        long size = 0;
+        for (ConcurrentHashMap<String, PortfolioService> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+}
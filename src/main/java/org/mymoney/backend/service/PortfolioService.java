@@ -1,10 +1,26 @@
 package org.mymoney.backend.service;
 
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.ErrorCode;
 
+import java.io.IOException;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.List;
 import java.util.zip.DataFormatException;
 
+/**
+ * Operations on one portfolio. Methods taking a {@link Month} address the first year of the
+ * portfolio; the {@link YearMonth} variants address any month of a multi-year timeline.
+ *
+ * <p>Rates may arrive late or be restated: {@code change} accepts a month that already has a rate
+ * and {@code correct} requires one.
+ *
+ * <p>The {@code try} variants report a rejected command with its {@link ErrorCode}, and a missing
+ * balance with null, instead of throwing. Command feeds with many dirty lines use them, so their
+ * implementations should answer without creating exceptions; the defaults only translate the
+ * exceptions of the throwing methods.
+ */
 public interface PortfolioService {
     void allocate(List<Double> allocations) throws DataFormatException;
 
@@ -12,9 +28,111 @@ public interface PortfolioService {
 
     void change(List<Double> rates, Month month) throws IllegalStateException, DataFormatException;
 
+    void change(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException;
+
+    /**
+     * Restates the rate of change of a month that already has one. Only the balances from that
+     * month onward are recalculated.
+     */
+    void correct(List<Double> rates, Month month) throws IllegalStateException, DataFormatException;
+
+    void correct(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException;
+
     String balance(Month month);
 
+    String balance(YearMonth month);
+
     String reBalance();
 
+    /**
+     * Writes the balance of every month from {@code from} to {@code to}, both included, one line
+     * per month: the month as BALANCE names it, the amount of every asset and their total. The
+     * lines are separated by the line separator, without one after the last.
+     */
+    void balanceRange(Month from, Month to, Appendable output) throws IOException;
+
+    void balanceRange(YearMonth from, YearMonth to, Appendable output) throws IOException;
+
+    /**
+     * Projects the allocation and SIP over {@code paths} random paths of monthly change rates,
+     * drawn per asset from a normal distribution with the given mean and volatility in percent.
+     * Returns one line per month with the balances at the 10th, 50th and 90th percentiles.
+     */
+    String simulate(int paths, int months, List<Double> meanRates, List<Double> volatilities)
+            throws DataFormatException;
+
     int getSupportedAssetClass();
+
+    /** Allocates, and returns null, or returns why the allocation is rejected. */
+    default ErrorCode tryAllocate(List<Double> allocations) {
+        try {
+            allocate(allocations);
+            return null;
+        } catch (Exception e) {
+            return ErrorCode.of(e, Command.ALLOCATE);
+        }
+    }
+
+    /** Registers the SIP, and returns null, or returns why it is rejected. */
+    default ErrorCode trySip(List<Double> sips) {
+        try {
+            sip(sips);
+            return null;
+        } catch (Exception e) {
+            return ErrorCode.of(e, Command.SIP);
+        }
+    }
+
+    /** Records the rates like {@code correct} when {@code correction}, else like {@code change}. */
+    default ErrorCode tryChange(List<Double> rates, Month month, boolean correction) {
+        try {
+            if (correction) {
+                correct(rates, month);
+            } else {
+                change(rates, month);
+            }
+            return null;
+        } catch (Exception e) {
+            return ErrorCode.of(e, correction ? Command.CORRECT : Command.CHANGE);
+        }
+    }
+
+    default ErrorCode tryChange(List<Double> rates, YearMonth month, boolean correction) {
+        try {
+            if (correction) {
+                correct(rates, month);
+            } else {
+                change(rates, month);
+            }
+            return null;
+        } catch (Exception e) {
+            return ErrorCode.of(e, correction ? Command.CORRECT : Command.CHANGE);
+        }
+    }
+
+    /** Returns the balance, or null when it is not known, where {@code balance} throws. */
+    default String tryBalance(Month month) {
+        try {
+            return balance(month);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    default String tryBalance(YearMonth month) {
+        try {
+            return balance(month);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /** Returns the output of REBALANCE, or null when there are no balances yet. */
+    default String tryReBalance() {
+        try {
+            return reBalance();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
 }
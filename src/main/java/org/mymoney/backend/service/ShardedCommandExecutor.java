@@ -0,0 +1,190 @@
+package org.mymoney.backend.service;
+
+import org.apache.logging.log4j.util.Strings;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executes multi-portfolio command files with one worker thread per {@link PortfolioRegistry}
+ * shard.
+ *
+ * <p>Lines are read in batches; every batch is split by shard keeping the input order inside
+ * each shard, and the outputs are emitted in input order once the whole batch is done. Since a
+ * portfolio is only ever touched by the worker owning its shard, no locking is needed. Outputs are
+ * held until their batch is done, so a BALANCE_RANGE is not streamed and is bounded by {@link
+ * PortfolioManager#MAX_BUFFERED_RANGE_PROPERTY}.
+ */
+public class ShardedCommandExecutor implements AutoCloseable {
+    static final int DEFAULT_BATCH_SIZE = 8192;
+
+    private final PortfolioManager portfolioManager;
+    private final PortfolioRegistry portfolioRegistry;
+    private final ExecutorService[] workers;
+    private final int batchSize;
+    /** The number in the input of every line of the batch being read, for the failure reports. */
+    private final long[] lineNumbers;
+    private long linesRead;
+    private Runnable batchListener;
+
+    public ShardedCommandExecutor(PortfolioManager portfolioManager) {
+        this(portfolioManager, DEFAULT_BATCH_SIZE);
+    }
+
+    public ShardedCommandExecutor(PortfolioManager portfolioManager, int batchSize) {
+        if (portfolioManager.getPortfolioRegistry() == null) {
+            throw new IllegalArgumentException("The portfolio manager is not backed by a registry");
+        }
+        this.portfolioManager = portfolioManager;
+        this.portfolioRegistry = portfolioManager.getPortfolioRegistry();
+        this.batchSize = batchSize;
+        this.lineNumbers = new long[batchSize];
+        this.workers = new ExecutorService[portfolioRegistry.getShardCount()];
+        for (int shard = 0; shard < workers.length; shard++) {
+            String name = "portfolio-shard-" + shard;
+            workers[shard] =
+                    Executors.newSingleThreadExecutor(
+                            runnable -> {
+                                Thread thread = new Thread(runnable, name);
+                                thread.setDaemon(true);
+                                return thread;
+                            });
+        }
+    }
+
+    /**
+     * Sets an action run after every batch, once its outputs are written and before the next
+     * batch starts, while no command is running.
+     */
+    public void setBatchListener(Runnable batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    public List<String> executeCommandsFromFile(String filename) throws IOException {
+        List<String> outputs = new ArrayList<>();
+        try (BufferedReader reader = PortfolioManager.openFile(filename)) {
+            List<String> batch = new ArrayList<>(batchSize);
+            linesRead = 0;
+            while (readBatch(reader, batch)) {
+                outputs.addAll(executeBatch(batch, lineNumbers));
+                batchDone();
+            }
+        }
+        PortfolioManager.display(outputs);
+        return outputs;
+    }
+
+    /**
+     * Streams the commands batch by batch, writing the outputs of a batch in input order as soon as
+     * it completes. Memory stays bounded by the batch size whatever the input length.
+     */
+    public void executeCommands(Reader input, Writer output) throws IOException {
+        BufferedReader reader =
+                input instanceof BufferedReader
+                        ? (BufferedReader) input
+                        : new BufferedReader(input, PortfolioManager.IO_BUFFER_SIZE);
+        Writer writer =
+                PortfolioManager.isBuffered(output)
+                        ? output
+                        : new BufferedWriter(output, PortfolioManager.IO_BUFFER_SIZE);
+        List<String> batch = new ArrayList<>(batchSize);
+        linesRead = 0;
+        while (readBatch(reader, batch)) {
+            for (String result : executeBatch(batch, lineNumbers)) {
+                PortfolioManager.writeOutput(writer, result);
+            }
+            writer.flush();
+            batchDone();
+        }
+    }
+
+    private void batchDone() {
+        if (batchListener != null) {
+            batchListener.run();
+        }
+    }
+
+    /**
+     * Fills the batch with the next non blank lines. Stops early when no more input is buffered so
+     * interactive input is not held back waiting for a full batch.
+     */
+    private boolean readBatch(BufferedReader reader, List<String> batch) throws IOException {
+        batch.clear();
+        String line;
+        while (batch.size() < batchSize && (line = reader.readLine()) != null) {
+            linesRead++;
+            if (Strings.isNotBlank(line)) {
+                lineNumbers[batch.size()] = linesRead;
+                batch.add(line);
+            }
+            if (!reader.ready()) {
+                break;
+            }
+        }
+        return !batch.isEmpty();
+    }
+
+    /** Runs the lines on their shard workers and returns the outputs in input order. */
+    public List<String> executeBatch(List<String> lines) {
+        return executeBatch(lines, null);
+    }
+
+    /** Runs the lines, numbered in the input by {@code lineNumbers} unless it is null. */
+    private List<String> executeBatch(List<String> lines, long[] lineNumbers) {
+        int shardCount = workers.length;
+        int[][] linesByShard = new int[shardCount][];
+        int[] counts = new int[shardCount];
+        int[] shardOfLine = new int[lines.size()];
+        for (int index = 0; index < lines.size(); index++) {
+            int shard = portfolioRegistry.shardOf(PortfolioManager.portfolioIdOf(lines.get(index)));
+            shardOfLine[index] = shard;
+            counts[shard]++;
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            linesByShard[shard] = new int[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (int index = 0; index < shardOfLine.length; index++) {
+            int shard = shardOfLine[index];
+            linesByShard[shard][counts[shard]++] = index;
+        }
+
+        String[] outputs = new String[lines.size()];
+        List<CompletableFuture<Void>> pending = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int[] indexes = linesByShard[shard];
+            if (indexes.length == 0) {
+                continue;
+            }
+            pending.add(
+                    CompletableFuture.runAsync(
+                            () -> {
+                                for (int index : indexes) {
+                                    outputs[index] =
+                                            portfolioManager.processLineAsCommand(
+                                                    lines.get(index),
+                                                    lineNumbers == null ? 0 : lineNumbers[index]);
+                                }
+                            },
+                            workers[shard]));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        return Arrays.asList(outputs);
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+    }
+}
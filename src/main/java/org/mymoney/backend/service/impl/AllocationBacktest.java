@@ -0,0 +1,323 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays every configuration of an {@link AllocationGrid} through the months of a {@link
+ * HistoricalReturns} history and returns the best {@code top} configurations by final value or by
+ * maximum drawdown.
+ *
+ * <p>A replay takes the steps of {@link DefaultPortfolioService}: the allocation is invested in the
+ * first month and the SIP added from the second, every month is stepped with {@code
+ * calculateBalance}, and re-balanced with {@code doReBalance} when the policy decides so. The
+ * drawdown is the largest fall of the total balance from its highest month-end value so far, in
+ * percent; SIP payments count towards the balance, as they do for BALANCE.
+ *
+ * <p>The configurations are split into ranges on a {@link ForkJoinPool} down to {@link #LEAF_SIZE}
+ * configurations. A range is replayed in a few scratch rows and keeps its best configurations as
+ * indexes and scores in a bounded heap, and the heaps are merged as the ranges join, so nothing is
+ * allocated per configuration. Only the best configurations are turned into {@link Outcome}s, by
+ * replaying them once more. Equal scores are ordered by configuration index, so the result does
+ * not depend on the number of workers.
+ */
+public class AllocationBacktest {
+    /** System property with the total amount every configuration allocates, 10000 by default. */
+    public static final String ALLOCATION_PROPERTY = "mymoney.backtest.allocation";
+    /** System property with the step of the weights in percent, 5 by default. */
+    public static final String STEP_PROPERTY = "mymoney.backtest.step";
+    /** System property listing the monthly SIP totals to try, separated by commas; 0 by default. */
+    public static final String SIPS_PROPERTY = "mymoney.backtest.sips";
+    /** System property with the number of configurations reported, 10 by default. */
+    public static final String TOP_PROPERTY = "mymoney.backtest.top";
+    /** System property naming the {@link Ranking}, {@code final_value} by default. */
+    public static final String RANKING_PROPERTY = "mymoney.backtest.ranking";
+    static final int LEAF_SIZE = 256;
+
+    /** What the configurations are ranked by. */
+    public enum Ranking {
+        /** The highest total balance after the last month first. */
+        FINAL_VALUE,
+        /** The smallest maximum drawdown first. */
+        DRAWDOWN;
+
+        double score(double finalValue, double maxDrawdown) {
+            return this == FINAL_VALUE ? finalValue : -maxDrawdown;
+        }
+    }
+
+    private final HistoricalReturns returns;
+    private final AllocationGrid grid;
+    private final RebalancePolicy reBalancePolicy;
+    private final Ranking ranking;
+    private final int top;
+    private final int assets;
+
+    public AllocationBacktest(
+            HistoricalReturns returns, AllocationGrid grid, RebalancePolicy reBalancePolicy, Ranking ranking, int top) {
+        if (grid.getAssets() != returns.getAssetCount()) {
+            throw new IllegalArgumentException(
+                    "The grid has " + grid.getAssets() + " assets and the returns " + returns.getAssetCount());
+        }
+        if (returns.getMonths() == 0 || top <= 0) {
+            throw new IllegalArgumentException("There is nothing to backtest");
+        }
+        this.returns = returns;
+        this.grid = grid;
+        this.reBalancePolicy = reBalancePolicy;
+        this.ranking = ranking;
+        this.top = top;
+        this.assets = grid.getAssets();
+    }
+
+    /** Runs the sweep on the common fork-join pool. */
+    public List<Outcome> run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /** Runs the sweep on the pool and returns the best configurations, best first. */
+    public List<Outcome> run(ForkJoinPool pool) {
+        Best best = pool.invoke(new Sweep(0, grid.size()));
+        Replay replay = new Replay();
+        List<Outcome> outcomes = new ArrayList<>(best.size);
+        for (int configuration : best.sorted()) {
+            replay.run(configuration);
+            outcomes.add(
+                    new Outcome(
+                            grid.describe(configuration),
+                            configuration,
+                            replay.balance.clone(),
+                            replay.finalValue,
+                            replay.maxDrawdown));
+        }
+        return outcomes;
+    }
+
+    /** Replays a range of configurations, halving it until it is at most {@link #LEAF_SIZE} long. */
+    private final class Sweep extends RecursiveTask<Best> {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        Sweep(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Best compute() {
+            if (to - from <= LEAF_SIZE) {
+                Best best = new Best(top);
+                Replay replay = new Replay();
+                for (int configuration = from; configuration < to; configuration++) {
+                    replay.run(configuration);
+                    best.offer(configuration, ranking.score(replay.finalValue, replay.maxDrawdown));
+                }
+                return best;
+            }
+            int middle = (from + to) >>> 1;
+            Sweep left = new Sweep(from, middle);
+            left.fork();
+            Best best = new Sweep(middle, to).compute();
+            best.addAll(left.join());
+            return best;
+        }
+    }
+
+    /** The scratch rows of one configuration at a time. */
+    private final class Replay {
+        private final double[] allocation = new double[assets];
+        private final double[] sip = new double[assets];
+        private final double[] desiredWeights = new double[assets];
+        private final double[] balance = new double[assets];
+        private double finalValue;
+        private double maxDrawdown;
+
+        void run(int configuration) {
+            grid.allocation(configuration, allocation);
+            grid.sip(configuration, sip);
+            double totalInvestment = 0;
+            for (double amount : allocation) {
+                totalInvestment += amount;
+            }
+            for (int asset = 0; asset < assets; asset++) {
+                desiredWeights[asset] = allocation[asset] * 100 / totalInvestment;
+            }
+            System.arraycopy(allocation, 0, balance, 0, assets);
+            double[] rates = returns.getRates();
+            int months = returns.getMonths();
+            double peak = 0;
+            double drawdown = 0;
+            double value = 0;
+            for (int month = 0; month < months; month++) {
+                // The initial allocation is invested in the first month, the SIP starts from the second.
+                DefaultPortfolioService.calculateBalance(
+                        balance, 0, month == 0 ? null : sip, rates, month * assets, assets);
+                if (reBalancePolicy.shouldReBalance(month, balance, 0, desiredWeights, assets)) {
+                    DefaultPortfolioService.doReBalance(balance, 0, desiredWeights, assets);
+                }
+                value = 0;
+                for (int asset = 0; asset < assets; asset++) {
+                    value += balance[asset];
+                }
+                if (value > peak) {
+                    peak = value;
+                } else if (peak > 0) {
+                    drawdown = Math.max(drawdown, (peak - value) * 100 / peak);
+                }
+            }
+            finalValue = value;
+            maxDrawdown = drawdown;
+        }
+    }
+
+    /**
+     * The best configurations seen, at most {@code capacity}, as a binary heap of parallel arrays
+     * with the worst one at the root.
+     */
+    static final class Best {
+        private final int[] configurations;
+        private final double[] scores;
+        private int size;
+
+        Best(int capacity) {
+            this.configurations = new int[capacity];
+            this.scores = new double[capacity];
+        }
+
+        void offer(int configuration, double score) {
+            if (size < configurations.length) {
+                configurations[size] = configuration;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (isBetter(score, configuration, scores[0], configurations[0])) {
+                configurations[0] = configuration;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        void addAll(Best other) {
+            for (int index = 0; index < other.size; index++) {
+                offer(other.configurations[index], other.scores[index]);
+            }
+        }
+
+        /** Returns the configurations, best first. */
+        int[] sorted() {
+            Integer[] order = new Integer[size];
+            for (int index = 0; index < size; index++) {
+                order[index] = index;
+            }
+            Arrays.sort(order, (left, right) -> {
+                if (left.intValue() == right.intValue()) {
+                    return 0;
+                }
+                return isBetter(scores[left], configurations[left], scores[right], configurations[right]) ? -1 : 1;
+            });
+            int[] sorted = new int[size];
+            for (int index = 0; index < size; index++) {
+                sorted[index] = configurations[order[index]];
+            }
+            return sorted;
+        }
+
+        private static boolean isBetter(double score, int configuration, double otherScore, int otherConfiguration) {
+            return score > otherScore || (score == otherScore && configuration < otherConfiguration);
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (!isBetter(scores[parent], configurations[parent], scores[index], configurations[index])) {
+                    return;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int worst = index;
+                for (int child = 2 * index + 1; child <= 2 * index + 2 && child < size; child++) {
+                    if (isBetter(scores[worst], configurations[worst], scores[child], configurations[child])) {
+                        worst = child;
+                    }
+                }
+                if (worst == index) {
+                    return;
+                }
+                swap(index, worst);
+                index = worst;
+            }
+        }
+
+        private void swap(int first, int second) {
+            int configuration = configurations[first];
+            configurations[first] = configurations[second];
+            configurations[second] = configuration;
+            double score = scores[first];
+            scores[first] = scores[second];
+            scores[second] = score;
+        }
+    }
+
+    /** The result of one configuration of the grid. */
+    public static final class Outcome {
+        private final String description;
+        private final int configuration;
+        private final double[] finalBalances;
+        private final double finalValue;
+        private final double maxDrawdown;
+
+        Outcome(String description, int configuration, double[] finalBalances, double finalValue, double maxDrawdown) {
+            this.description = description;
+            this.configuration = configuration;
+            this.finalBalances = finalBalances;
+            this.finalValue = finalValue;
+            this.maxDrawdown = maxDrawdown;
+        }
+
+        /** The index of the configuration in its {@link AllocationGrid}. */
+        public int getConfiguration() {
+            return configuration;
+        }
+
+        /** The balances after the last month, by asset index. */
+        public double[] getFinalBalances() {
+            return finalBalances.clone();
+        }
+
+        public double getFinalValue() {
+            return finalValue;
+        }
+
+        /** The maximum drawdown in percent. */
+        public double getMaxDrawdown() {
+            return maxDrawdown;
+        }
+
+        /**
+         * Renders the weights, the SIP total, the final balances as BALANCE prints them, their
+         * total and the drawdown, e.g. {@code 60.00% 30.00% 10.00% SIP 1000 80345 45000 12000
+         * 137345 DRAWDOWN 12.34%}.
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(description).append(' ');
+            return Portfolio.appendTo(builder, finalBalances, 0, finalBalances.length)
+                    .append(' ')
+                    .append((long) Math.floor(finalValue))
+                    .append(String.format(Locale.ROOT, " DRAWDOWN %.2f%%", maxDrawdown))
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dto.Portfolio;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The configurations an {@link AllocationBacktest} sweeps: every vector of asset weights in steps
+ * of {@code step} percent that add up to 100%, crossed with every monthly SIP total. A
+ * configuration invests the allocation total and its SIP total by the same weights.
+ *
+ * <p>Configurations are addressed by a dense index, weight vector first and SIP total second, and
+ * the weight vectors are stored in one flat array, so a grid of a million configurations holds no
+ * object per configuration.
+ */
+public final class AllocationGrid {
+    private final int assets;
+    private final double allocationTotal;
+    private final double[] sipTotals;
+    /** One row of weights in percent per weight vector. */
+    private final double[] weights;
+    private final int weightVectors;
+
+    public AllocationGrid(int assets, double allocationTotal, double step, double[] sipTotals) {
+        if (assets <= 0 || allocationTotal <= 0 || sipTotals.length == 0) {
+            throw new IllegalArgumentException("The allocation grid is empty");
+        }
+        long units = Math.round(100 / step);
+        if (step <= 0 || Math.abs(units * step - 100) > 1e-9) {
+            throw new IllegalArgumentException("The weight step " + step + "% does not divide 100%");
+        }
+        long count = compositions(units, assets);
+        if (count * sipTotals.length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "The allocation grid has more than " + Integer.MAX_VALUE + " configurations");
+        }
+        this.assets = assets;
+        this.allocationTotal = allocationTotal;
+        this.sipTotals = sipTotals.clone();
+        this.weightVectors = (int) count;
+        this.weights = new double[weightVectors * assets];
+        fill(new int[assets], 0, (int) units, 0, step);
+    }
+
+    /**
+     * Writes every split of {@code remaining} steps over the assets from {@code asset} on, after
+     * the parts already chosen, from the row of {@code vector}; returns the next free row. The first
+     * asset goes from all of the weight down, and varies slowest.
+     */
+    private int fill(int[] parts, int asset, int remaining, int vector, double step) {
+        if (asset == assets - 1) {
+            parts[asset] = remaining;
+            for (int index = 0; index < assets; index++) {
+                weights[vector * assets + index] = parts[index] * step;
+            }
+            return vector + 1;
+        }
+        for (int part = remaining; part >= 0; part--) {
+            parts[asset] = part;
+            vector = fill(parts, asset + 1, remaining - part, vector, step);
+        }
+        return vector;
+    }
+
+    /** Returns the number of ways to split {@code units} into {@code parts} ordered parts. */
+    private static long compositions(long units, int parts) {
+        // C(units + parts - 1, parts - 1), exact at every step of the product.
+        long count = 1;
+        for (int part = 1; part < parts; part++) {
+            count = count * (units + part) / part;
+            if (count > Integer.MAX_VALUE) {
+                return Integer.MAX_VALUE + 1L;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return weightVectors * sipTotals.length;
+    }
+
+    public int getAssets() {
+        return assets;
+    }
+
+    /** Copies the weights of the configuration, in percent by asset index, into {@code target}. */
+    public void weights(int configuration, double[] target) {
+        System.arraycopy(weights, configuration / sipTotals.length * assets, target, 0, assets);
+    }
+
+    public double sipTotal(int configuration) {
+        return sipTotals[configuration % sipTotals.length];
+    }
+
+    /** Writes the amounts ALLOCATE would be given for the configuration into {@code target}. */
+    public void allocation(int configuration, double[] target) {
+        split(allocationTotal, configuration, target);
+    }
+
+    /** Writes the amounts SIP would be given for the configuration into {@code target}. */
+    public void sip(int configuration, double[] target) {
+        split(sipTotal(configuration), configuration, target);
+    }
+
+    private void split(double total, int configuration, double[] target) {
+        int offset = configuration / sipTotals.length * assets;
+        for (int asset = 0; asset < assets; asset++) {
+            target[asset] = total * weights[offset + asset] / 100;
+        }
+    }
+
+    /** Describes the configuration as its weights followed by its SIP total. */
+    public String describe(int configuration) {
+        double[] vector = new double[assets];
+        weights(configuration, vector);
+        StringBuilder description = new StringBuilder();
+        for (double weight : vector) {
+            description.append(String.format(Locale.ROOT, "%.2f%% ", weight));
+        }
+        return Portfolio.appendTo(description.append("SIP "), new double[] {sipTotal(configuration)}, 0, 1)
+                .toString();
+    }
+
+    @Override
+    public String toString() {
+        return weightVectors + " weight vectors of " + allocationTotal + " x SIP " + Arrays.toString(sipTotals);
+    }
+}
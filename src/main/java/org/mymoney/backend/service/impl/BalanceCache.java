@@ -0,0 +1,73 @@
+package org.mymoney.backend.service.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used BALANCE outputs of one portfolio by month index, and its REBALANCE output.
+ *
+ * <p>The balance of a month only depends on the rates of that month and of the months before it,
+ * so restating the rates of a month drops the outputs from that month on and keeps the earlier
+ * ones. The REBALANCE output renders the last re-balanced month among the calculated ones, so it
+ * is stored with the number of calculated months and dropped when any of them is restated, since
+ * the rebalance policy may then decide differently for the later months.
+ */
+final class BalanceCache {
+    /** System property with the number of BALANCE outputs kept per portfolio, 0 to disable. */
+    static final String SIZE_PROPERTY = "mymoney.cache.months";
+    static final int DEFAULT_SIZE = 24;
+    static final int SIZE = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+
+    private final LinkedHashMap<Integer, String> balances;
+    private String reBalance;
+    private int reBalanceMonths = -1;
+
+    BalanceCache(int capacity) {
+        this.balances =
+                new LinkedHashMap<Integer, String>(Math.min(capacity, 16) * 2, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                        return size() > capacity;
+                    }
+                };
+    }
+
+    String getBalance(int monthIndex) {
+        return balances.get(monthIndex);
+    }
+
+    void putBalance(int monthIndex, String output) {
+        balances.put(monthIndex, output);
+    }
+
+    /** Returns the REBALANCE output if it was stored for the same number of calculated months. */
+    String getReBalance(int calculatedMonths) {
+        return calculatedMonths == reBalanceMonths ? reBalance : null;
+    }
+
+    void putReBalance(int calculatedMonths, String output) {
+        this.reBalance = output;
+        this.reBalanceMonths = calculatedMonths;
+    }
+
+    /** Drops the outputs that depend on the rates of the month. */
+    void invalidateFrom(int monthIndex) {
+        Iterator<Integer> months = balances.keySet().iterator();
+        while (months.hasNext()) {
+            if (months.next() >= monthIndex) {
+                months.remove();
+            }
+        }
+        if (monthIndex < reBalanceMonths) {
+            reBalance = null;
+            reBalanceMonths = -1;
+        }
+    }
+
+    void clear() {
+        balances.clear();
+        reBalance = null;
+        reBalanceMonths = -1;
+    }
+}
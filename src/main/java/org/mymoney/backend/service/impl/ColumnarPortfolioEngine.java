@@ -0,0 +1,176 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.rebalance.CalendarRebalancePolicy;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import static org.mymoney.backend.constants.MyMoneyConstants.CANNOT_REBALANCE;
+
+/**
+ * Steps many portfolios that share the same market change rates through the months in lockstep.
+ *
+ * <p>The portfolios are stored as columns: one primitive array per asset for the current balances,
+ * the SIPs and the desired weights, indexed by portfolio. Every month applies the SIP, the market
+ * change and the re-balancing of a calendar policy to whole columns in plain counted loops without
+ * branches, which the JIT compiles to SIMD instructions. The arithmetic is the one of {@link
+ * DefaultPortfolioService}, operation for operation, so the balances are identical to it.
+ *
+ * <p>An instance is not thread safe.
+ */
+public class ColumnarPortfolioEngine {
+    private final int assets;
+    private final double[][] balances;
+    private final double[][] sips;
+    private final double[][] desiredWeights;
+    private final double[][] reBalanced;
+    private final CalendarRebalancePolicy schedule;
+    private double[] totals;
+    private int size;
+    private int months;
+    private int lastReBalancedMonth = -1;
+
+    /** Creates an engine re-balancing in JUNE and DECEMBER. */
+    public ColumnarPortfolioEngine(int assets, int capacity) {
+        this(assets, capacity, CalendarRebalancePolicy.SEMI_ANNUAL);
+    }
+
+    /**
+     * Creates an engine re-balancing on the schedule; policies depending on the balances would
+     * branch per portfolio and are left to {@link RebalancePolicyComparison}.
+     */
+    public ColumnarPortfolioEngine(int assets, int capacity, CalendarRebalancePolicy schedule) {
+        this.assets = assets;
+        this.schedule = schedule;
+        this.balances = new double[assets][];
+        this.sips = new double[assets][];
+        this.desiredWeights = new double[assets][];
+        this.reBalanced = new double[assets][];
+        for (int asset = 0; asset < assets; asset++) {
+            balances[asset] = new double[capacity];
+            sips[asset] = new double[capacity];
+            desiredWeights[asset] = new double[capacity];
+            reBalanced[asset] = new double[capacity];
+        }
+        totals = new double[capacity];
+    }
+
+    /**
+     * Adds a portfolio before the first month is stepped and returns its index. Both vectors are
+     * indexed by asset index; a null SIP means no monthly investment.
+     */
+    public int add(double[] allocation, double[] sip) {
+        if (months > 0) {
+            throw new IllegalStateException("Portfolios cannot be added once the months are stepped");
+        }
+        if (size == totals.length) {
+            grow(Math.max(16, size * 2));
+        }
+        double totalInvestment = 0;
+        for (int asset = 0; asset < assets; asset++) {
+            totalInvestment += allocation[asset];
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            balances[asset][size] = allocation[asset];
+            sips[asset][size] = Objects.isNull(sip) ? 0 : sip[asset];
+            desiredWeights[asset][size] = allocation[asset] * 100 / totalInvestment;
+        }
+        return size++;
+    }
+
+    /**
+     * Advances every portfolio by one month with the rates of that month, indexed by asset
+     * index. The first step is the month of the allocation, which has no SIP.
+     */
+    public void step(double[] rates) {
+        for (int asset = 0; asset < assets; asset++) {
+            double[] column = balances[asset];
+            if (months > 0) {
+                applySipInvestment(column, sips[asset], size);
+            }
+            applyMarketChange(column, rates[asset], size);
+        }
+        if (schedule.isScheduled(months)) {
+            doReBalance();
+            for (int asset = 0; asset < assets; asset++) {
+                System.arraycopy(balances[asset], 0, reBalanced[asset], 0, size);
+            }
+            lastReBalancedMonth = months;
+        }
+        months++;
+    }
+
+    private static void applySipInvestment(double[] column, double[] sip, int size) {
+        for (int index = 0; index < size; index++) {
+            column[index] = Math.floor(column[index] + sip[index]);
+        }
+    }
+
+    private static void applyMarketChange(double[] column, double rate, int size) {
+        double factor = 1 + rate / 100;
+        for (int index = 0; index < size; index++) {
+            column[index] = Math.floor(column[index] * factor);
+        }
+    }
+
+    private void doReBalance() {
+        // Summed in index order, like DefaultPortfolioService, so the totals are bit for bit equal.
+        System.arraycopy(balances[0], 0, totals, 0, size);
+        for (int asset = 1; asset < assets; asset++) {
+            double[] column = balances[asset];
+            for (int index = 0; index < size; index++) {
+                totals[index] += column[index];
+            }
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            double[] column = balances[asset];
+            double[] weights = desiredWeights[asset];
+            for (int index = 0; index < size; index++) {
+                column[index] = Math.floor(totals[index] * weights[index] / 100);
+            }
+        }
+    }
+
+    private void grow(int capacity) {
+        for (int asset = 0; asset < assets; asset++) {
+            balances[asset] = Arrays.copyOf(balances[asset], capacity);
+            sips[asset] = Arrays.copyOf(sips[asset], capacity);
+            desiredWeights[asset] = Arrays.copyOf(desiredWeights[asset], capacity);
+            reBalanced[asset] = Arrays.copyOf(reBalanced[asset], capacity);
+        }
+        totals = Arrays.copyOf(totals, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the number of months stepped so far. */
+    public int getMonths() {
+        return months;
+    }
+
+    /** Returns the live balance column of the asset, indexed by portfolio. */
+    public double[] getBalances(int assetIndex) {
+        return balances[assetIndex];
+    }
+
+    /** Renders the balance of the portfolio after the last stepped month, like BALANCE. */
+    public String balance(int portfolio) {
+        return render(balances, portfolio);
+    }
+
+    /** Renders the balance of the portfolio at the last re-balancing, like REBALANCE. */
+    public String reBalance(int portfolio) {
+        return lastReBalancedMonth < 0 ? CANNOT_REBALANCE : render(reBalanced, portfolio);
+    }
+
+    private String render(double[][] columns, int portfolio) {
+        double[] amounts = new double[assets];
+        for (int asset = 0; asset < assets; asset++) {
+            amounts[asset] = columns[asset][portfolio];
+        }
+        return Portfolio.appendTo(new StringBuilder(), amounts, 0, assets).toString();
+    }
+}
@@ -0,0 +1,260 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.PortfolioService;
+
+import java.io.IOException;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+
+/**
+ * Makes a {@link DefaultPortfolioService} safe for any number of concurrent readers and writers.
+ *
+ * <p>ALLOCATE, SIP, CHANGE and CORRECT take the write lock. BALANCE and REBALANCE first try an
+ * optimistic read: a balance that is already calculated is rendered without any lock or write and
+ * is returned if no writer got in meanwhile, so readers of calculated months do not contend with
+ * each other. Otherwise they retry under the read lock, and only when balances must be calculated
+ * first they upgrade to the write lock, since calculating them writes to the portfolio. A reader
+ * therefore always sees the balances of one consistent set of rates.
+ */
+public class ConcurrentPortfolioService implements PortfolioService {
+    private final DefaultPortfolioService delegate;
+    private final StampedLock lock = new StampedLock();
+
+    public ConcurrentPortfolioService(DefaultPortfolioService delegate) {
+        this.delegate = delegate;
+    }
+
+    public ConcurrentPortfolioService(PortfolioData portfolioData) {
+        this(new DefaultPortfolioService(portfolioData));
+    }
+
+    @Override
+    public void allocate(List<Double> allocations) throws DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.allocate(allocations);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void sip(List<Double> sips) throws DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.sip(sips);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void change(List<Double> rates, Month month) throws IllegalStateException, DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.change(rates, month);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void change(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.change(rates, month);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void correct(List<Double> rates, Month month) throws IllegalStateException, DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.correct(rates, month);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void correct(List<Double> rates, YearMonth month) throws IllegalStateException, DataFormatException {
+        long stamp = lock.writeLock();
+        try {
+            delegate.correct(rates, month);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public ErrorCode tryAllocate(List<Double> allocations) {
+        long stamp = lock.writeLock();
+        try {
+            return delegate.tryAllocate(allocations);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public ErrorCode trySip(List<Double> sips) {
+        long stamp = lock.writeLock();
+        try {
+            return delegate.trySip(sips);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, Month month, boolean correction) {
+        long stamp = lock.writeLock();
+        try {
+            return delegate.tryChange(rates, month, correction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, YearMonth month, boolean correction) {
+        long stamp = lock.writeLock();
+        try {
+            return delegate.tryChange(rates, month, correction);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public String balance(Month month) {
+        int monthIndex = PortfolioData.monthIndex(month);
+        return read(() -> delegate.peekBalance(monthIndex), () -> delegate.balance(month));
+    }
+
+    @Override
+    public String balance(YearMonth month) {
+        return read(() -> delegate.peekBalance(delegate.peekMonthIndex(month)), () -> delegate.balance(month));
+    }
+
+    @Override
+    public String reBalance() {
+        return read(delegate::peekReBalance, delegate::reBalance);
+    }
+
+    @Override
+    public String tryBalance(Month month) {
+        int monthIndex = PortfolioData.monthIndex(month);
+        return read(() -> delegate.peekBalance(monthIndex), () -> delegate.tryBalance(month));
+    }
+
+    @Override
+    public String tryBalance(YearMonth month) {
+        return read(() -> delegate.peekBalance(delegate.peekMonthIndex(month)), () -> delegate.tryBalance(month));
+    }
+
+    @Override
+    public String tryReBalance() {
+        return read(delegate::peekReBalance, delegate::tryReBalance);
+    }
+
+    /**
+     * Streams the range under the read lock when its balances are calculated, and upgrades to the
+     * write lock to calculate them first otherwise.
+     */
+    @Override
+    public void balanceRange(Month from, Month to, Appendable output) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            if (delegate.peekUpToDate()) {
+                delegate.streamBalanceRange(PortfolioData.monthIndex(from), PortfolioData.monthIndex(to), output);
+            } else {
+                stamp = toWriteLock(stamp);
+                delegate.balanceRange(from, to, output);
+            }
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    @Override
+    public void balanceRange(YearMonth from, YearMonth to, Appendable output) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            int fromIndex = delegate.peekMonthIndex(from);
+            if (fromIndex >= 0 && delegate.peekUpToDate()) {
+                delegate.streamBalanceRange(fromIndex, delegate.peekMonthIndex(to), output);
+            } else {
+                stamp = toWriteLock(stamp);
+                delegate.balanceRange(from, to, output);
+            }
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /**
+     * Answers with {@code peek} under an optimistic read, then under the read lock, and with {@code
+     * calculate} under the write lock when {@code peek} has no answer.
+     */
+    private String read(Supplier<String> peek, Supplier<String> calculate) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            String output;
+            try {
+                output = peek.get();
+            } catch (RuntimeException e) {
+                // A torn read of a portfolio being written, retried under the lock.
+                output = null;
+            }
+            if (output != null && lock.validate(stamp)) {
+                return output;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            String output = peek.get();
+            if (output != null) {
+                return output;
+            }
+            stamp = toWriteLock(stamp);
+            return calculate.get();
+        } finally {
+            lock.unlock(stamp);
+        }
+    }
+
+    /** Upgrades the read lock, waiting for the other readers to leave if it cannot right away. */
+    private long toWriteLock(long readStamp) {
+        long stamp = lock.tryConvertToWriteLock(readStamp);
+        if (stamp != 0) {
+            return stamp;
+        }
+        lock.unlockRead(readStamp);
+        return lock.writeLock();
+    }
+
+    @Override
+    public String simulate(int paths, int months, List<Double> meanRates, List<Double> volatilities)
+            throws DataFormatException {
+        long stamp = lock.readLock();
+        try {
+            return delegate.simulate(paths, months, meanRates, volatilities);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int getSupportedAssetClass() {
+        return delegate.getSupportedAssetClass();
+    }
+}
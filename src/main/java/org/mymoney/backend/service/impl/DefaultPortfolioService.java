@@ -1,77 +1,155 @@
 package org.mymoney.backend.service.impl;
 
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Streams;
 import org.mymoney.backend.dao.PortfolioData;
 import org.mymoney.backend.dto.Portfolio;
-import org.mymoney.backend.model.Asset;
-import org.mymoney.backend.model.Fund;
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.rebalance.RebalancePolicy;
 import org.mymoney.backend.service.PortfolioService;
 
-import org.springframework.stereotype.Service;
-
+import java.io.IOException;
+import java.io.Writer;
+import java.time.DateTimeException;
 import java.time.Month;
+import java.time.YearMonth;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.zip.DataFormatException;
 
 import static org.mymoney.backend.constants.MyMoneyConstants.CANNOT_REBALANCE;
 
-@Service
 public class DefaultPortfolioService implements PortfolioService {
+    /** The policy of {@link RebalancePolicy#PROPERTY}, followed by portfolios not given one. */
+    public static final RebalancePolicy CONFIGURED_POLICY = RebalancePolicy.fromSystemProperty();
+
     private final PortfolioData portfolioData;
+    private final RebalancePolicy reBalancePolicy;
+    private boolean fixedPoint = FixedPointArithmetic.ENABLED;
+    /** The integer steps of the portfolio, created on the first of them. */
+    private FixedPointArithmetic integerSteps;
+    /** The rates in basis points, converted up to {@code basisPointMonths}. */
+    private int[] rateBasisPoints;
+    private int basisPointMonths;
+    /** Rendered outputs, created on the first BALANCE or REBALANCE. */
+    private BalanceCache cache;
 
     static Logger log = Logger.getLogger(DefaultPortfolioService.class.getName());
+    private static final MetricsRegistry metrics = MetricsRegistry.get();
 
 
     public DefaultPortfolioService(PortfolioData portfolioData) {
+        this(portfolioData, CONFIGURED_POLICY);
+    }
+
+    public DefaultPortfolioService(PortfolioData portfolioData, RebalancePolicy reBalancePolicy) {
         this.portfolioData = portfolioData;
+        this.reBalancePolicy = reBalancePolicy;
+    }
+
+    /** Creates a service stepping the months with {@link FixedPointArithmetic} if {@code fixedPoint}. */
+    public static DefaultPortfolioService withArithmetic(
+            PortfolioData portfolioData, RebalancePolicy reBalancePolicy, boolean fixedPoint) {
+        DefaultPortfolioService service = new DefaultPortfolioService(portfolioData, reBalancePolicy);
+        service.fixedPoint = fixedPoint;
+        return service;
     }
+
+    /**
+     * Describes how portfolios not given a policy calculate their balances: the configured policy,
+     * followed by " fixed" with {@link FixedPointArithmetic}.
+     */
+    public static String configuredCalculation() {
+        return FixedPointArithmetic.ENABLED ? CONFIGURED_POLICY + " fixed" : CONFIGURED_POLICY.toString();
+    }
+
     @Override
     public void allocate(List<Double> allocations) throws DataFormatException {
         if (Objects.nonNull(portfolioData.initialAllocation)) {
             throw new IllegalStateException("The funds are already Allocated once.");
         }
-        portfolioData.initialAllocation = createMyMoneyFundsWithDefaultOrdering(allocations);
+        validateInputs(portfolioData.assetCount, allocations);
+        rethrow(tryAllocate(allocations));
+    }
+
+    @Override
+    public ErrorCode tryAllocate(List<Double> allocations) {
+        if (Objects.nonNull(portfolioData.initialAllocation)) {
+            return ErrorCode.INVALID_STATE;
+        }
+        if (!isAmounts(allocations)) {
+            return ErrorCode.MALFORMED_INPUT;
+        }
+        portfolioData.initialAllocation = new Portfolio(portfolioData.assetUniverse, vectorOf(allocations));
         portfolioData.desiredWeights = calculateDesiredWeight();
+        clearCache();
         log.info(
                 String.format("Portfolio initialized with initial allocation of %s and desired weights: %s",
                 portfolioData.initialAllocation,
-                portfolioData.desiredWeights));
+                Arrays.toString(portfolioData.desiredWeights)));
+        return null;
     }
 
-    private Map<Asset, Double> calculateDesiredWeight() {
+    private double[] calculateDesiredWeight() {
         if (Objects.isNull(portfolioData.initialAllocation)) {
             throw new IllegalStateException("The funds are not yet Allocated");
         }
-        return portfolioData.initialAllocation.getFunds().stream()
-                .collect(
-                        Collectors.toMap(
-                                Fund::getAsset,
-                                e -> e.getAmount() * 100 / portfolioData.initialAllocation.getTotalInvestment()));
+        double[] amounts = portfolioData.initialAllocation.getAmounts();
+        double totalInvestment = portfolioData.initialAllocation.getTotalInvestment();
+        double[] weights = new double[amounts.length];
+        for (int index = 0; index < amounts.length; index++) {
+            weights[index] = amounts[index] * 100 / totalInvestment;
+        }
+        return weights;
     }
 
-    private Portfolio createMyMoneyFundsWithDefaultOrdering(List<Double> allocations)
-            throws DataFormatException {
-        return createMyMoneyFunds(portfolioData.defaultAssetOrderForIO, allocations);
+    /**
+     * Tells whether the values are an amount per asset, which the integer steps, if used, can hold
+     * exactly.
+     */
+    private boolean isAmounts(List<Double> values) {
+        if (Objects.isNull(values) || values.size() != portfolioData.assetCount) {
+            return false;
+        }
+        if (fixedPoint) {
+            for (Double value : values) {
+                if (!FixedPointArithmetic.isMinorUnits(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
-    private Portfolio createMyMoneyFunds(
-            Set<Asset> assetOrderForIO, List<Double> allocations) throws DataFormatException {
-        validateInputs(assetOrderForIO, allocations);
-        List<Fund> fundEntityList =
-                Streams.zip(assetOrderForIO.stream(), allocations.stream(), Fund::new)
-                        .collect(Collectors.toList());
-        return new Portfolio(fundEntityList);
+    /** Throws the exception the throwing variant of an operation reports a malformed input with. */
+    private static void rethrow(ErrorCode rejection) throws DataFormatException {
+        if (rejection == ErrorCode.MALFORMED_INPUT) {
+            throw new DataFormatException("Malformed Input.");
+        } else if (rejection == ErrorCode.LIMIT_EXCEEDED) {
+            throw new IllegalArgumentException(
+                    "The month is past the longest timeline of " + PortfolioData.MAX_MONTHS + " months");
+        }
     }
 
+    /** Copies the values, given in input order, into a vector indexed by asset index. */
+    private double[] toVector(List<Double> values) throws DataFormatException {
+        validateInputs(portfolioData.assetCount, values);
+        return vectorOf(values);
+    }
 
-    private void validateInputs(Set<Asset> assetOrderForIO, List<Double> allocations)
+    private double[] vectorOf(List<Double> values) {
+        double[] vector = new double[portfolioData.assetCount];
+        for (int index = 0; index < vector.length; index++) {
+            vector[index] = values.get(index);
+        }
+        return vector;
+    }
+
+
+    private static void validateInputs(int assetCount, List<Double> allocations)
             throws DataFormatException {
-        if (Objects.isNull(allocations) || allocations.size() != assetOrderForIO.size()) {
+        if (Objects.isNull(allocations) || allocations.size() != assetCount) {
             throw new DataFormatException("The input is not in the desired format");
         }
     }
@@ -82,160 +160,580 @@ public class DefaultPortfolioService implements PortfolioService {
         if (Objects.nonNull(portfolioData.initialSip)) {
             throw new IllegalStateException("The SIP is already registered once");
         }
-        portfolioData.initialSip = createMyMoneyFundsWithDefaultOrdering(sips);
+        validateInputs(portfolioData.assetCount, sips);
+        rethrow(trySip(sips));
+    }
+
+    @Override
+    public ErrorCode trySip(List<Double> sips) {
+        if (Objects.nonNull(portfolioData.initialSip)) {
+            return ErrorCode.INVALID_STATE;
+        }
+        if (!isAmounts(sips)) {
+            return ErrorCode.MALFORMED_INPUT;
+        }
+        portfolioData.initialSip = new Portfolio(portfolioData.assetUniverse, vectorOf(sips));
+        integerSteps = null;
+        clearCache();
         log.info(String.format("Portfolio initialized with a monthly SIP of %s ", portfolioData.initialSip));
+        return null;
     }
 
     @Override
     public void change(List<Double> rates, Month month)
             throws IllegalStateException, DataFormatException {
-        if (Objects.nonNull(portfolioData.monthlyMarketChangeRate.getOrDefault(month, null))) {
+        change(rates, Objects.isNull(month) ? -1 : PortfolioData.monthIndex(month), false);
+    }
+
+    @Override
+    public void change(List<Double> rates, YearMonth month)
+            throws IllegalStateException, DataFormatException {
+        change(rates, month, false);
+    }
+
+    @Override
+    public void correct(List<Double> rates, Month month)
+            throws IllegalStateException, DataFormatException {
+        change(rates, Objects.isNull(month) ? -1 : PortfolioData.monthIndex(month), true);
+    }
+
+    @Override
+    public void correct(List<Double> rates, YearMonth month)
+            throws IllegalStateException, DataFormatException {
+        change(rates, month, true);
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, Month month, boolean correction) {
+        if (Objects.isNull(month)) {
+            return ErrorCode.MALFORMED_INPUT;
+        }
+        return tryChange(rates, PortfolioData.monthIndex(month), correction);
+    }
+
+    @Override
+    public ErrorCode tryChange(List<Double> rates, YearMonth month, boolean correction) {
+        int monthIndex = Objects.isNull(month) ? -1 : portfolioData.changeIndex(month);
+        if (monthIndex < 0) {
+            return ErrorCode.INVALID_STATE;
+        }
+        ErrorCode rejection = tryChange(rates, monthIndex, correction);
+        if (Objects.isNull(rejection)) {
+            portfolioData.fixStartYear(month);
+        }
+        return rejection;
+    }
+
+    /** Changes the rates of the dated month; only an accepted change fixes the start year. */
+    private void change(List<Double> rates, YearMonth month, boolean correction)
+            throws IllegalStateException, DataFormatException {
+        if (Objects.isNull(month)) {
+            throw new InputMismatchException("Parameter is null.");
+        }
+        int monthIndex = portfolioData.changeIndex(month);
+        if (monthIndex < 0 && portfolioData.hasUndatedRates()) {
+            throw new IllegalStateException(
+                    month + " needs a known year, but months without a year already changed rates");
+        } else if (monthIndex < 0) {
             throw new IllegalStateException(
-                    "The Rate of Change for month " + month.name() + " is already present. Malformed Input.");
+                    month + " is before the start of the portfolio in " + portfolioData.startYear);
         }
-        if (Objects.isNull(rates) || Objects.isNull(month)) {
+        change(rates, monthIndex, correction);
+        portfolioData.fixStartYear(month);
+    }
+
+    private void change(List<Double> rates, int monthIndex, boolean correction)
+            throws IllegalStateException, DataFormatException {
+        if (Objects.isNull(rates) || monthIndex < 0) {
             throw new InputMismatchException("Parameter is null.");
         }
-        if (rates.size() != portfolioData.defaultAssetOrderForIO.size()) {
-            throw new DataFormatException("Malformed Input.");
+        ErrorCode rejection = tryChange(rates, monthIndex, correction);
+        if (rejection == ErrorCode.INVALID_STATE) {
+            throw new IllegalStateException(
+                    "The Rate of Change for month "
+                            + portfolioData.describe(monthIndex)
+                            + " is not present yet and cannot be corrected.");
+        }
+        rethrow(rejection);
+    }
+
+    /**
+     * Records the rates of the month. Restating a month invalidates the balances from that month
+     * onward only; the balance of the previous month is the checkpoint they are recalculated from.
+     * Months past the longest timeline are rejected before any row is added.
+     */
+    private ErrorCode tryChange(List<Double> rates, int monthIndex, boolean correction) {
+        if (Objects.isNull(rates) || rates.size() != portfolioData.assetCount) {
+            return ErrorCode.MALFORMED_INPUT;
+        }
+        if (!PortfolioData.withinTimeline(monthIndex)) {
+            return ErrorCode.LIMIT_EXCEEDED;
         }
-        Map<Asset, Double> change =
-                Streams.zip(portfolioData.defaultAssetOrderForIO.stream(), rates.stream(), Maps::immutableEntry)
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        portfolioData.monthlyMarketChangeRate.put(month, change);
+        if (fixedPoint) {
+            for (Double rate : rates) {
+                if (!FixedPointArithmetic.isBasisPoints(rate)) {
+                    return ErrorCode.MALFORMED_INPUT;
+                }
+            }
+        }
+        boolean restated = portfolioData.hasMarketChangeRate(monthIndex);
+        if (correction && !restated) {
+            return ErrorCode.INVALID_STATE;
+        }
+        double[] table = portfolioData.getMonthlyMarketChangeRate(monthIndex + 1);
+        int offset = portfolioData.rowOffset(monthIndex);
+        if (restated && sameRates(rates, table, offset)) {
+            return null;
+        }
+        for (int asset = 0; asset < portfolioData.assetCount; asset++) {
+            table[offset + asset] = rates.get(asset);
+        }
+        portfolioData.markMarketChangeRate(monthIndex);
+        if (monthIndex < basisPointMonths) {
+            FixedPointArithmetic.toBasisPoints(table, rateBasisPoints, offset, offset + portfolioData.assetCount);
+        }
+        if (restated && Objects.nonNull(cache)) {
+            cache.invalidateFrom(monthIndex);
+        }
+        if (monthIndex < portfolioData.calculatedMonths) {
+            log.info(
+                    String.format(
+                            "Rate of Change for %s restated, recalculating %d months",
+                            portfolioData.describe(monthIndex),
+                            portfolioData.calculatedMonths - monthIndex));
+            portfolioData.calculatedMonths = monthIndex;
+        }
+        return null;
+    }
+
+    private static boolean sameRates(List<Double> rates, double[] table, int offset) {
+        for (int asset = 0; asset < rates.size(); asset++) {
+            if (Double.compare(rates.get(asset), table[offset + asset]) != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
     @Override
     public String balance(Month month) {
+        return balance(PortfolioData.monthIndex(month));
+    }
+
+    @Override
+    public String balance(YearMonth month) {
+        int monthIndex = portfolioData.monthIndex(month);
+        if (monthIndex < 0) {
+            throw new IllegalStateException("The balance is requested for " + month + " without any data");
+        }
+        return balance(monthIndex);
+    }
+
+    @Override
+    public String tryBalance(Month month) {
+        return tryBalance(PortfolioData.monthIndex(month));
+    }
+
+    @Override
+    public String tryBalance(YearMonth month) {
+        return tryBalance(portfolioData.monthIndex(month));
+    }
+
+    private String balance(int monthIndex) {
+        updateBalance();
+        if (monthIndex >= portfolioData.calculatedMonths) {
+            throw new IllegalStateException(
+                    "The balance is requested for the month of "
+                            + portfolioData.describe(monthIndex)
+                            + "without any data");
+        }
+        return cachedBalance(monthIndex);
+    }
+
+    private String tryBalance(int monthIndex) {
+        if (!isCalculable() || monthIndex < 0) {
+            return null;
+        }
+        updateBalance();
+        return monthIndex < portfolioData.calculatedMonths ? cachedBalance(monthIndex) : null;
+    }
+
+    /** Tells whether {@link #updateBalance()} can run: the funds are allocated and a rate is known. */
+    private boolean isCalculable() {
+        return portfolioData.rateMonths > 0 && Objects.nonNull(portfolioData.initialAllocation);
+    }
+
+    private String cachedBalance(int monthIndex) {
+        BalanceCache balanceCache = cache();
+        if (Objects.isNull(balanceCache)) {
+            return render(monthIndex);
+        }
+        String output = balanceCache.getBalance(monthIndex);
+        metrics.recordCacheLookup(Objects.nonNull(output));
+        if (Objects.isNull(output)) {
+            output = render(monthIndex);
+            balanceCache.putBalance(monthIndex, output);
+        }
+        return output;
+    }
+
+    @Override
+    public void balanceRange(Month from, Month to, Appendable output) throws IOException {
+        balanceRange(PortfolioData.monthIndex(from), PortfolioData.monthIndex(to), output);
+    }
+
+    @Override
+    public void balanceRange(YearMonth from, YearMonth to, Appendable output) throws IOException {
+        balanceRange(portfolioData.monthIndex(from), portfolioData.monthIndex(to), output);
+    }
+
+    private void balanceRange(int fromIndex, int toIndex, Appendable output) throws IOException {
         updateBalance();
-        Portfolio fund =
-                Optional.ofNullable(portfolioData.monthlyBalance.get(month))
-                        .orElseThrow(
-                                () ->
-                                        new IllegalStateException(
-                                                "The balance is requested for the month of "
-                                                        + month.name()
-                                                        + "without any data"));
-        return fund.toString();
+        streamBalanceRange(fromIndex, toIndex, output);
     }
 
+    /**
+     * Writes the rows of months that are already calculated. The balances are stored densely, so
+     * the range is a forward scan of the rows; each one is formatted into the same buffer and
+     * handed over as characters, without creating a string per month. Nothing is written when
+     * the range is invalid.
+     */
+    void streamBalanceRange(int fromIndex, int toIndex, Appendable output) throws IOException {
+        if (fromIndex < 0 || toIndex < 0) {
+            throw new IllegalStateException("The range is outside the timeline of the portfolio");
+        }
+        if (fromIndex > toIndex) {
+            throw new DateTimeException(
+                    "The range from " + portfolioData.describe(fromIndex) + " to "
+                            + portfolioData.describe(toIndex) + " is empty");
+        }
+        if (toIndex >= portfolioData.calculatedMonths) {
+            throw new IllegalStateException(
+                    "The balance is requested for the month of "
+                            + portfolioData.describe(toIndex)
+                            + " without any data");
+        }
+        int assets = portfolioData.assetCount;
+        double[] balances = portfolioData.monthlyBalance;
+        StringBuilder row = new StringBuilder(32 + 12 * assets);
+        char[] chars = output instanceof Writer ? new char[row.capacity()] : null;
+        for (int month = fromIndex; month <= toIndex; month++) {
+            row.setLength(0);
+            if (month > fromIndex) {
+                row.append(System.lineSeparator());
+            }
+            portfolioData.appendDescription(row, month);
+            int offset = portfolioData.rowOffset(month);
+            long total = 0;
+            for (int asset = 0; asset < assets; asset++) {
+                // Floored like BALANCE renders the amounts.
+                int amount = (int) Math.floor(balances[offset + asset]);
+                total += amount;
+                row.append(' ').append(amount);
+            }
+            row.append(' ').append(total);
+            if (Objects.isNull(chars)) {
+                output.append(row);
+            } else {
+                if (chars.length < row.length()) {
+                    chars = new char[row.length() * 2];
+                }
+                row.getChars(0, row.length(), chars, 0);
+                ((Writer) output).write(chars, 0, row.length());
+            }
+        }
+    }
+
+    private BalanceCache cache() {
+        if (Objects.isNull(cache) && BalanceCache.SIZE > 0) {
+            cache = new BalanceCache(BalanceCache.SIZE);
+        }
+        return cache;
+    }
+
+    private void clearCache() {
+        if (Objects.nonNull(cache)) {
+            cache.clear();
+        }
+    }
+
+    private String render(int monthIndex) {
+        return Portfolio.appendTo(
+                        new StringBuilder(),
+                        portfolioData.monthlyBalance,
+                        portfolioData.rowOffset(monthIndex),
+                        portfolioData.assetCount)
+                .toString();
+    }
+
+    /**
+     * Extends the calculated balances up to the last month with a known rate of change, stopping
+     * early at a month whose rate is still missing. The months are stored densely since the
+     * allocation, so each step reads the previous row and the rates at fixed offsets and is
+     * computed in place without creating objects.
+     */
     private void updateBalance() {
-        Map.Entry<Month, Portfolio> lastCalculatedBalance =
-                portfolioData.monthlyBalance.lastEntry();
-        Map.Entry<Month, Map<Asset, Double>> lastKnownChange =
-                portfolioData.monthlyMarketChangeRate.lastEntry();
-        if (Objects.isNull(lastKnownChange)) {
+        if (portfolioData.rateMonths == 0) {
             throw new IllegalStateException("Rate of Change is not defined");
         }
-        if (Objects.isNull(lastCalculatedBalance)) {
-            Portfolio myMoneyFund =
-                    calculateBalance(
-                            portfolioData.initialAllocation,
-                            null,
-                            portfolioData.monthlyMarketChangeRate.get(Month.JANUARY));
-            portfolioData.monthlyBalance.put(Month.JANUARY, myMoneyFund);
-            lastCalculatedBalance = portfolioData.monthlyBalance.lastEntry();
-        }
-        if (lastCalculatedBalance.getKey() != lastKnownChange.getKey()) {
-            Month startMonth = lastCalculatedBalance.getKey();
-            Month endMonth = lastKnownChange.getKey();
-            for (int index = startMonth.getValue(); index < endMonth.getValue(); index++) {
-                Month lastUpdatedMonth = Month.of(index);
-                Month currentCalculationMonth = Month.of(index + 1);
-                log.info(String.format("Calculating balance for %s", currentCalculationMonth));
-                Portfolio carryOverBalance =
-                        portfolioData.monthlyBalance.get(lastUpdatedMonth).clone();
-                Map<Asset, Double> changeRate =
-                        portfolioData.monthlyMarketChangeRate.get(currentCalculationMonth);
-                Portfolio availableBalance =
-                        calculateBalance(carryOverBalance, portfolioData.initialSip, changeRate);
-                if (shouldReBalance(currentCalculationMonth)) {
-                    availableBalance = doReBalance(availableBalance);
+        if (Objects.isNull(portfolioData.initialAllocation)) {
+            throw new IllegalStateException("The funds are not yet Allocated");
+        }
+        int lastKnownMonth = portfolioData.rateMonths - 1;
+        int assets = portfolioData.assetCount;
+        double[] balances = portfolioData.getMonthlyBalance(portfolioData.rateMonths);
+        double[] rates = portfolioData.monthlyMarketChangeRate;
+        double[] sip =
+                Objects.isNull(portfolioData.initialSip) ? null : portfolioData.initialSip.getAmounts();
+        int firstMonth = portfolioData.calculatedMonths;
+        int[] basisPoints = fixedPoint ? prepareIntegerSteps(balances, firstMonth) : null;
+        for (int month = firstMonth; month <= lastKnownMonth; month++) {
+            if (!portfolioData.hasMarketChangeRate(month)) {
+                break;
+            }
+            int offset = portfolioData.rowOffset(month);
+            if (month == 0) {
+                // The initial allocation is invested in January, the SIP starts from February.
+                if (fixedPoint) {
+                    integerSteps.invest(basisPoints, offset, balances, offset);
+                } else {
+                    System.arraycopy(portfolioData.initialAllocation.getAmounts(), 0, balances, offset, assets);
+                    calculateBalance(balances, offset, null, rates, offset, assets);
                 }
-                portfolioData.monthlyBalance.putIfAbsent(currentCalculationMonth, availableBalance);
+            } else if (fixedPoint) {
+                integerSteps.step(basisPoints, offset, balances, offset);
+            } else {
+                System.arraycopy(balances, offset - assets, balances, offset, assets);
+                calculateBalance(balances, offset, sip, rates, offset, assets);
             }
+            boolean reBalanced =
+                    reBalancePolicy.shouldReBalance(month, balances, offset, portfolioData.desiredWeights, assets);
+            if (reBalanced) {
+                if (fixedPoint) {
+                    integerSteps.reBalance(balances, offset);
+                } else {
+                    doReBalance(balances, offset, portfolioData.desiredWeights, assets);
+                }
+                metrics.recordReBalance();
+            }
+            portfolioData.setReBalanced(month, reBalanced);
+            portfolioData.calculatedMonths = month + 1;
+            if (log.isLoggable(Level.FINE)) {
+                log.fine(
+                        String.format(
+                                "Calculated balance for %s: %s", portfolioData.describe(month), render(month)));
+            }
+        }
+        metrics.recordBalanceUpdate(portfolioData.calculatedMonths - firstMonth);
+    }
+
+    /**
+     * Sets the integer steps to carry on after the months already calculated, which a portfolio
+     * restored from a snapshot may have, and converts the rates from the first month not converted
+     * yet. Returns the rates in basis points.
+     */
+    private int[] prepareIntegerSteps(double[] balances, int firstMonth) {
+        if (Objects.isNull(integerSteps)) {
+            integerSteps =
+                    new FixedPointArithmetic(
+                            portfolioData.initialAllocation.getAmounts(),
+                            Objects.isNull(portfolioData.initialSip) ? null : portfolioData.initialSip.getAmounts());
+        }
+        if (firstMonth > 0) {
+            integerSteps.load(balances, portfolioData.rowOffset(firstMonth - 1));
         }
+        int assets = portfolioData.assetCount;
+        int length = portfolioData.rateMonths * assets;
+        if (Objects.isNull(rateBasisPoints) || rateBasisPoints.length < length) {
+            rateBasisPoints =
+                    Objects.isNull(rateBasisPoints)
+                            ? new int[length]
+                            : Arrays.copyOf(rateBasisPoints, Math.max(length, rateBasisPoints.length * 2));
+        }
+        if (basisPointMonths < portfolioData.rateMonths) {
+            FixedPointArithmetic.toBasisPoints(
+                    portfolioData.monthlyMarketChangeRate, rateBasisPoints, basisPointMonths * assets, length);
+            basisPointMonths = portfolioData.rateMonths;
+        }
+        return rateBasisPoints;
     }
 
-    private Portfolio calculateBalance(
-            Portfolio carryOverBalance,
-            Portfolio monthlySip,
-            Map<Asset, Double> changeRate) {
-        log.info(String.format(
-                "Updating balance of %s with sip of %s and market change rate of %s",
-                carryOverBalance,
-                monthlySip,
-                changeRate));
-        Portfolio balAfterSip = applySipInvestment(carryOverBalance, monthlySip);
-        return applyMarketChange(balAfterSip, changeRate);
+    /** Steps the {@code assets} balances at {@code offset} by one month. */
+    static void calculateBalance(
+            double[] balances,
+            int offset,
+            double[] monthlySip,
+            double[] changeRates,
+            int rateOffset,
+            int assets) {
+        applySipInvestment(balances, offset, monthlySip, assets);
+        applyMarketChange(balances, offset, changeRates, rateOffset, assets);
     }
 
-    private Portfolio applyMarketChange(
-            Portfolio carryOverBalance, Map<Asset, Double> changeRate) {
-        List<Fund> funds = carryOverBalance.getFunds();
-        funds.forEach(
-                entity -> {
-                    double rate = changeRate.get(entity.getAsset());
-                    double updatedAmount = entity.getAmount() * (1 + rate / 100);
-                    entity.setAmount(Math.floor(updatedAmount));
-                });
-        return carryOverBalance;
+    private static void applyMarketChange(
+            double[] balances, int offset, double[] changeRates, int rateOffset, int assets) {
+        for (int asset = 0; asset < assets; asset++) {
+            double rate = changeRates[rateOffset + asset];
+            double updatedAmount = balances[offset + asset] * (1 + rate / 100);
+            balances[offset + asset] = Math.floor(updatedAmount);
+        }
     }
 
 
-    private Portfolio applySipInvestment(
-            Portfolio carryOverBalance, Portfolio initialSip) {
-        List<Fund> funds = carryOverBalance.getFunds();
-        if (Objects.nonNull(initialSip)) {
-            IntStream.range(0, funds.size())
-                    .forEach(
-                            index -> {
-                                Fund fundEntity = funds.get(index);
-                                double sipAmount = initialSip.getFunds().get(index).getAmount();
-                                fundEntity.setAmount(Math.floor(fundEntity.getAmount() + sipAmount));
-                            });
+    private static void applySipInvestment(
+            double[] balances, int offset, double[] monthlySip, int assets) {
+        if (Objects.nonNull(monthlySip)) {
+            for (int asset = 0; asset < assets; asset++) {
+                balances[offset + asset] = Math.floor(balances[offset + asset] + monthlySip[asset]);
+            }
         }
-        return carryOverBalance;
+    }
+
+    @Override
+    public String tryReBalance() {
+        return isCalculable() ? reBalance() : null;
     }
 
     @Override
     public String reBalance() {
         updateBalance();
-        Month lastUpdatedMonth = portfolioData.monthlyBalance.lastEntry().getKey();
-        Month lastRebalancedMonth = getLastReBalancedMonth(lastUpdatedMonth);
-        Portfolio balance = portfolioData.monthlyBalance.getOrDefault(lastRebalancedMonth, null);
-        return Objects.nonNull(balance) ? balance.toString() : CANNOT_REBALANCE;
+        int calculatedMonths = portfolioData.calculatedMonths;
+        BalanceCache balanceCache = cache();
+        String output = Objects.isNull(balanceCache) ? null : balanceCache.getReBalance(calculatedMonths);
+        if (Objects.nonNull(balanceCache)) {
+            metrics.recordCacheLookup(Objects.nonNull(output));
+        }
+        if (Objects.isNull(output)) {
+            int lastRebalancedMonth = getLastReBalancedMonth(calculatedMonths - 1);
+            output = lastRebalancedMonth >= 0 ? render(lastRebalancedMonth) : CANNOT_REBALANCE;
+            if (Objects.nonNull(balanceCache)) {
+                balanceCache.putReBalance(calculatedMonths, output);
+            }
+        }
+        return output;
+    }
+
+    /** Returns the latest re-balanced month up to the given one, or -1 if there is none yet. */
+    private int getLastReBalancedMonth(int monthIndex) {
+        return portfolioData.lastReBalancedMonth(monthIndex);
+    }
+
+    public RebalancePolicy getReBalancePolicy() {
+        return reBalancePolicy;
+    }
+
+    /**
+     * Replays the calculated months of the portfolio under each of the policies in a single pass,
+     * see {@link RebalancePolicyComparison}, and returns their outcomes in order.
+     */
+    public List<RebalancePolicyComparison.Outcome> comparePolicies(List<RebalancePolicy> policies) {
+        updateBalance();
+        return new RebalancePolicyComparison(
+                        portfolioData.initialAllocation.getAmounts(),
+                        Objects.isNull(portfolioData.initialSip) ? null : portfolioData.initialSip.getAmounts(),
+                        portfolioData.desiredWeights,
+                        policies,
+                        fixedPoint)
+                .run(portfolioData.monthlyMarketChangeRate, portfolioData.calculatedMonths);
     }
 
-    private Month getLastReBalancedMonth(Month month) {
-        return month == Month.DECEMBER ? month : Month.JUNE;
+    static void doReBalance(double[] balances, int offset, double[] desiredWeights, int assets) {
+        double totalInvestment = 0;
+        for (int asset = 0; asset < assets; asset++) {
+            totalInvestment += balances[offset + asset];
+        }
+        for (int asset = 0; asset < assets; asset++) {
+            balances[offset + asset] = Math.floor(totalInvestment * desiredWeights[asset] / 100);
+        }
     }
 
+    @Override
+    public String simulate(int paths, int months, List<Double> meanRates, List<Double> volatilities)
+            throws DataFormatException {
+        if (Objects.isNull(portfolioData.initialAllocation)) {
+            throw new IllegalStateException("The funds are not yet Allocated");
+        }
+        if (paths <= 0 || months <= 0) {
+            throw new DataFormatException("Malformed Input.");
+        }
+        double[] volatility = toVector(volatilities);
+        for (double value : volatility) {
+            if (value < 0) {
+                throw new DataFormatException("Malformed Input.");
+            }
+        }
+        MonteCarloSimulator simulator =
+                new MonteCarloSimulator(
+                        portfolioData.initialAllocation.getAmounts(),
+                        Objects.isNull(portfolioData.initialSip) ? null : portfolioData.initialSip.getAmounts(),
+                        portfolioData.desiredWeights,
+                        toVector(meanRates),
+                        volatility,
+                        reBalancePolicy);
+        long seed = Long.getLong(MonteCarloSimulator.SEED_PROPERTY, System.nanoTime());
+        double[] percentiles = simulator.simulate(paths, months, seed);
+        StringBuilder output = new StringBuilder();
+        for (int month = 0; month < months; month++) {
+            if (month > 0) {
+                output.append(System.lineSeparator());
+            }
+            output.append(portfolioData.describe(month));
+            for (int index = 0; index < MonteCarloSimulator.PERCENTILES.length; index++) {
+                output.append(" P").append((int) MonteCarloSimulator.PERCENTILES[index]).append(' ');
+                simulator.appendPercentiles(output, percentiles, month, index);
+            }
+        }
+        return output.toString();
+    }
 
-    private boolean shouldReBalance(Month month) {
-        // The re-balancing happens only on 6 and 12 months.
-        return month.equals(Month.JUNE) || month.equals(Month.DECEMBER);
+    /**
+     * Renders the balance of the month if it is already calculated, or returns null. Nothing is
+     * written, so {@link ConcurrentPortfolioService} can call it under an optimistic read; it may
+     * then see a torn state and return a wrong output or throw, which the caller discards.
+     */
+    String peekBalance(int monthIndex) {
+        return monthIndex >= 0 && monthIndex < portfolioData.calculatedMonths ? render(monthIndex) : null;
     }
 
-    private Portfolio doReBalance(Portfolio currentFunds) {
-        List<Fund> funds = currentFunds.getFunds();
-        double totalInvestment = currentFunds.getTotalInvestment();
-        funds.forEach(
-                entity -> {
-                    double desiredWeight = portfolioData.desiredWeights.get(entity.getAsset());
-                    entity.setAmount(Math.floor(totalInvestment * desiredWeight / 100));
-                });
-        log.info(String.format(
-                "Re-balanced the current total balance of %s to desired weights of %s to %s",
-                currentFunds.getTotalInvestment(),
-                portfolioData.desiredWeights,
-                currentFunds));
-        return currentFunds;
+    /** Returns the month index of the dated month, or -1; see {@link PortfolioData#monthIndex(YearMonth)}. */
+    int peekMonthIndex(YearMonth month) {
+        return portfolioData.monthIndex(month);
+    }
+
+    /**
+     * Answers REBALANCE if every balance that can be calculated already is, or returns null; like
+     * {@link #peekBalance}, it writes nothing.
+     */
+    String peekReBalance() {
+        if (!peekUpToDate()) {
+            return null;
+        }
+        int lastRebalancedMonth = getLastReBalancedMonth(portfolioData.calculatedMonths - 1);
+        return lastRebalancedMonth >= 0 ? render(lastRebalancedMonth) : CANNOT_REBALANCE;
+    }
+
+    /** Tells, without writing anything, whether every balance that can be calculated already is. */
+    boolean peekUpToDate() {
+        int calculatedMonths = portfolioData.calculatedMonths;
+        return Objects.nonNull(portfolioData.initialAllocation)
+                && portfolioData.rateMonths > 0
+                && (calculatedMonths >= portfolioData.rateMonths || !portfolioData.hasMarketChangeRate(calculatedMonths));
+    }
+
+    /**
+     * Extends the balances up to the last month with a known rate of change, when the funds are
+     * allocated, and returns the state of the portfolio for exporting it.
+     */
+    public PortfolioData getUpdatedPortfolioData() {
+        if (Objects.nonNull(portfolioData.initialAllocation) && portfolioData.rateMonths > 0) {
+            updateBalance();
+        }
+        return portfolioData;
     }
 
     @Override
     public int getSupportedAssetClass() {
-        return portfolioData.defaultAssetOrderForIO.size();
+        return portfolioData.assetCount;
     }
 }
@@ -0,0 +1,174 @@
+package org.mymoney.backend.service.impl;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+/**
+ * The monthly steps of {@link DefaultPortfolioService} in integer arithmetic, selected with {@code
+ * -Dmymoney.arithmetic=fixed}.
+ *
+ * <p>Amounts are taken as {@code long} minor units, hundredths of a unit, and rates as {@code int}
+ * basis points, hundredths of a percent. Every step is an integer multiplication followed by one
+ * division rounded towards negative infinity, the rounding of {@link Math#floor} in the double
+ * steps. The results are exact and therefore the same on every JVM and platform, where the double
+ * steps may round the product of an amount and a rate that is not exactly representable to just
+ * below a whole unit, and floor it one unit lower than the exact value: 3000 grown by 0.50% is
+ * 3015, which the double steps compute as 3014.
+ *
+ * <p>Every balance after the first step is a whole number of units, so an instance carries the
+ * balances of one portfolio from month to month as {@code long} units and the SIP as the whole
+ * units it adds. Each step also stores the balances in the double rows of the portfolio, which
+ * represent them exactly, so BALANCE, snapshots and exports are unchanged. Amounts and rates are
+ * accepted in this mode only when they are whole minor units and basis points.
+ *
+ * <p>An instance is not thread safe.
+ */
+public final class FixedPointArithmetic {
+    public static final String PROPERTY = "mymoney.arithmetic";
+
+    /** Whether {@link #PROPERTY} selects the integer steps; the double steps are the default. */
+    public static final boolean ENABLED = "fixed".equalsIgnoreCase(System.getProperty(PROPERTY, "double").trim());
+
+    static final long MINOR_UNITS = 100;
+    static final long BASIS_POINTS = 10000;
+
+    private final long[] allocation;
+    private final long totalAllocation;
+    private final double reciprocal;
+    private final long[] sip;
+    private final long[] units;
+
+    /** All vectors are indexed by asset index; {@code sip} may be null. */
+    FixedPointArithmetic(double[] allocation, double[] sip) {
+        this.allocation = new long[allocation.length];
+        long total = 0;
+        for (int asset = 0; asset < allocation.length; asset++) {
+            this.allocation[asset] = toHundredths(allocation[asset]);
+            total += this.allocation[asset];
+        }
+        this.totalAllocation = total;
+        this.reciprocal = 1.0 / total;
+        if (Objects.isNull(sip)) {
+            this.sip = null;
+        } else {
+            // Added to whole units and floored, the SIP only adds its own floor.
+            this.sip = new long[sip.length];
+            for (int asset = 0; asset < sip.length; asset++) {
+                this.sip[asset] = Math.floorDiv(toHundredths(sip[asset]), MINOR_UNITS);
+            }
+        }
+        this.units = new long[allocation.length];
+    }
+
+    private FixedPointArithmetic(FixedPointArithmetic other) {
+        this.allocation = other.allocation;
+        this.totalAllocation = other.totalAllocation;
+        this.reciprocal = other.reciprocal;
+        this.sip = other.sip;
+        this.units = other.units.clone();
+    }
+
+    /** Returns a copy carrying the same balances on. */
+    FixedPointArithmetic copy() {
+        return new FixedPointArithmetic(this);
+    }
+
+    /** Carries on from the balances stored at {@code offset}, the row of a month already stepped. */
+    void load(double[] balances, int offset) {
+        for (int asset = 0; asset < units.length; asset++) {
+            units[asset] = (long) balances[offset + asset];
+        }
+    }
+
+    /** Steps the first month: the allocation grows by the rates of the month and is floored. */
+    void invest(int[] basisPoints, int rateOffset, double[] balances, int offset) {
+        for (int asset = 0; asset < units.length; asset++) {
+            long factor = BASIS_POINTS + basisPoints[rateOffset + asset];
+            units[asset] = multiplyDivideFloor(allocation[asset], factor, MINOR_UNITS * BASIS_POINTS);
+            balances[offset + asset] = units[asset];
+        }
+    }
+
+    /** Steps a later month: adds the SIP, then grows the balances by the rates and floors them. */
+    void step(int[] basisPoints, int rateOffset, double[] balances, int offset) {
+        for (int asset = 0; asset < units.length; asset++) {
+            long amount = Objects.isNull(sip) ? units[asset] : units[asset] + sip[asset];
+            long factor = BASIS_POINTS + basisPoints[rateOffset + asset];
+            units[asset] = multiplyDivideFloor(amount, factor, BASIS_POINTS);
+            balances[offset + asset] = units[asset];
+        }
+    }
+
+    /** Gives each asset the floor of the total balance times its share of the allocation. */
+    void reBalance(double[] balances, int offset) {
+        long totalInvestment = 0;
+        for (long amount : units) {
+            totalInvestment += amount;
+        }
+        for (int asset = 0; asset < units.length; asset++) {
+            units[asset] = multiplyDivideFloor(totalInvestment, allocation[asset], totalAllocation, reciprocal);
+            balances[offset + asset] = units[asset];
+        }
+    }
+
+    /** Returns whether an amount in units is a whole number of minor units. */
+    static boolean isMinorUnits(double amount) {
+        return isWholeHundredths(amount, 1e15);
+    }
+
+    /** Returns whether a rate in percent is a whole number of basis points that fits an int. */
+    static boolean isBasisPoints(double rate) {
+        return isWholeHundredths(rate, Integer.MAX_VALUE - BASIS_POINTS);
+    }
+
+    private static boolean isWholeHundredths(double value, double limit) {
+        double hundredths = value * 100;
+        // Decimal inputs such as 1.13 are only one rounding away from a whole number.
+        return Math.abs(hundredths - Math.rint(hundredths)) < 1e-6 && Math.abs(hundredths) <= limit;
+    }
+
+    /** Converts an amount in units, or a rate in percent, to hundredths. */
+    static long toHundredths(double value) {
+        return (long) Math.rint(value * 100);
+    }
+
+    /** Converts the rates of {@code [from, to)} to basis points. */
+    static void toBasisPoints(double[] rates, int[] basisPoints, int from, int to) {
+        for (int index = from; index < to; index++) {
+            basisPoints[index] = (int) toHundredths(rates[index]);
+        }
+    }
+
+    /**
+     * Returns floor(a * b / c) for a positive {@code c}, given its reciprocal: the quotient is
+     * estimated in doubles and corrected in integers, which leaves it exact for every product.
+     */
+    static long multiplyDivideFloor(long a, long b, long c, double reciprocal) {
+        // Products up to 2^52 make estimates off by at most one.
+        if (Long.numberOfLeadingZeros(Math.abs(a)) + Long.numberOfLeadingZeros(Math.abs(b)) < 76) {
+            return multiplyDivideFloor(a, b, c);
+        }
+        long product = a * b;
+        long quotient = (long) Math.floor(product * reciprocal);
+        long remainder = product - quotient * c;
+        if (remainder < 0) {
+            quotient--;
+        } else if (remainder >= c) {
+            quotient++;
+        }
+        return quotient;
+    }
+
+    /** Returns floor(a * b / c) for a positive {@code c}, exact for every product. */
+    static long multiplyDivideFloor(long a, long b, long c) {
+        // The product fits in a long when the operands together take at most 62 bits.
+        if (Long.numberOfLeadingZeros(Math.abs(a)) + Long.numberOfLeadingZeros(Math.abs(b)) >= 66) {
+            return Math.floorDiv(a * b, c);
+        }
+        return new BigDecimal(BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)))
+                .divide(BigDecimal.valueOf(c), 0, RoundingMode.FLOOR)
+                .longValueExact();
+    }
+}
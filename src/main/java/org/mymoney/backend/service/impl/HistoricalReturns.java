@@ -0,0 +1,207 @@
+package org.mymoney.backend.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Monthly market change rates of every asset over a history, in percent, one row of asset rates per
+ * month in the layout of {@code PortfolioData.monthlyMarketChangeRate}.
+ *
+ * <p>Histories are read from CSV, a header naming the assets after a first column for the month,
+ * then one line per month in chronological order:
+ *
+ * <pre>
+ * month,EQUITY,DEBT,GOLD
+ * 1990-01,4.00,10.00,2.00
+ * 1990-02,-10.00%,40.00%,0.00%
+ * </pre>
+ *
+ * <p>or from the binary form {@link #write} produces, which is memory mapped and read in one bulk
+ * copy. It is little-endian:
+ *
+ * <pre>
+ * int    magic {@link #MAGIC} ("MMRH"), int version {@link #VERSION}
+ * int    number of assets, int number of months
+ * per asset an int length and the name in UTF-8
+ * zero padding to a multiple of 8 bytes
+ * per month a double per asset
+ * </pre>
+ */
+public final class HistoricalReturns {
+    public static final int MAGIC = 0x48524D4D;
+    public static final int VERSION = 1;
+    private static final int ALIGNMENT = Double.BYTES;
+
+    private final String[] assetNames;
+    private final double[] rates;
+    private final int months;
+
+    public HistoricalReturns(String[] assetNames, double[] rates) {
+        if (assetNames.length == 0 || rates.length % assetNames.length != 0) {
+            throw new IllegalArgumentException(
+                    rates.length + " rates are not a whole number of months of " + assetNames.length + " assets");
+        }
+        this.assetNames = assetNames.clone();
+        this.rates = rates;
+        this.months = rates.length / assetNames.length;
+    }
+
+    /** Reads the binary form when the file starts with {@link #MAGIC}, and CSV otherwise. */
+    public static HistoricalReturns load(Path file) throws IOException, DataFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            if (magic.position() == Integer.BYTES && magic.getInt(0) == MAGIC) {
+                return readBinary(channel);
+            }
+        }
+        return readCsv(file);
+    }
+
+    private static HistoricalReturns readBinary(FileChannel channel) throws IOException, DataFormatException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            mapped.getInt();
+            int version = mapped.getInt();
+            if (version != VERSION) {
+                throw new DataFormatException("Unsupported version " + version + " of the returns file");
+            }
+            int assets = mapped.getInt();
+            int months = mapped.getInt();
+            // Every length is checked against the bytes left before anything is allocated by it.
+            if (assets <= 0 || assets > mapped.remaining() / Integer.BYTES || months < 0) {
+                throw new DataFormatException(
+                        assets + " assets and " + months + " months do not fit a returns file of " + channel.size()
+                                + " bytes");
+            }
+            String[] names = new String[assets];
+            for (int asset = 0; asset < assets; asset++) {
+                int length = mapped.getInt();
+                if (length < 0 || length > mapped.remaining()) {
+                    throw new DataFormatException(
+                            "The name of asset " + asset + " of " + length + " bytes does not fit the returns file");
+                }
+                byte[] name = new byte[length];
+                mapped.get(name);
+                names[asset] = new String(name, StandardCharsets.UTF_8);
+            }
+            mapped.position(align(mapped.position()));
+            if ((long) months * assets > mapped.remaining() / Double.BYTES) {
+                throw new DataFormatException(
+                        months + " months of " + assets + " assets do not fit a returns file of " + channel.size()
+                                + " bytes");
+            }
+            double[] rates = new double[months * assets];
+            mapped.asDoubleBuffer().get(rates);
+            return new HistoricalReturns(names, rates);
+        } catch (RuntimeException e) {
+            // A truncated or corrupt header or body.
+            throw new DataFormatException("Malformed returns file: " + e);
+        }
+    }
+
+    private static HistoricalReturns readCsv(Path file) throws IOException, DataFormatException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new DataFormatException("The returns file " + file + " is empty");
+            }
+            String[] columns = header.split(",");
+            String[] names = new String[columns.length - 1];
+            for (int asset = 0; asset < names.length; asset++) {
+                names[asset] = columns[asset + 1].trim();
+            }
+            double[] rates = new double[names.length * 12];
+            int values = 0;
+            int lineNumber = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != columns.length) {
+                    throw new DataFormatException("Expected " + columns.length + " columns at line " + lineNumber);
+                }
+                if (values + names.length > rates.length) {
+                    rates = Arrays.copyOf(rates, rates.length * 2);
+                }
+                for (int asset = 0; asset < names.length; asset++) {
+                    try {
+                        rates[values++] = Double.parseDouble(fields[asset + 1].trim().replace("%", ""));
+                    } catch (NumberFormatException e) {
+                        throw new DataFormatException("Invalid rate " + fields[asset + 1] + " at line " + lineNumber);
+                    }
+                }
+            }
+            return new HistoricalReturns(names, Arrays.copyOf(rates, values));
+        } catch (IllegalArgumentException e) {
+            throw new DataFormatException(e.getMessage());
+        }
+    }
+
+    /** Writes the history in the binary form. */
+    public void write(Path file) throws IOException {
+        List<byte[]> names = new ArrayList<>(assetNames.length);
+        int headerSize = 4 * Integer.BYTES;
+        for (String assetName : assetNames) {
+            byte[] name = assetName.getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            headerSize += Integer.BYTES + name.length;
+        }
+        ByteBuffer buffer =
+                ByteBuffer.allocate(align(headerSize) + rates.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(assetNames.length).putInt(months);
+        for (byte[] name : names) {
+            buffer.putInt(name.length).put(name);
+        }
+        buffer.position(align(headerSize));
+        buffer.asDoubleBuffer().put(rates);
+        buffer.position(0);
+        try (FileChannel channel =
+                FileChannel.open(
+                        file,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static int align(int position) {
+        return (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    public String[] getAssetNames() {
+        return assetNames.clone();
+    }
+
+    public int getAssetCount() {
+        return assetNames.length;
+    }
+
+    public int getMonths() {
+        return months;
+    }
+
+    /** The rates by month and then asset; the array is shared, not copied. */
+    double[] getRates() {
+        return rates;
+    }
+}
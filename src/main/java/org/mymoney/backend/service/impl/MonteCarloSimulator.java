@@ -0,0 +1,299 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Projects the distribution of portfolio balances by running the same monthly steps as {@link
+ * DefaultPortfolioService} over many randomly generated paths of change rates.
+ *
+ * <p>The monthly rate of change of every asset is drawn independently from a normal distribution
+ * with the given mean and volatility, in percent, and never goes below -100%. All paths are
+ * advanced one month at a time: the balances of every path live in a single flat array with one
+ * row of asset values per path, the paths are
+ * stepped in fixed size chunks on all cores, and the exact percentiles of the month are then
+ * selected per asset. Memory therefore only grows with the number of paths, not with the horizon.
+ *
+ * <p>Every chunk draws from its own {@link SplittableRandom} split from the seed in chunk order,
+ * so a seed always produces the same result whatever the number of cores.
+ *
+ * <p>A simulation is refused beyond {@link #MAX_PATHS_PROPERTY} paths or {@link
+ * #MAX_MONTHS_PROPERTY} months, and whenever its balances or percentiles would not fit in one
+ * array, so a single command cannot exhaust the heap of a server.
+ */
+public class MonteCarloSimulator {
+    public static final String SEED_PROPERTY = "mymoney.simulation.seed";
+    public static final double[] PERCENTILES = {10, 50, 90};
+    /** System property with the most paths a simulation may run, {@value #DEFAULT_MAX_PATHS} by default. */
+    public static final String MAX_PATHS_PROPERTY = "mymoney.simulation.maxPaths";
+    /** System property with the most months a simulation may run, {@value #DEFAULT_MAX_MONTHS} by default. */
+    public static final String MAX_MONTHS_PROPERTY = "mymoney.simulation.maxMonths";
+    public static final int DEFAULT_MAX_PATHS = 1_000_000;
+    public static final int DEFAULT_MAX_MONTHS = 1200;
+    static final int CHUNK_SIZE = 4096;
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final double[] allocation;
+    private final double[] sip;
+    private final double[] desiredWeights;
+    private final double[] meanRates;
+    private final double[] volatilities;
+    private final RebalancePolicy reBalancePolicy;
+    private final int assets;
+
+    /**
+     * All vectors are indexed by asset index; {@code sip} may be null. Rates are monthly
+     * percentages. The paths are re-balanced by {@link RebalancePolicy#DEFAULT}.
+     */
+    public MonteCarloSimulator(
+            double[] allocation,
+            double[] sip,
+            double[] desiredWeights,
+            double[] meanRates,
+            double[] volatilities) {
+        this(allocation, sip, desiredWeights, meanRates, volatilities, RebalancePolicy.DEFAULT);
+    }
+
+    /** Like above, with every path re-balanced by the given policy on its own balances. */
+    public MonteCarloSimulator(
+            double[] allocation,
+            double[] sip,
+            double[] desiredWeights,
+            double[] meanRates,
+            double[] volatilities,
+            RebalancePolicy reBalancePolicy) {
+        this.allocation = allocation;
+        this.sip = sip;
+        this.desiredWeights = desiredWeights;
+        this.meanRates = meanRates;
+        this.volatilities = volatilities;
+        this.reBalancePolicy = reBalancePolicy;
+        this.assets = allocation.length;
+    }
+
+    /**
+     * Runs the paths over the first {@code months} months of the timeline and returns the balances
+     * at each of the {@link #PERCENTILES}, one row of asset values per month and
+     * percentile: the row of percentile {@code p} of month {@code m} is at {@link #rowOffset(int,
+     * int)}.
+     */
+    public double[] simulate(int paths, int months, long seed) {
+        if (!withinLimits(paths, months, assets)) {
+            throw new IllegalArgumentException(
+                    "A simulation of " + paths + " paths over " + months + " months exceeds the limits");
+        }
+        double[] balances = new double[paths * assets];
+        int chunkCount = (paths + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom root = new SplittableRandom(seed);
+        Chunk[] chunks = new Chunk[chunkCount];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            chunks[chunk] =
+                    new Chunk(
+                            chunk * CHUNK_SIZE, Math.min(paths, (chunk + 1) * CHUNK_SIZE), assets, root.split());
+        }
+        Selector[] selectors = new Selector[assets];
+        for (int asset = 0; asset < assets; asset++) {
+            selectors[asset] = new Selector(asset, paths);
+        }
+        double[] percentiles = new double[months * PERCENTILES.length * assets];
+        for (int month = 0; month < months; month++) {
+            int currentMonth = month;
+            Arrays.stream(chunks).parallel().forEach(chunk -> step(balances, chunk, currentMonth));
+            Arrays.stream(selectors)
+                    .parallel()
+                    .forEach(selector -> selector.selectPercentiles(balances, currentMonth, percentiles));
+        }
+        return percentiles;
+    }
+
+    /**
+     * Tells whether a simulation of {@code paths} paths over {@code months} months of {@code assets}
+     * assets stays within the configured limits; the limits are read on every call.
+     */
+    public static boolean withinLimits(int paths, int months, int assets) {
+        return paths <= Integer.getInteger(MAX_PATHS_PROPERTY, DEFAULT_MAX_PATHS)
+                && months <= Integer.getInteger(MAX_MONTHS_PROPERTY, DEFAULT_MAX_MONTHS)
+                && (long) paths * assets <= MAX_ARRAY_LENGTH
+                && (long) months * PERCENTILES.length * assets <= MAX_ARRAY_LENGTH;
+    }
+
+    public int rowOffset(int monthIndex, int percentileIndex) {
+        return (monthIndex * PERCENTILES.length + percentileIndex) * assets;
+    }
+
+    /** Appends the balances of a month at a percentile, as BALANCE prints them. */
+    public StringBuilder appendPercentiles(
+            StringBuilder builder, double[] percentiles, int monthIndex, int percentileIndex) {
+        return Portfolio.appendTo(builder, percentiles, rowOffset(monthIndex, percentileIndex), assets);
+    }
+
+    /** Advances the paths of the chunk by one month. */
+    private void step(double[] balances, Chunk chunk, int month) {
+        double[] rates = chunk.rates;
+        for (int path = chunk.from; path < chunk.to; path++) {
+            int offset = path * assets;
+            for (int asset = 0; asset < assets; asset++) {
+                rates[asset] = Math.max(-100, meanRates[asset] + volatilities[asset] * chunk.nextGaussian());
+            }
+            if (month == 0) {
+                // The initial allocation is invested in January, the SIP starts from February.
+                System.arraycopy(allocation, 0, balances, offset, assets);
+                DefaultPortfolioService.calculateBalance(balances, offset, null, rates, 0, assets);
+            } else {
+                DefaultPortfolioService.calculateBalance(balances, offset, sip, rates, 0, assets);
+            }
+            if (reBalancePolicy.shouldReBalance(month, balances, offset, desiredWeights, assets)) {
+                DefaultPortfolioService.doReBalance(balances, offset, desiredWeights, assets);
+            }
+        }
+    }
+
+    /** Nearest-rank index of the percentile among {@code paths} sorted values. */
+    static int rankOf(double percentile, int paths) {
+        return Math.max(0, Math.min(paths - 1, (int) Math.ceil(percentile / 100 * paths) - 1));
+    }
+
+    /**
+     * Moves the {@code rank}-th smallest value of {@code values[from, to)} to its sorted position
+     * and returns it.
+     */
+    static double select(double[] values, int from, int to, int rank) {
+        int left = from;
+        int right = to - 1;
+        while (right > left) {
+            double pivot = medianOf(values[left], values[(left + right) >>> 1], values[right]);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i++] = values[j];
+                    values[j--] = swap;
+                }
+            }
+            if (rank <= j) {
+                right = j;
+            } else if (rank >= i) {
+                left = i;
+            } else {
+                return values[rank];
+            }
+        }
+        return values[rank];
+    }
+
+    private static double medianOf(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /** A fixed range of paths with its own random stream and scratch. */
+    private static final class Chunk {
+        final int from;
+        final int to;
+        final SplittableRandom random;
+        final double[] rates;
+        double spare;
+        boolean hasSpare;
+
+        Chunk(int from, int to, int assets, SplittableRandom random) {
+            this.from = from;
+            this.to = to;
+            this.rates = new double[assets];
+            this.random = random;
+        }
+
+        /** Draws standard normals in pairs with the polar method, which needs no trigonometry. */
+        double nextGaussian() {
+            if (hasSpare) {
+                hasSpare = false;
+                return spare;
+            }
+            double u;
+            double v;
+            double s;
+            do {
+                u = 2 * random.nextDouble() - 1;
+                v = 2 * random.nextDouble() - 1;
+                s = u * u + v * v;
+            } while (s >= 1 || s == 0);
+            double factor = Math.sqrt(-2 * Math.log(s) / s);
+            spare = v * factor;
+            hasSpare = true;
+            return u * factor;
+        }
+    }
+
+    /**
+     * Selects the percentiles of one asset. Balances are floored whole amounts, so when their
+     * range is small compared to the number of paths they are counted per amount and the
+     * percentiles read off the running count; otherwise they are copied out and selected in place.
+     */
+    private final class Selector {
+        final int asset;
+        final double[] column;
+        int[] counts = new int[0];
+
+        Selector(int asset, int paths) {
+            this.asset = asset;
+            this.column = new double[paths];
+        }
+
+        void selectPercentiles(double[] balances, int month, double[] percentiles) {
+            int paths = column.length;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int offset = asset; offset < balances.length; offset += assets) {
+                double balance = balances[offset];
+                min = Math.min(min, balance);
+                max = Math.max(max, balance);
+            }
+            double range = max - min + 1;
+            if (range <= 2L * paths + 1024) {
+                count(balances, min, (int) range, month, percentiles);
+                return;
+            }
+            for (int path = 0; path < paths; path++) {
+                column[path] = balances[path * assets + asset];
+            }
+            // Each percentile is only searched for above the previous one.
+            int from = 0;
+            for (int index = 0; index < PERCENTILES.length; index++) {
+                int rank = rankOf(PERCENTILES[index], paths);
+                percentiles[rowOffset(month, index) + asset] = select(column, from, paths, rank);
+                from = rank;
+            }
+        }
+
+        private void count(double[] balances, double min, int range, int month, double[] percentiles) {
+            if (counts.length < range) {
+                counts = new int[Math.max(range, counts.length * 2)];
+            }
+            Arrays.fill(counts, 0, range, 0);
+            for (int offset = asset; offset < balances.length; offset += assets) {
+                counts[(int) (balances[offset] - min)]++;
+            }
+            int paths = column.length;
+            int index = 0;
+            int rank = rankOf(PERCENTILES[index], paths);
+            long seen = 0;
+            for (int amount = 0; amount < range && index < PERCENTILES.length; amount++) {
+                seen += counts[amount];
+                while (index < PERCENTILES.length && seen > rank) {
+                    percentiles[rowOffset(month, index) + asset] = min + amount;
+                    if (++index < PERCENTILES.length) {
+                        rank = rankOf(PERCENTILES[index], paths);
+                    }
+                }
+            }
+        }
+    }
+}
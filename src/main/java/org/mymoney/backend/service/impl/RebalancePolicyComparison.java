@@ -0,0 +1,221 @@
+package org.mymoney.backend.service.impl;
+
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.rebalance.DriftBandRebalancePolicy;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mymoney.backend.constants.MyMoneyConstants.CANNOT_REBALANCE;
+
+/**
+ * Replays one portfolio through the same market change rates under several rebalance policies in
+ * a single pass.
+ *
+ * <p>The policies are grouped by the balances they lead to, starting from one group holding them
+ * all. Every month the SIP and the market change are applied once per group, then each policy of
+ * the group decides on the shared balances. When a group disagrees, the policies that re-balance
+ * move to a new group with a copy of the balances. The drift of the group balances is computed
+ * once as well, leaving each drift band a single comparison. Policies therefore share every step
+ * up to their first differing decision: drift bands that are not reached share all of them, and
+ * comparing K policies only costs K replays when they all decide differently from the start. The
+ * arithmetic is the one of {@link DefaultPortfolioService}, in doubles or with {@link
+ * FixedPointArithmetic}, so each outcome is identical to a portfolio following that policy alone.
+ *
+ * <p>An instance is not thread safe.
+ */
+public class RebalancePolicyComparison {
+    private final double[] allocation;
+    private final double[] sip;
+    private final double[] desiredWeights;
+    private final List<RebalancePolicy> policies;
+    private final int assets;
+    private final boolean fixedPoint;
+
+    /**
+     * All vectors are indexed by asset index; {@code sip} may be null. The policies need not be
+     * distinct.
+     */
+    public RebalancePolicyComparison(
+            double[] allocation, double[] sip, double[] desiredWeights, List<RebalancePolicy> policies) {
+        this(allocation, sip, desiredWeights, policies, false);
+    }
+
+    /** Creates a comparison stepping the months with {@link FixedPointArithmetic} if {@code fixedPoint}. */
+    public RebalancePolicyComparison(
+            double[] allocation,
+            double[] sip,
+            double[] desiredWeights,
+            List<RebalancePolicy> policies,
+            boolean fixedPoint) {
+        if (policies.isEmpty()) {
+            throw new IllegalArgumentException("There is no rebalance policy to compare");
+        }
+        this.allocation = allocation;
+        this.sip = sip;
+        this.desiredWeights = desiredWeights;
+        this.policies = new ArrayList<>(policies);
+        this.assets = allocation.length;
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Steps the first {@code months} months of {@code rates}, one row of asset rates per month from
+     * the month of the allocation, and returns the outcome of every policy in the given order.
+     */
+    public List<Outcome> run(double[] rates, int months) {
+        Outcome[] outcomes = new Outcome[policies.size()];
+        int[] all = new int[outcomes.length];
+        for (int policy = 0; policy < outcomes.length; policy++) {
+            outcomes[policy] = new Outcome(policies.get(policy), assets);
+            all[policy] = policy;
+        }
+        int[] basisPoints = null;
+        FixedPointArithmetic integerSteps = null;
+        if (fixedPoint) {
+            basisPoints = new int[months * assets];
+            FixedPointArithmetic.toBasisPoints(rates, basisPoints, 0, basisPoints.length);
+            integerSteps = new FixedPointArithmetic(allocation, sip);
+        }
+        List<Group> groups = new ArrayList<>();
+        groups.add(new Group(Arrays.copyOf(allocation, assets), integerSteps, all));
+        int[] reBalancing = new int[outcomes.length];
+        for (int month = 0; month < months; month++) {
+            // Groups split off in this month are already stepped.
+            int stepped = groups.size();
+            for (int index = 0; index < stepped; index++) {
+                Group group = groups.get(index);
+                // The initial allocation is invested in January, the SIP starts from February.
+                if (fixedPoint && month == 0) {
+                    group.integerSteps.invest(basisPoints, 0, group.balance, 0);
+                } else if (fixedPoint) {
+                    group.integerSteps.step(basisPoints, month * assets, group.balance, 0);
+                } else {
+                    DefaultPortfolioService.calculateBalance(
+                            group.balance, 0, month == 0 ? null : sip, rates, month * assets, assets);
+                }
+                int kept = 0;
+                int split = 0;
+                double drift = -1;
+                for (int member = 0; member < group.size; member++) {
+                    int policy = group.policies[member];
+                    RebalancePolicy reBalancePolicy = policies.get(policy);
+                    boolean reBalance;
+                    if (reBalancePolicy instanceof DriftBandRebalancePolicy) {
+                        if (drift < 0) {
+                            drift = DriftBandRebalancePolicy.drift(group.balance, 0, desiredWeights, assets);
+                        }
+                        reBalance = drift > ((DriftBandRebalancePolicy) reBalancePolicy).getBand();
+                    } else {
+                        reBalance = reBalancePolicy.shouldReBalance(month, group.balance, 0, desiredWeights, assets);
+                    }
+                    if (reBalance) {
+                        reBalancing[split++] = policy;
+                    } else {
+                        group.policies[kept++] = policy;
+                    }
+                }
+                if (split == 0) {
+                    continue;
+                }
+                Group target;
+                if (kept == 0) {
+                    target = group;
+                    System.arraycopy(reBalancing, 0, group.policies, 0, split);
+                } else {
+                    group.size = kept;
+                    target =
+                            new Group(
+                                    group.balance.clone(),
+                                    fixedPoint ? group.integerSteps.copy() : null,
+                                    Arrays.copyOf(reBalancing, split));
+                    groups.add(target);
+                }
+                if (fixedPoint) {
+                    target.integerSteps.reBalance(target.balance, 0);
+                } else {
+                    DefaultPortfolioService.doReBalance(target.balance, 0, desiredWeights, assets);
+                }
+                double[] reBalanced = target.balance.clone();
+                for (int member = 0; member < target.size; member++) {
+                    outcomes[target.policies[member]].reBalanced(month, reBalanced);
+                }
+            }
+        }
+        for (Group group : groups) {
+            for (int member = 0; member < group.size; member++) {
+                outcomes[group.policies[member]].balance = group.balance;
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(outcomes));
+    }
+
+    /** The policies sharing one vector of balances, and its integer steps if they are used. */
+    private static final class Group {
+        private final double[] balance;
+        private final FixedPointArithmetic integerSteps;
+        private final int[] policies;
+        private int size;
+
+        Group(double[] balance, FixedPointArithmetic integerSteps, int[] policies) {
+            this.balance = balance;
+            this.integerSteps = integerSteps;
+            this.policies = policies;
+            this.size = policies.length;
+        }
+    }
+
+    /** The result of replaying the months under one policy. */
+    public static final class Outcome {
+        private final RebalancePolicy policy;
+        private final int assets;
+        private double[] balance;
+        private double[] reBalancedBalance;
+        private int reBalances;
+        private int lastReBalancedMonth = -1;
+
+        Outcome(RebalancePolicy policy, int assets) {
+            this.policy = policy;
+            this.assets = assets;
+        }
+
+        private void reBalanced(int month, double[] balance) {
+            reBalances++;
+            lastReBalancedMonth = month;
+            reBalancedBalance = balance;
+        }
+
+        public RebalancePolicy getPolicy() {
+            return policy;
+        }
+
+        public int getReBalances() {
+            return reBalances;
+        }
+
+        /** Returns the last re-balanced month index, or -1 if the policy never re-balanced. */
+        public int getLastReBalancedMonth() {
+            return lastReBalancedMonth;
+        }
+
+        /** Returns a copy of the balances after the last month, by asset index. */
+        public double[] getBalance() {
+            return balance.clone();
+        }
+
+        /** Renders the balances after the last month, like BALANCE. */
+        public String balance() {
+            return Portfolio.appendTo(new StringBuilder(), balance, 0, assets).toString();
+        }
+
+        /** Renders the balances of the last re-balanced month, like REBALANCE. */
+        public String reBalance() {
+            return lastReBalancedMonth < 0
+                    ? CANNOT_REBALANCE
+                    : Portfolio.appendTo(new StringBuilder(), reBalancedBalance, 0, assets).toString();
+        }
+    }
+}
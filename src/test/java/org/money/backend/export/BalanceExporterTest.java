@@ -0,0 +1,116 @@
+package org.money.backend.export;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.export.BalanceExporter;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BalanceExporterTest {
+
+    @Test
+    void testExportedColumnsMatchTheBalances(@TempDir Path directory) throws Exception {
+        AssetUniverse universe = AssetUniverse.DEFAULT;
+        PortfolioRegistry registry =
+                new PortfolioRegistry(2, () -> new DefaultPortfolioService(new PortfolioData(universe)));
+        PortfolioManager manager = new PortfolioManager(registry);
+        int portfolios = 5;
+        for (int portfolio = 0; portfolio < portfolios; portfolio++) {
+            manager.processLineAsCommand("@P" + portfolio + " ALLOCATE 6000 3000 " + (1000 + portfolio));
+            manager.processLineAsCommand("@P" + portfolio + " SIP 2000 1000 500");
+            for (int month = 0; month <= portfolio + 2; month++) {
+                manager.processLineAsCommand(
+                        "@P" + portfolio + " CHANGE " + month + ".00% 5.00% -2.00% " + Month.of(month + 1));
+            }
+        }
+        Path file = directory.resolve("balances.mmbx");
+        long rows;
+        try (BalanceExporter exporter = new BalanceExporter(file, 8)) {
+            registry.forEach((portfolioId, portfolio) -> {
+                try {
+                    exporter.add(portfolioId, portfolio);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            exporter.finish();
+            rows = exporter.getTotalRows();
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(BalanceExporter.MAGIC, data.getInt());
+        assertEquals(BalanceExporter.VERSION, data.getInt());
+        int assets = data.getInt();
+        assertEquals(universe.size(), assets);
+        for (int asset = 0; asset < assets; asset++) {
+            assertEquals(universe.name(asset), string(data));
+        }
+        align(data);
+        Map<String, String> exported = new HashMap<>();
+        long readRows = 0;
+        int groups = 0;
+        for (int count = data.getInt(); count != 0; count = data.getInt()) {
+            int groupRows = data.getInt();
+            String[] ids = new String[count];
+            int[] months = new int[count];
+            for (int index = 0; index < count; index++) {
+                ids[index] = string(data);
+                assertEquals(PortfolioData.UNKNOWN_YEAR, data.getInt());
+                months[index] = data.getInt();
+            }
+            align(data);
+            assertEquals(0, data.position() % Double.BYTES);
+            double[][] columns = new double[assets][groupRows];
+            for (int asset = 0; asset < assets; asset++) {
+                data.asDoubleBuffer().get(columns[asset]);
+                data.position(data.position() + groupRows * Double.BYTES);
+            }
+            int row = 0;
+            for (int index = 0; index < count; index++) {
+                row += months[index];
+                StringBuilder last = new StringBuilder();
+                for (int asset = 0; asset < assets; asset++) {
+                    last.append(asset == 0 ? "" : " ").append((long) columns[asset][row - 1]);
+                }
+                exported.put(ids[index] + " " + Month.of(months[index]), last.toString());
+            }
+            readRows += groupRows;
+            groups++;
+        }
+        data.getInt();
+        assertEquals(rows, data.getLong());
+        assertEquals(rows, readRows);
+        assertEquals(portfolios * 3 + portfolios * (portfolios - 1) / 2, rows);
+        assertEquals(true, groups > 1);
+        assertEquals(portfolios, exported.size());
+        for (Map.Entry<String, String> entry : exported.entrySet()) {
+            String[] key = entry.getKey().split(" ");
+            assertEquals(
+                    manager.processLineAsCommand("@" + key[0] + " BALANCE " + key[1]), entry.getValue(), key[0]);
+        }
+    }
+
+    private static String string(ByteBuffer data) {
+        byte[] bytes = new byte[data.getInt()];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void align(ByteBuffer data) {
+        data.position((data.position() + Double.BYTES - 1) / Double.BYTES * Double.BYTES);
+    }
+}
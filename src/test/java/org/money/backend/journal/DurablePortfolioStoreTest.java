@@ -0,0 +1,209 @@
+package org.money.backend.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.journal.CommandJournal;
+import org.mymoney.backend.journal.DurablePortfolioStore;
+import org.mymoney.backend.journal.JournaledPortfolioService;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Month;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DurablePortfolioStoreTest {
+    private static final String[] HISTORY = {
+        "@A ALLOCATE 6000 3000 1000",
+        "@A SIP 2000 1000 500",
+        "@B ALLOCATE 8000 6000 3500",
+        "@A CHANGE 4.00% 10.00% 2.00% JANUARY 2020",
+        "@B CHANGE 11.00% 9.00% 4.00% JANUARY",
+        "@A CHANGE -10.00% 40.00% 0.00% FEBRUARY",
+        "@A CHANGE 12.50% 12.50% 12.50% MARCH 2020",
+        "@B CORRECT 10.00% 9.00% 4.00% JANUARY",
+        "@A CHANGE 8.00% -3.00% 7.00% APRIL",
+        "@A CHANGE 13.00% 21.00% 10.50% MAY",
+        "@A CHANGE 10.00% 8.00% -5.00% JUNE",
+    };
+    private static final String[] QUERIES = {"@A BALANCE JUNE", "@A REBALANCE", "@B BALANCE JANUARY"};
+
+    @Test
+    void testRecoveryFromSnapshotAndJournalTailMatchesTheHistory(@TempDir Path directory) throws Exception {
+        String[] expected;
+        try (DurablePortfolioStore store = open(directory, 4)) {
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            for (String line : HISTORY) {
+                manager.processLineAsCommand(line);
+                store.checkpointIfDue();
+            }
+            expected = run(manager, QUERIES);
+        }
+        assertTrue(Files.exists(directory.resolve("snapshot.bin")));
+
+        try (DurablePortfolioStore store = open(directory, 4)) {
+            assertEquals(HISTORY.length % 4, store.getReplayedRecords());
+            PortfolioRegistry registry = store.getPortfolioRegistry();
+            assertEquals(2, registry.size());
+            String[] recovered = run(new PortfolioManager(registry), QUERIES);
+            for (int index = 0; index < QUERIES.length; index++) {
+                assertNotNull(expected[index], QUERIES[index]);
+                assertEquals(expected[index], recovered[index], QUERIES[index]);
+            }
+        }
+    }
+
+    @Test
+    void testRecoveryStopsAtATornRecord(@TempDir Path directory) throws Exception {
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            for (String line : HISTORY) {
+                manager.processLineAsCommand(line);
+            }
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            assertEquals(HISTORY.length - 1, store.getReplayedRecords());
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            PortfolioManager reference =
+                    new PortfolioManager(
+                            new PortfolioRegistry(1, () -> new DefaultPortfolioService(new PortfolioData())));
+            run(reference, Arrays.copyOf(HISTORY, HISTORY.length - 1));
+            assertEquals(
+                    reference.processLineAsCommand("@A BALANCE MAY"), manager.processLineAsCommand("@A BALANCE MAY"));
+            assertNull(manager.processLineAsCommand("@A BALANCE JUNE"));
+        }
+    }
+
+    @Test
+    void testCommandsAfterRecoveringFromATornRecordSurviveTheNextRestart(@TempDir Path directory)
+            throws Exception {
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            run(new PortfolioManager(store.getPortfolioRegistry()), HISTORY);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        String expected;
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            manager.processLineAsCommand(HISTORY[HISTORY.length - 1]);
+            expected = manager.processLineAsCommand("@A BALANCE JUNE");
+            assertNotNull(expected);
+        }
+
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            assertEquals(HISTORY.length, store.getReplayedRecords());
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            assertEquals(expected, manager.processLineAsCommand("@A BALANCE JUNE"));
+        }
+    }
+
+    @Test
+    void testIdleJournalIsSyncedWithinTheInterval(@TempDir Path directory) throws Exception {
+        try (CommandJournal journal = new CommandJournal(directory, Integer.MAX_VALUE, 20)) {
+            journal.append(CommandJournal.CHANGE, "A", CommandJournal.NO_YEAR, Month.JANUARY, new double[] {4, 10, 2});
+            Path segment;
+            try (Stream<Path> files = Files.list(directory)) {
+                segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).findFirst().get();
+            }
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (Files.size(segment) == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.size(segment) > 0);
+        }
+    }
+
+    @Test
+    void testCorruptRecordBeforeTheLastSegmentFailsRecovery(@TempDir Path directory) throws Exception {
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            run(new PortfolioManager(store.getPortfolioRegistry()), HISTORY);
+        }
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            assertNull(new PortfolioManager(store.getPortfolioRegistry()).processLineAsCommand("@B SIP 1 1 1"));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.getFileName().toString().endsWith(".log")).sorted().findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer corrupt = ByteBuffer.allocate(1);
+            channel.read(corrupt, 12);
+            corrupt.put(0, (byte) (corrupt.get(0) ^ 0xFF)).rewind();
+            channel.write(corrupt, 12);
+        }
+
+        assertThrows(DataFormatException.class, () -> open(directory, Long.MAX_VALUE));
+    }
+
+    @Test
+    void testCommandsTheJournalCannotTakeAreNotApplied(@TempDir Path directory) throws Exception {
+        PortfolioData portfolio;
+        PortfolioManager manager;
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            manager = new PortfolioManager(store.getPortfolioRegistry());
+            assertEquals("OK", manager.processLineAsResponse("@A ALLOCATE 6000 3000 1000"));
+            portfolio = ((JournaledPortfolioService) store.getPortfolioRegistry().getOrCreate("A")).getPortfolioData();
+        }
+        assertEquals("ERROR UNEXPECTED", manager.processLineAsResponse("@A SIP 2000 1000 500"));
+        assertNull(portfolio.initialSip);
+    }
+
+    @Test
+    void testRejectedCommandsAreRejectedAgainOnRecovery(@TempDir Path directory) throws Exception {
+        String[] lines = {"@A CHANGE 4.00% 10.00% 2.00% JANUARY", "@A ALLOCATE 6000 3000 1000",
+            "@A ALLOCATE 1 1 1", "@A CHANGE 4.00% 10.00% 2.00% JANUARY"};
+        String expected;
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            PortfolioManager manager = new PortfolioManager(store.getPortfolioRegistry());
+            run(manager, lines);
+            expected = manager.processLineAsCommand("@A BALANCE JANUARY");
+            assertNotNull(expected);
+        }
+
+        try (DurablePortfolioStore store = open(directory, Long.MAX_VALUE)) {
+            assertEquals(lines.length, store.getReplayedRecords());
+            assertEquals(expected, new PortfolioManager(store.getPortfolioRegistry()).processLineAsCommand(
+                    "@A BALANCE JANUARY"));
+        }
+    }
+
+    private static DurablePortfolioStore open(Path directory, long snapshotEvery) throws Exception {
+        return DurablePortfolioStore.open(directory, AssetUniverse.DEFAULT, 2, snapshotEvery, 1, 1000);
+    }
+
+    private static String[] run(PortfolioManager manager, String[] lines) {
+        String[] outputs = new String[lines.length];
+        for (int index = 0; index < lines.length; index++) {
+            outputs[index] = manager.processLineAsCommand(lines[index]);
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,99 @@
+package org.money.backend.metrics;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.metrics.Histogram;
+import org.mymoney.backend.metrics.MetricsRegistry;
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsRegistryTest {
+    private final MetricsRegistry metrics = MetricsRegistry.get();
+    private PortfolioManager portfolioManager;
+
+    @BeforeEach
+    public void setUp() {
+        PortfolioData portfolioData = new PortfolioData();
+        portfolioManager = new PortfolioManager(new DefaultPortfolioService(portfolioData));
+        metrics.reset();
+        metrics.setEnabled(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        metrics.setEnabled(false);
+        metrics.reset();
+    }
+
+    @Test
+    void testRecordsCommandsAndFailures() {
+        portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000");
+        portfolioManager.processLineAsCommand("SIP 2000 1000 500");
+        portfolioManager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% JANUARY");
+        portfolioManager.processLineAsCommand("CHANGE -10.00% 40.00% 0.00% FEBRUARY");
+        portfolioManager.processLineAsCommand("BALANCE FEBRUARY");
+        portfolioManager.processLineAsCommand("WITHDRAW 100");
+        portfolioManager.processLineAsCommand("SIP 2000 1000");
+        portfolioManager.processLineAsCommand("BALANCE JUNE");
+
+        assertEquals(1, metrics.getCommandCount(Command.ALLOCATE));
+        assertEquals(2, metrics.getCommandCount(Command.CHANGE));
+        assertEquals(1, metrics.getCommandCount(Command.BALANCE));
+        assertEquals(1, metrics.getFailureCount(ErrorCode.UNKNOWN_COMMAND));
+        assertEquals(1, metrics.getFailureCount(ErrorCode.WRONG_ARGUMENT_COUNT));
+        assertEquals(1, metrics.getFailureCount(ErrorCode.INVALID_STATE));
+        assertEquals(2, metrics.getMonthsRecalculated());
+        assertTrue(metrics.dump().contains("mymoney.command.change.count 2"));
+    }
+
+    @Test
+    void testDisabledRegistryRecordsNothing() {
+        metrics.setEnabled(false);
+        portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000");
+        portfolioManager.processLineAsCommand("WITHDRAW 100");
+        assertEquals(0, metrics.getCommandCount(Command.ALLOCATE));
+        assertEquals(0, metrics.getFailureCount(ErrorCode.UNKNOWN_COMMAND));
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500 && median < 500 * 1.25, "Median within the bucket precision");
+        assertTrue(histogram.getPercentile(100) >= 1000);
+        assertEquals(500, histogram.getMean());
+    }
+
+    @Test
+    void testCachedBalancesAreInvalidatedFromTheRestatedMonth() {
+        portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000");
+        portfolioManager.processLineAsCommand("SIP 2000 1000 500");
+        portfolioManager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% JANUARY");
+        portfolioManager.processLineAsCommand("CHANGE -10.00% 40.00% 0.00% FEBRUARY");
+        portfolioManager.processLineAsCommand("CHANGE 12.50% 12.50% 12.50% MARCH");
+        String january = portfolioManager.processLineAsCommand("BALANCE JANUARY");
+        String march = portfolioManager.processLineAsCommand("BALANCE MARCH");
+        assertEquals(0, metrics.getCacheHits());
+        assertEquals(2, metrics.getCacheMisses());
+
+        assertEquals(january, portfolioManager.processLineAsCommand("BALANCE JANUARY"));
+        assertEquals(march, portfolioManager.processLineAsCommand("BALANCE MARCH"));
+        assertEquals(2, metrics.getCacheHits());
+
+        portfolioManager.processLineAsCommand("CORRECT 12.50% 12.50% 10.00% MARCH");
+        assertEquals(january, portfolioManager.processLineAsCommand("BALANCE JANUARY"));
+        assertEquals(3, metrics.getCacheHits());
+        assertEquals("10593 7897 2222", portfolioManager.processLineAsCommand("BALANCE MARCH"));
+        assertEquals(3, metrics.getCacheMisses());
+    }
+}
@@ -0,0 +1,114 @@
+package org.money.backend.output;
+
+import org.junit.jupiter.api.Test;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.output.AsyncWriter;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.ShardedCommandExecutor;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncWriterTest {
+
+    @Test
+    void testKeepsOrderWhileWaitingForSlowTarget() throws IOException {
+        StringWriter target = new StringWriter();
+        Writer slowTarget =
+                new Writer() {
+                    @Override
+                    public void write(char[] buffer, int offset, int length) {
+                        Thread.yield();
+                        target.write(buffer, offset, length);
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+        StringBuilder expected = new StringBuilder();
+        // Two chunks of 16 characters: the writer blocks on every other line.
+        AsyncWriter writer = new AsyncWriter(slowTarget, "test-output", 16, 2);
+        for (int line = 0; line < 20000; line++) {
+            String text = "line " + line + System.lineSeparator();
+            expected.append(text);
+            writer.write(text);
+            if (line % 1000 == 0) {
+                writer.flush();
+            }
+        }
+        writer.close();
+        assertEquals(expected.toString(), target.toString());
+        assertThrows(IOException.class, () -> writer.write("closed"));
+    }
+
+    @Test
+    void testReportsFailureOfTarget() {
+        Writer failingTarget =
+                new Writer() {
+                    @Override
+                    public void write(char[] buffer, int offset, int length) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+        AsyncWriter writer = new AsyncWriter(failingTarget, "test-output", 16, 2);
+        IOException failure =
+                assertThrows(
+                        IOException.class,
+                        () -> {
+                            for (int line = 0; line < 100; line++) {
+                                writer.write("BALANCE " + line + System.lineSeparator());
+                            }
+                            writer.close();
+                        });
+        assertEquals("Broken pipe", failure.getCause().getMessage());
+    }
+
+    @Test
+    void testSeparatesErrorsFromOutputs() throws IOException {
+        StringWriter outputs = new StringWriter();
+        StringWriter errors = new StringWriter();
+        PortfolioManager portfolioManager = new PortfolioManager(
+                        new PortfolioRegistry(
+                                2, () -> new DefaultPortfolioService(new PortfolioData(AssetUniverse.DEFAULT))));
+        try (ShardedCommandExecutor executor = new ShardedCommandExecutor(portfolioManager);
+                AsyncWriter output = new AsyncWriter(outputs, "test-output");
+                AsyncWriter errorOutput = new AsyncWriter(errors, "test-errors")) {
+            portfolioManager.setErrorOutput(errorOutput);
+            executor.executeCommands(
+                    new StringReader(
+                            "@A ALLOCATE 6000 3000 1000\n"
+                                    + "@A BALANCE JANUARY\n"
+                                    + "@A CHANGE 4.00% 10.00% 2.00% JANUARY\n"
+                                    + "@A BALANCE JANUARY\n"
+                                    + "@A UNKNOWN\n"),
+                    output);
+        }
+        assertEquals("6240 3300 1020" + System.lineSeparator(), outputs.toString());
+        String[] reported = errors.toString().split(System.lineSeparator());
+        assertEquals(2, reported.length);
+        assertTrue(reported[0].startsWith("Error Occurred while processing line 2: @A BALANCE JANUARY"));
+        assertTrue(reported[1].startsWith("Error Occurred while processing line 5: @A UNKNOWN"));
+    }
+}
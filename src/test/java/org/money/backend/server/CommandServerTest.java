@@ -0,0 +1,181 @@
+package org.money.backend.server;
+
+import org.junit.jupiter.api.Test;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.server.CommandServer;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.PortfolioService;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandServerTest {
+    private static final String[] COMMANDS = {
+        "ALLOCATE 6000 3000 1000",
+        "SIP 2000 1000 500",
+        "CHANGE 4.00% 10.00% 2.00% JANUARY",
+        "CHANGE -10.00% 40.00% 0.00% FEBRUARY",
+        "CHANGE 12.50% 12.50% 12.50% MARCH",
+        "CHANGE 8.00% -3.00% 7.00% APRIL",
+        "CHANGE 13.00% 21.00% 10.50% MAY",
+        "CHANGE 10.00% 8.00% -5.00% JUNE",
+        "BALANCE MARCH",
+        "REBALANCE",
+        "BALANCE DECEMBER",
+    };
+
+    @Test
+    void testPipelinedCommandsAreAnsweredInOrder() throws Exception {
+        Supplier<PortfolioService> factory = () -> new DefaultPortfolioService(new PortfolioData());
+        try (CommandServer server =
+                new CommandServer(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        new PortfolioRegistry(4, factory),
+                        factory,
+                        CommandServer.SessionMode.PORTFOLIO)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            List<String> expected = new ArrayList<>();
+            StringBuilder request = new StringBuilder();
+            for (String portfolio : Arrays.asList("@a ", "@b ", "@c ")) {
+                for (String command : COMMANDS) {
+                    request.append(portfolio).append(command).append("\r\n");
+                }
+                expected.addAll(Arrays.asList("OK", "OK", "OK", "OK", "OK", "OK", "OK", "OK"));
+                expected.addAll(Arrays.asList("10593 7897 2272", "23619 11809 3936", "ERROR INVALID_STATE"));
+            }
+            try (Socket socket = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort())) {
+                OutputStream output = socket.getOutputStream();
+                output.write(request.toString().getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                socket.shutdownOutput();
+                BufferedReader input =
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                List<String> responses = new ArrayList<>();
+                String line;
+                while ((line = input.readLine()) != null) {
+                    responses.add(line);
+                }
+                assertEquals(expected, responses);
+            }
+            server.close();
+            thread.join(5000);
+        }
+    }
+
+    @Test
+    void testBatchListenerRunsAfterCommands() throws Exception {
+        Supplier<PortfolioService> factory = () -> new DefaultPortfolioService(new PortfolioData());
+        CountDownLatch listened = new CountDownLatch(1);
+        try (CommandServer server =
+                new CommandServer(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        new PortfolioRegistry(4, factory),
+                        factory,
+                        CommandServer.SessionMode.PORTFOLIO)) {
+            server.setBatchListener(listened::countDown);
+            Thread thread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            try (Socket socket = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort())) {
+                OutputStream output = socket.getOutputStream();
+                output.write((COMMANDS[0] + "\n").getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                BufferedReader input =
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("OK", input.readLine());
+                assertTrue(listened.await(5, TimeUnit.SECONDS));
+            }
+            server.close();
+            thread.join(5000);
+        }
+    }
+
+    @Test
+    void testPipelinedMultiLineResponsesAreFramed() throws Exception {
+        Supplier<PortfolioService> factory = () -> new DefaultPortfolioService(new PortfolioData());
+        PortfolioManager local = new PortfolioManager(new PortfolioRegistry(1, factory));
+        for (int index = 0; index < 8; index++) {
+            local.processLineAsCommand(COMMANDS[index]);
+        }
+        String[] range = local.processLineAsCommand("BALANCE_RANGE JANUARY MARCH").split(System.lineSeparator());
+        assertEquals(3, range.length);
+        try (CommandServer server =
+                new CommandServer(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                        new PortfolioRegistry(4, factory),
+                        factory,
+                        CommandServer.SessionMode.PORTFOLIO)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            thread.start();
+            StringBuilder request = new StringBuilder();
+            for (String portfolio : Arrays.asList("@a ", "@b ")) {
+                for (int index = 0; index < 8; index++) {
+                    request.append(portfolio).append(COMMANDS[index]).append('\n');
+                }
+                request.append(portfolio).append("BALANCE_RANGE JANUARY MARCH\n");
+                request.append(portfolio).append("SIMULATE 100 3 1% 4% 0.5% 1% 0.4% 3%\n");
+                request.append(portfolio).append("BALANCE MARCH\n");
+            }
+            try (Socket socket = new Socket(server.getLocalAddress().getAddress(), server.getLocalAddress().getPort())) {
+                OutputStream output = socket.getOutputStream();
+                output.write(request.toString().getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                socket.shutdownOutput();
+                BufferedReader input =
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                for (int portfolio = 0; portfolio < 2; portfolio++) {
+                    for (int index = 0; index < 8; index++) {
+                        assertEquals("OK", input.readLine());
+                    }
+                    assertEquals("LINES 3", input.readLine());
+                    for (String line : range) {
+                        assertEquals(line, input.readLine());
+                    }
+                    assertEquals("LINES 3", input.readLine());
+                    for (String month : Arrays.asList("JANUARY", "FEBRUARY", "MARCH")) {
+                        assertTrue(input.readLine().startsWith(month));
+                    }
+                    assertEquals("10593 7897 2272", input.readLine());
+                }
+                assertNull(input.readLine());
+            }
+            server.close();
+            thread.join(5000);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.money.backend.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.dto.Portfolio;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.impl.AllocationBacktest;
+import org.mymoney.backend.service.impl.AllocationGrid;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.mymoney.backend.service.impl.HistoricalReturns;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Month;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.DataFormatException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllocationBacktestTest {
+    private static final String[] RATES = {
+        "4.00%,10.00%,2.00%", "-10.00%,40.00%,0.00%", "12.50%,12.50%,12.50%", "8.00%,-3.00%,7.00%",
+        "13.00%,21.00%,10.50%", "10.00%,8.00%,-5.00%", "5.00%,5.50%,3.00%", "-7.00%,2.00%,12.00%",
+        "9.00%,-1.00%,4.00%", "3.00%,6.00%,-2.50%", "-4.00%,3.00%,8.00%", "6.00%,-2.00%,1.00%",
+    };
+
+    @Test
+    void testOutcomesMatchTheReplayedPortfolios(@TempDir Path directory) throws Exception {
+        HistoricalReturns returns = HistoricalReturns.load(writeCsv(directory.resolve("returns.csv")));
+        AllocationGrid grid = new AllocationGrid(3, 10000, 20, new double[] {0, 1500});
+        assertEquals(42, grid.size());
+        List<AllocationBacktest.Outcome> outcomes =
+                new AllocationBacktest(
+                                returns, grid, RebalancePolicy.DEFAULT, AllocationBacktest.Ranking.FINAL_VALUE, 42)
+                        .run(new ForkJoinPool(2));
+
+        assertEquals(42, outcomes.size());
+        int replayed = 0;
+        for (int rank = 0; rank < outcomes.size(); rank++) {
+            AllocationBacktest.Outcome outcome = outcomes.get(rank);
+            if (rank > 0) {
+                assertTrue(outcomes.get(rank - 1).getFinalValue() >= outcome.getFinalValue());
+            }
+            double[] weights = new double[3];
+            grid.weights(outcome.getConfiguration(), weights);
+            double sipTotal = grid.sipTotal(outcome.getConfiguration());
+            if (sipTotal == 0 || weights[0] == 0 || weights[1] == 0 || weights[2] == 0) {
+                continue;
+            }
+            PortfolioManager manager =
+                    new PortfolioManager(
+                            new PortfolioRegistry(
+                                    1, () -> new DefaultPortfolioService(new PortfolioData(AssetUniverse.DEFAULT))));
+            manager.processLineAsCommand("ALLOCATE " + amounts(10000, weights));
+            manager.processLineAsCommand("SIP " + amounts(sipTotal, weights));
+            for (int month = 0; month < RATES.length; month++) {
+                manager.processLineAsCommand(
+                        "CHANGE " + RATES[month].replace(',', ' ') + " " + Month.of(month + 1));
+            }
+            double[] balances = outcome.getFinalBalances();
+            assertEquals(
+                    manager.processLineAsCommand("BALANCE DECEMBER"),
+                    Portfolio.appendTo(new StringBuilder(), balances, 0, balances.length).toString());
+            replayed++;
+        }
+        assertEquals(6, replayed);
+    }
+
+    @Test
+    void testBinaryFormKeepsTheHistory(@TempDir Path directory) throws Exception {
+        HistoricalReturns csv = HistoricalReturns.load(writeCsv(directory.resolve("returns.csv")));
+        Path binary = directory.resolve("returns.mmrh");
+        csv.write(binary);
+        HistoricalReturns mapped = HistoricalReturns.load(binary);
+
+        assertArrayEquals(new String[] {"EQUITY", "DEBT", "GOLD"}, mapped.getAssetNames());
+        assertEquals(RATES.length, mapped.getMonths());
+        AllocationGrid grid = new AllocationGrid(3, 10000, 10, new double[] {500});
+        AllocationBacktest.Outcome fromCsv =
+                new AllocationBacktest(csv, grid, RebalancePolicy.DEFAULT, AllocationBacktest.Ranking.DRAWDOWN, 1)
+                        .run()
+                        .get(0);
+        AllocationBacktest.Outcome fromBinary =
+                new AllocationBacktest(mapped, grid, RebalancePolicy.DEFAULT, AllocationBacktest.Ranking.DRAWDOWN, 1)
+                        .run()
+                        .get(0);
+        assertEquals(fromCsv.toString(), fromBinary.toString());
+    }
+
+    @Test
+    void testBinaryLengthsBeyondTheFileAreRejected(@TempDir Path directory) throws Exception {
+        Path binary = directory.resolve("returns.mmrh");
+        HistoricalReturns.load(writeCsv(directory.resolve("returns.csv"))).write(binary);
+        byte[] valid = Files.readAllBytes(binary);
+        // The number of assets, the number of months and the length of the first asset name
+        for (int offset : new int[] {8, 12, 16}) {
+            byte[] corrupt = valid.clone();
+            ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, Integer.MAX_VALUE / 2);
+            Files.write(binary, corrupt);
+            assertThrows(DataFormatException.class, () -> HistoricalReturns.load(binary), "offset " + offset);
+        }
+    }
+
+    private static Path writeCsv(Path file) throws Exception {
+        StringBuilder csv = new StringBuilder("month,EQUITY,DEBT,GOLD\n");
+        for (int month = 0; month < RATES.length; month++) {
+            csv.append(String.format("2020-%02d,", month + 1)).append(RATES[month]).append('\n');
+        }
+        return Files.write(file, csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String amounts(double total, double[] weights) {
+        StringBuilder amounts = new StringBuilder();
+        for (double weight : weights) {
+            amounts.append(amounts.length() == 0 ? "" : " ").append((long) (total * weight / 100));
+        }
+        return amounts.toString();
+    }
+}
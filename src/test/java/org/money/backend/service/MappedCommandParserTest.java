@@ -0,0 +1,163 @@
+package org.money.backend.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.CommandError;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.MappedCommandParser;
+import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.impl.DefaultPortfolioService;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedCommandParserTest {
+    private PortfolioManager portfolioManager;
+
+    @BeforeEach
+    public void setUp() {
+        PortfolioData portfolioData = new PortfolioData();
+        portfolioManager = new PortfolioManager(new DefaultPortfolioService(portfolioData));
+    }
+
+    @Test
+    void testExecuteCommandsFromFile() throws Exception {
+        Path inputFile =
+                Paths.get(
+                        Objects.requireNonNull(
+                                        this.getClass().getClassLoader().getResource("testInputFile"))
+                                .toURI());
+        StringWriter output = new StringWriter();
+        // A small window forces lines to be carried over into the next mapping.
+        new MappedCommandParser(portfolioManager, 40).executeCommandsFromFile(inputFile, output);
+        assertEquals(
+                "10593 7897 2272" + System.lineSeparator() + "23619 11809 3936" + System.lineSeparator(),
+                output.toString());
+    }
+
+    @Test
+    void testReportsMalformedLinesToTheErrorOutput(@TempDir Path directory) throws IOException {
+        Path inputFile = directory.resolve("input");
+        Files.write(
+                inputFile,
+                ("ALLOCATE 6000 3000 1000\r\n"
+                                + "SIP 2000 x 500\n"
+                                + "CHANGE 4.00% 10.00% 2.00% JANUARY\n"
+                                + "\n"
+                                + "BALANCE JANUARY\n"
+                                + "BALANCE MARCH\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        StringWriter output = new StringWriter();
+        StringWriter errorOutput = new StringWriter();
+        List<CommandError> errors = new ArrayList<>();
+        portfolioManager.setErrorOutput(errorOutput);
+        portfolioManager.setErrorListener(errors::add);
+        assertEquals(5, new MappedCommandParser(portfolioManager).executeCommandsFromFile(inputFile, output));
+        assertEquals("6240 3300 1020" + System.lineSeparator(), output.toString());
+        assertEquals(
+                "Error Occurred while processing line 2 at byte offset 25: SIP 2000 x 500 Invalid number x"
+                        + System.lineSeparator()
+                        + "Error Occurred while processing line 6 at byte offset 91: BALANCE MARCH "
+                        + ErrorCode.INVALID_STATE.getDescription()
+                        + System.lineSeparator(),
+                errorOutput.toString());
+        assertEquals(
+                Arrays.asList(ErrorCode.INVALID_NUMBER, ErrorCode.INVALID_STATE),
+                errors.stream().map(CommandError::getCause).collect(Collectors.toList()));
+        assertEquals(
+                Arrays.asList(25L, 91L),
+                errors.stream().map(CommandError::getByteOffset).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testReportsByteOffsetsAcrossWindows(@TempDir Path directory) throws IOException {
+        Path inputFile = directory.resolve("input");
+        Files.write(
+                inputFile,
+                ("ALLOCATE 6000 3000 1000\n"
+                                + "CHANGE 4.00% 10.00% 2.00% JANUARY\n"
+                                + "BALANCE JANUARY 20x0\n"
+                                + "BALANCE MARCH\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        List<CommandError> errors = new ArrayList<>();
+        portfolioManager.setErrorListener(errors::add);
+        // Every line starts a new window of 40 bytes, so offsets add up across the mappings.
+        new MappedCommandParser(portfolioManager, 40).executeCommandsFromFile(inputFile, new StringWriter());
+        assertEquals(
+                Arrays.asList(58L, 79L),
+                errors.stream().map(CommandError::getByteOffset).collect(Collectors.toList()));
+        assertEquals(
+                Arrays.asList(3L, 4L),
+                errors.stream().map(CommandError::getLineNumber).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testStreamsBalanceRange(@TempDir Path directory) throws IOException {
+        Path inputFile = directory.resolve("input");
+        Files.write(
+                inputFile,
+                ("ALLOCATE 6000 3000 1000\n"
+                                + "CHANGE 4.00% 10.00% 2.00% JANUARY 2030\n"
+                                + "CHANGE -10.00% 40.00% 0.00% FEBRUARY 2030\n"
+                                + "BALANCE_RANGE JANUARY 2030 FEBRUARY 2030\n"
+                                + "BALANCE_RANGE JANUARY 2030 FEBRUARY\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        StringWriter output = new StringWriter();
+        StringWriter errorOutput = new StringWriter();
+        portfolioManager.setErrorOutput(errorOutput);
+        new MappedCommandParser(portfolioManager).executeCommandsFromFile(inputFile, output);
+        assertEquals(
+                "JANUARY 6240 3300 1020 10560"
+                        + System.lineSeparator()
+                        + "FEBRUARY 5616 4620 1020 11256"
+                        + System.lineSeparator(),
+                output.toString());
+        assertEquals(
+                "Error Occurred while processing line 5 at byte offset 146: "
+                        + "BALANCE_RANGE JANUARY 2030 FEBRUARY Both months of BALANCE_RANGE need a year, or neither"
+                        + System.lineSeparator(),
+                errorOutput.toString());
+    }
+
+    @Test
+    void testBothParsersRejectTheSameYears(@TempDir Path directory) throws IOException {
+        List<String> lines =
+                Arrays.asList(
+                        "CHANGE 4.00% 10.00% 2.00% JANUARY 20301",
+                        "CHANGE 4.00% 10.00% 2.00% JANUARY -2030",
+                        "CHANGE 4.00% 10.00% 2.00% JANUARY +2030",
+                        "CHANGE 4.00% 10.00% 2.00% JANUARY 20x0",
+                        "BALANCE JANUARY 99999");
+        Path inputFile = directory.resolve("input");
+        Files.write(inputFile, lines, StandardCharsets.UTF_8);
+        List<CommandError> mappedErrors = new ArrayList<>();
+        portfolioManager.setErrorListener(mappedErrors::add);
+        new MappedCommandParser(portfolioManager).executeCommandsFromFile(inputFile, new StringWriter());
+
+        List<CommandError> lineErrors = new ArrayList<>();
+        portfolioManager.setErrorListener(lineErrors::add);
+        for (String line : lines) {
+            portfolioManager.processLineAsCommand(line);
+        }
+        assertEquals(lines.size(), mappedErrors.size());
+        assertEquals(lines.size(), lineErrors.size());
+        for (int index = 0; index < lines.size(); index++) {
+            assertEquals(ErrorCode.INVALID_MONTH, mappedErrors.get(index).getCause());
+            assertEquals(ErrorCode.INVALID_MONTH, lineErrors.get(index).getCause());
+            assertEquals(mappedErrors.get(index).getMessage(), lineErrors.get(index).getMessage());
+        }
+    }
+}
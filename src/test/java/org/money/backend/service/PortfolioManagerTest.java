@@ -4,22 +4,42 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.Spy;
+import org.junit.jupiter.api.io.TempDir;
 import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.model.AssetUniverse;
+import org.mymoney.backend.model.Command;
+import org.mymoney.backend.model.CommandError;
+import org.mymoney.backend.model.ErrorCode;
+import org.mymoney.backend.service.BatchCommandExecutor;
 import org.mymoney.backend.service.PortfolioManager;
+import org.mymoney.backend.service.PortfolioRegistry;
+import org.mymoney.backend.service.ShardedCommandExecutor;
+import org.mymoney.backend.service.impl.MonteCarloSimulator;
 import org.mymoney.backend.service.impl.DefaultPortfolioService;
 
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.mymoney.backend.model.Asset.*;
-
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class PortfolioManagerTest {
     @Mock private PortfolioData portfolioData;
@@ -29,9 +49,6 @@ class PortfolioManagerTest {
     @BeforeEach
     public void setUp() {
         portfolioData = new PortfolioData();
-        portfolioData.defaultAssetOrderForIO.add(EQUITY);
-        portfolioData.defaultAssetOrderForIO.add(DEBT);
-        portfolioData.defaultAssetOrderForIO.add(GOLD);
         defaultPortfolioService = new DefaultPortfolioService(portfolioData);
         portfolioManager = new PortfolioManager(defaultPortfolioService);
     }
@@ -63,5 +80,304 @@ class PortfolioManagerTest {
             assertEquals(expectedResult, result);
         }
     }
-}
 
+    @Test
+    void testExecuteCommandsForMultiplePortfolios() {
+        PortfolioRegistry registry =
+                new PortfolioRegistry(
+                        4,
+                        () -> new DefaultPortfolioService(new PortfolioData()));
+        List<String> lines = new ArrayList<>();
+        for (String line : Arrays.asList(
+                "ALLOCATE 6000 3000 1000",
+                "SIP 2000 1000 500",
+                "CHANGE 4.00% 10.00% 2.00% JANUARY",
+                "CHANGE -10.00% 40.00% 0.00% FEBRUARY",
+                "CHANGE 12.50% 12.50% 12.50% MARCH",
+                "BALANCE MARCH")) {
+            lines.add("@first " + line);
+            lines.add("@second " + line);
+        }
+        lines.add("@first BALANCE JANUARY");
+
+        try (ShardedCommandExecutor executor =
+                new ShardedCommandExecutor(new PortfolioManager(registry), 5)) {
+            List<String> output = executor.executeBatch(lines);
+            assertEquals(2, registry.size());
+            assertEquals("10593 7897 2272", output.get(10));
+            assertEquals("10593 7897 2272", output.get(11));
+            assertEquals("6240 3300 1020", output.get(12));
+        }
+    }
+
+    @Test
+    void testExecuteCommandsStreamsOutputs() throws IOException {
+        String inputFile =
+                Objects.requireNonNull(this.getClass().getClassLoader().getResource("testInputFile"))
+                        .getFile();
+        StringWriter output = new StringWriter();
+        portfolioManager.executeCommandsFromFile(inputFile, output);
+        assertEquals(
+                "10593 7897 2272" + System.lineSeparator() + "23619 11809 3936" + System.lineSeparator(),
+                output.toString());
+    }
+
+    @Test
+    void testBalanceRangeMatchesMonthlyBalances() throws IOException {
+        String inputFile =
+                Objects.requireNonNull(this.getClass().getClassLoader().getResource("testInputFile"))
+                        .getFile();
+        portfolioManager.executeCommandsFromFile(inputFile);
+        List<String> expected = new ArrayList<>();
+        for (String month : Arrays.asList("FEBRUARY", "MARCH", "APRIL", "MAY", "JUNE")) {
+            String[] amounts = portfolioManager.processLineAsCommand("BALANCE " + month).split(" ");
+            long total = Arrays.stream(amounts).mapToLong(Long::parseLong).sum();
+            expected.add(month + " " + String.join(" ", amounts) + " " + total);
+        }
+        assertEquals("MARCH 10593 7897 2272 20762", expected.get(1));
+        assertEquals(
+                String.join(System.lineSeparator(), expected),
+                portfolioManager.processLineAsCommand("BALANCE_RANGE FEBRUARY JUNE"));
+
+        // Streamed to the output, followed by the next command.
+        StringWriter output = new StringWriter();
+        portfolioManager.executeCommands(
+                new StringReader("BALANCE_RANGE FEBRUARY JUNE\nBALANCE MARCH\n"), output);
+        assertEquals(
+                String.join(System.lineSeparator(), expected)
+                        + System.lineSeparator()
+                        + "10593 7897 2272"
+                        + System.lineSeparator(),
+                output.toString());
+
+        assertEquals("ERROR INVALID_STATE", portfolioManager.processLineAsResponse("BALANCE_RANGE MAY JULY"));
+        assertEquals("ERROR INVALID_MONTH", portfolioManager.processLineAsResponse("BALANCE_RANGE JUNE MAY"));
+        assertEquals(
+                "ERROR WRONG_ARGUMENT_COUNT",
+                portfolioManager.processLineAsResponse("BALANCE_RANGE MAY 2020 JUNE"));
+    }
+
+    @Test
+    void testExecuteBatchOfFiles(@TempDir Path directory) throws IOException {
+        Path inputFile =
+                Paths.get(
+                        Objects.requireNonNull(this.getClass().getClassLoader().getResource("testInputFile"))
+                                .getFile());
+        Path manifest = directory.resolve("manifest");
+        Files.write(
+                manifest,
+                Arrays.asList(inputFile.toString(), inputFile.toString(), "missingFile", "rejected"));
+        Files.write(
+                directory.resolve("rejected"), Arrays.asList("ALLOCATE 6000 3000 1000", "BALANCE MARCH", "WITHDRAW 1"));
+        List<Path> inputs = BatchCommandExecutor.listInputs(manifest);
+        try (BatchCommandExecutor executor =
+                new BatchCommandExecutor(
+                        () ->
+                                new PortfolioManager(
+                                        new PortfolioRegistry(
+                                                1,
+                                                () -> new DefaultPortfolioService(new PortfolioData()))),
+                        2)) {
+            List<BatchCommandExecutor.FileResult> results =
+                    executor.execute(inputs, directory.resolve("output"));
+            assertEquals(4, results.size());
+            for (BatchCommandExecutor.FileResult result : results.subList(0, 2)) {
+                assertTrue(result.isSuccessful());
+                assertEquals(10, result.getCommands());
+                assertEquals(
+                        Arrays.asList("10593 7897 2272", "23619 11809 3936"),
+                        Files.readAllLines(result.getOutput()));
+                assertEquals(0, result.getErrors());
+                assertFalse(Files.exists(result.getErrorOutput()));
+            }
+            assertNotEquals(results.get(0).getOutput(), results.get(1).getOutput());
+            assertFalse(results.get(2).isSuccessful());
+            BatchCommandExecutor.FileResult rejected = results.get(3);
+            assertEquals(2, rejected.getErrors());
+            List<String> errors = Files.readAllLines(rejected.getErrorOutput());
+            assertEquals(2, errors.size());
+            int separator = System.lineSeparator().length();
+            assertTrue(errors.get(0).contains("line 2 at byte offset " + (23 + separator) + ": BALANCE MARCH"));
+            assertTrue(errors.get(1).contains("line 3 at byte offset " + (36 + 2 * separator) + ": WITHDRAW 1"));
+            assertTrue(BatchCommandExecutor.summarize(results, 0).contains("4 files, 1 failed, 2 errors"));
+        }
+    }
+
+    @Test
+    void testExecuteCommandsOverConfiguredAssetUniverse() {
+        PortfolioData data = new PortfolioData(AssetUniverse.of("EQUITY", "DEBT", "GOLD", "REIT", "CASH"));
+        PortfolioManager manager = new PortfolioManager(new DefaultPortfolioService(data));
+        assertNull(manager.processLineAsCommand("ALLOCATE 6000 3000 1000 2000 1000"));
+        assertNull(manager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% 5.00% 0.00% JANUARY"));
+        assertNull(manager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% FEBRUARY"));
+        assertEquals("6240 3300 1020 2100 1000", manager.processLineAsCommand("BALANCE JANUARY"));
+        assertEquals(1, data.calculatedMonths);
+        assertTrue(data.getDefaultAssetOrderForIO().isEmpty());
+    }
+
+    @Test
+    void testReportsRejectedLinesWithLineNumbers() throws IOException {
+        List<CommandError> errors = new ArrayList<>();
+        StringWriter errorOutput = new StringWriter();
+        portfolioManager.setErrorListener(errors::add);
+        portfolioManager.setErrorOutput(errorOutput);
+        StringWriter output = new StringWriter();
+        portfolioManager.executeCommands(
+                new StringReader(
+                        "BALANCE JANUARY\n"
+                                + "ALLOCATE 6000 3000 1000\n"
+                                + "\n"
+                                + "SIP 2000 x 500\n"
+                                + "CHANGE 4.00% 10.00% 2.00% JANUARI\n"
+                                + "CHANGE 4.00% 10.00% 2.00% JANUARY\n"
+                                + "CORRECT 4.00% 10.00% 2.00% FEBRUARY\n"
+                                + "BALANCE JANUARY 2020 2021\n"
+                                + "@other BALANCE JANUARY\n"
+                                + "WITHDRAW 100\n"
+                                + "BALANCE FEBRUARY\n"
+                                + "BALANCE JANUARY\n"),
+                output);
+
+        assertEquals("6240 3300 1020" + System.lineSeparator(), output.toString());
+        assertEquals(
+                Arrays.asList(1L, 4L, 5L, 7L, 8L, 9L, 10L, 11L),
+                errors.stream().map(CommandError::getLineNumber).collect(Collectors.toList()));
+        assertEquals(
+                Arrays.asList(
+                        ErrorCode.INVALID_STATE,
+                        ErrorCode.INVALID_NUMBER,
+                        ErrorCode.INVALID_MONTH,
+                        ErrorCode.INVALID_STATE,
+                        ErrorCode.WRONG_ARGUMENT_COUNT,
+                        ErrorCode.INVALID_PORTFOLIO_ID,
+                        ErrorCode.UNKNOWN_COMMAND,
+                        ErrorCode.INVALID_STATE),
+                errors.stream().map(CommandError::getCause).collect(Collectors.toList()));
+        assertEquals(
+                "Error Occurred while processing line 4: SIP 2000 x 500 Invalid number x",
+                errorOutput.toString().split(System.lineSeparator())[1]);
+    }
+
+    @Test
+    void testRejectedAndReadOnlyDatedCommandsLeaveTheStartYearOpen() {
+        assertNull(portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000"));
+        assertNull(portfolioManager.processLineAsCommand("BALANCE MARCH 2040"));
+        assertNull(portfolioManager.processLineAsCommand("BALANCE_RANGE JANUARY 2040 MARCH 2040"));
+        assertNull(portfolioManager.processLineAsCommand("CORRECT 4.00% 10.00% 2.00% FEBRUARY 2030"));
+        assertThrows(IllegalStateException.class, () -> defaultPortfolioService.balance(YearMonth.of(2040, 3)));
+        assertEquals(PortfolioData.UNKNOWN_YEAR, portfolioData.startYear);
+
+        assertNull(portfolioManager.processLineAsCommand("CHANGE 4.00% 10.00% 2.00% JANUARY 2020"));
+        assertEquals(2020, portfolioData.startYear);
+        assertEquals("6240 3300 1020", portfolioManager.processLineAsCommand("BALANCE JANUARY 2020"));
+    }
+
+    @Test
+    void testSimulateBeyondTheLimitsIsRejected() {
+        assertNull(portfolioManager.processLineAsCommand("ALLOCATE 6000 3000 1000"));
+        String arguments = " 1% 4% 0.5% 1% 0.4% 3%";
+        assertEquals(
+                "ERROR LIMIT_EXCEEDED",
+                portfolioManager.processLineAsResponse("SIMULATE 999999999 12" + arguments));
+        assertEquals(
+                "ERROR LIMIT_EXCEEDED",
+                portfolioManager.processLineAsResponse(
+                        "SIMULATE 10 " + (MonteCarloSimulator.DEFAULT_MAX_MONTHS + 1) + arguments));
+        System.setProperty(MonteCarloSimulator.MAX_PATHS_PROPERTY, "10");
+        try {
+            assertEquals("ERROR LIMIT_EXCEEDED", portfolioManager.processLineAsResponse("SIMULATE 11 1" + arguments));
+            assertTrue(portfolioManager.processLineAsResponse("SIMULATE 10 1" + arguments).startsWith("JANUARY"));
+        } finally {
+            System.clearProperty(MonteCarloSimulator.MAX_PATHS_PROPERTY);
+        }
+    }
+
+    @Test
+    void testOnlyMonthFailuresAreInvalidMonths() {
+        assertEquals(ErrorCode.INVALID_MONTH, ErrorCode.of(new DateTimeException("year"), Command.BALANCE));
+        assertEquals(ErrorCode.MALFORMED_INPUT, ErrorCode.of(new IllegalArgumentException("size"), Command.SIMULATE));
+        assertEquals(ErrorCode.UNKNOWN_COMMAND, ErrorCode.of(new IllegalArgumentException("keyword"), null));
+        assertEquals(ErrorCode.INVALID_NUMBER, ErrorCode.of(new NumberFormatException("x"), Command.SIP));
+    }
+
+    @Test
+    void testChangesPastTheLongestTimelineAreRejected() {
+        assertEquals("OK", portfolioManager.processLineAsResponse("ALLOCATE 6000 3000 1000"));
+        assertEquals("OK", portfolioManager.processLineAsResponse("SIP 2000 1000 500"));
+        assertEquals("OK", portfolioManager.processLineAsResponse("CHANGE 4.00% 10.00% 2.00% JANUARY 2030"));
+        assertEquals(1200, PortfolioData.MAX_MONTHS);
+        assertEquals("OK", portfolioManager.processLineAsResponse("CHANGE 1% 1% 1% DECEMBER 2129"));
+        assertEquals(
+                "ERROR LIMIT_EXCEEDED", portfolioManager.processLineAsResponse("CHANGE 1% 1% 1% JANUARY 2130"));
+        assertEquals(
+                "ERROR INVALID_MONTH", portfolioManager.processLineAsResponse("CHANGE 1% 1% 1% JANUARY 50000000"));
+        assertEquals(
+                "ERROR LIMIT_EXCEEDED", portfolioManager.processLineAsResponse("CORRECT 1% 1% 1% JANUARY 9999"));
+        assertEquals("ERROR INVALID_STATE", portfolioManager.processLineAsResponse("BALANCE JANUARY 9999"));
+        assertEquals("6240 3300 1020", portfolioManager.processLineAsResponse("BALANCE JANUARY 2030"));
+        assertEquals(1200, portfolioData.monthIndex(YearMonth.of(999_999_999, 12)));
+        assertEquals(-1, portfolioData.monthIndex(YearMonth.of(-999_999_999, 1)));
+    }
+
+    @Test
+    void testDatedChangesAfterUndatedOnesAreRejected() {
+        assertEquals("OK", portfolioManager.processLineAsResponse("ALLOCATE 6000 3000 1000"));
+        assertEquals("OK", portfolioManager.processLineAsResponse("CHANGE 4.00% 10.00% 2.00% JANUARY"));
+        assertEquals(
+                "ERROR INVALID_STATE",
+                portfolioManager.processLineAsResponse("CHANGE -10.00% 40.00% 0.00% JANUARY 2031"));
+        assertEquals(
+                "ERROR INVALID_STATE",
+                portfolioManager.processLineAsResponse("CORRECT 1.00% 1.00% 1.00% FEBRUARY 2031"));
+        assertThrows(
+                IllegalStateException.class,
+                () -> defaultPortfolioService.change(Arrays.asList(1d, 1d, 1d), YearMonth.of(2031, 1)));
+        assertEquals(PortfolioData.UNKNOWN_YEAR, portfolioData.startYear);
+        assertEquals("6240 3300 1020", portfolioManager.processLineAsResponse("BALANCE JANUARY"));
+    }
+
+    @Test
+    void testPortfolioIdsAreBoundedLikeTheJournalAndTheMappedParser() {
+        PortfolioRegistry registry = new PortfolioRegistry(1, () -> new DefaultPortfolioService(new PortfolioData()));
+        PortfolioManager manager = new PortfolioManager(registry);
+        String longest = String.join("", Collections.nCopies(256, "x"));
+        String wide = String.join("", Collections.nCopies(128, "\u00e9"));
+        assertEquals("ERROR INVALID_PORTFOLIO_ID", manager.processLineAsResponse("@ ALLOCATE 6000 3000 1000"));
+        assertEquals(
+                "ERROR INVALID_PORTFOLIO_ID",
+                manager.processLineAsResponse("@" + longest + "x ALLOCATE 6000 3000 1000"));
+        assertEquals(
+                "ERROR INVALID_PORTFOLIO_ID",
+                manager.processLineAsResponse("@" + wide + "\u00e9 ALLOCATE 6000 3000 1000"));
+        assertEquals(0, registry.size());
+        assertEquals("OK", manager.processLineAsResponse("@" + longest + " ALLOCATE 6000 3000 1000"));
+        assertEquals("OK", manager.processLineAsResponse("@" + wide + " ALLOCATE 6000 3000 1000"));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void testOnlyStreamedBalanceRangesMaySpanMoreThanTheBufferedLimit() throws IOException {
+        PortfolioManager manager = new PortfolioManager(new DefaultPortfolioService(new PortfolioData()));
+        StringBuilder input = new StringBuilder("ALLOCATE 6000 3000 1000\n");
+        for (int year = 2030; year < 2041; year++) {
+            for (Month month : Month.values()) {
+                input.append("CHANGE 1.00% 1.00% 1.00% ").append(month).append(' ').append(year).append('\n');
+            }
+        }
+        input.append("BALANCE_RANGE JANUARY 2030 DECEMBER 2039\n").append("BALANCE_RANGE JANUARY 2030 JANUARY 2040\n");
+        StringWriter output = new StringWriter();
+        manager.executeCommands(new StringReader(input.toString()), output);
+        assertEquals(120 + 121, output.toString().split(System.lineSeparator()).length);
+
+        assertTrue(manager.processLineAsResponse("BALANCE_RANGE JANUARY 2030 DECEMBER 2039").startsWith("JANUARY"));
+        assertEquals(
+                "ERROR LIMIT_EXCEEDED", manager.processLineAsResponse("BALANCE_RANGE JANUARY 2030 JANUARY 2040"));
+        System.setProperty(PortfolioManager.MAX_BUFFERED_RANGE_PROPERTY, "2");
+        try {
+            assertEquals("ERROR LIMIT_EXCEEDED", manager.processLineAsResponse("BALANCE_RANGE JANUARY MARCH"));
+            assertTrue(manager.processLineAsResponse("BALANCE_RANGE JANUARY FEBRUARY").startsWith("JANUARY"));
+        } finally {
+            System.clearProperty(PortfolioManager.MAX_BUFFERED_RANGE_PROPERTY);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.money.backend.service;
 
-
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -8,18 +7,31 @@ import org.mockito.InjectMocks;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mymoney.backend.dao.PortfolioData;
+import org.mymoney.backend.rebalance.RebalancePolicy;
+import org.mymoney.backend.service.impl.ColumnarPortfolioEngine;
+import org.mymoney.backend.service.impl.ConcurrentPortfolioService;
 import org.mymoney.backend.service.impl.DefaultPortfolioService;
+import org.mymoney.backend.service.impl.MonteCarloSimulator;
+import org.mymoney.backend.service.impl.RebalancePolicyComparison;
 
+import java.time.Month;
+import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.InputMismatchException;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import java.util.zip.DataFormatException;
 
 import static java.time.Month.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mymoney.backend.constants.MyMoneyConstants.CANNOT_REBALANCE;
-import static org.mymoney.backend.model.Asset.*;
 
 @ExtendWith(MockitoExtension.class)
 class PortfolioServiceTest {
@@ -28,9 +40,6 @@ class PortfolioServiceTest {
 
     @BeforeEach
     public void setUp() {
-        portfolioData.defaultAssetOrderForIO.add(EQUITY);
-        portfolioData.defaultAssetOrderForIO.add(DEBT);
-        portfolioData.defaultAssetOrderForIO.add(GOLD);
         defaultPortfolioService = new DefaultPortfolioService(portfolioData);
     }
 
@@ -51,7 +60,7 @@ class PortfolioServiceTest {
                 initialAllocation.stream().mapToDouble(Double::doubleValue).sum(),
                 portfolioData.initialAllocation.getTotalInvestment());
         assertEquals(
-                100, portfolioData.desiredWeights.values().stream().mapToDouble(Double::doubleValue).sum());
+                100, Arrays.stream(portfolioData.desiredWeights).sum());
     }
 
     @Test
@@ -129,17 +138,44 @@ class PortfolioServiceTest {
     void testChangeWithCorrectValues() throws DataFormatException {
         List<Double> changeRate = Arrays.asList(10d, 20d, 30d);
         defaultPortfolioService.change(changeRate, JANUARY);
-        assertEquals(changeRate.size(), portfolioData.monthlyMarketChangeRate.get(JANUARY).size());
+        assertArrayEquals(new double[] {10d, 20d, 30d}, portfolioData.getMarketChangeRate(JANUARY));
     }
 
     @Test
-    void testChangeAlreadyAllocatedForMonth() throws DataFormatException {
-        List<Double> changeRate = Arrays.asList(10d, 20d, 30d);
-        defaultPortfolioService.change(changeRate, JANUARY);
+    void testChangeRestatesRateForMonth() throws DataFormatException {
+        defaultPortfolioService.change(Arrays.asList(10d, 20d, 30d), JANUARY);
+        defaultPortfolioService.change(Arrays.asList(1d, 2d, 3d), JANUARY);
+        assertArrayEquals(new double[] {1d, 2d, 3d}, portfolioData.getMarketChangeRate(JANUARY));
+    }
+
+    @Test
+    void testCorrectWithoutRateForMonth() {
         assertThrows(
                 IllegalStateException.class,
-                () -> defaultPortfolioService.change(changeRate, JANUARY),
-                "Expected Change method to throw Exception, but it didn't.");
+                () -> defaultPortfolioService.correct(Arrays.asList(10d, 20d, 30d), JANUARY),
+                "Expected Correct method to throw Exception, but it didn't.");
+    }
+
+    @Test
+    void testCorrectRecalculatesFromAffectedMonth() throws DataFormatException {
+        initializePortfolio();
+        assertEquals("23619 11809 3936", defaultPortfolioService.reBalance());
+        defaultPortfolioService.correct(Arrays.asList(4d, 10d, 2d), FEBRUARY);
+        assertEquals(
+                FEBRUARY.ordinal(), portfolioData.calculatedMonths, "Only later months are invalidated");
+
+        PortfolioData restatedData = new PortfolioData(portfolioData.getDefaultAssetOrderForIO());
+        DefaultPortfolioService restated = new DefaultPortfolioService(restatedData);
+        restated.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        restated.sip(Arrays.asList(2000d, 1000d, 500d));
+        restated.change(Arrays.asList(4d, 10d, 2d), JANUARY);
+        restated.change(Arrays.asList(4d, 10d, 2d), FEBRUARY);
+        restated.change(Arrays.asList(12.50d, 12.50d, 12.50d), MARCH);
+        restated.change(Arrays.asList(8.00d, -3.00d, 7.00d), APRIL);
+        restated.change(Arrays.asList(13.00d, 21.00d, 10.50d), MAY);
+        restated.change(Arrays.asList(10.00d, 8.00d, -5.00d), JUNE);
+        assertEquals(restated.balance(MARCH), defaultPortfolioService.balance(MARCH));
+        assertEquals(restated.reBalance(), defaultPortfolioService.reBalance());
     }
 
     @Test
@@ -188,4 +224,267 @@ class PortfolioServiceTest {
     void testGetSupportedAssetClass() {
         assertEquals(3, defaultPortfolioService.getSupportedAssetClass());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testMultiYearTimeline() throws DataFormatException {
+        defaultPortfolioService.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        defaultPortfolioService.sip(Arrays.asList(2000d, 1000d, 500d));
+        List<List<Double>> rates =
+                Arrays.asList(
+                        Arrays.asList(4d, 10d, 2d),
+                        Arrays.asList(-10.00d, 40.00d, 0.00d),
+                        Arrays.asList(12.50d, 12.50d, 12.50d),
+                        Arrays.asList(8.00d, -3.00d, 7.00d),
+                        Arrays.asList(13.00d, 21.00d, 10.50d),
+                        Arrays.asList(10.00d, 8.00d, -5.00d));
+        for (int month = 0; month < 24; month++) {
+            defaultPortfolioService.change(
+                    rates.get(month % rates.size()), YearMonth.of(2030 + month / 12, month % 12 + 1));
+        }
+        assertEquals("10593 7897 2272", defaultPortfolioService.balance(YearMonth.of(2030, 3)));
+        assertEquals("10593 7897 2272", defaultPortfolioService.balance(MARCH));
+        assertEquals(
+                defaultPortfolioService.balance(YearMonth.of(2031, 12)), defaultPortfolioService.reBalance());
+        assertThrows(
+                IllegalStateException.class,
+                () -> defaultPortfolioService.balance(YearMonth.of(2032, 1)),
+                "Expected Balance method to throw Exception, but it didn't.");
+    }
+
+    @Test
+    void testSimulateWithoutVolatilityFollowsTheMeanRates() throws DataFormatException {
+        defaultPortfolioService.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        defaultPortfolioService.sip(Arrays.asList(2000d, 1000d, 500d));
+        String[] months =
+                defaultPortfolioService
+                        .simulate(1000, 14, Arrays.asList(1d, 0.5d, -0.25d), Arrays.asList(0d, 0d, 0d))
+                        .split(System.lineSeparator());
+
+        PortfolioData expectedData = new PortfolioData();
+        DefaultPortfolioService expected = new DefaultPortfolioService(expectedData);
+        expected.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        expected.sip(Arrays.asList(2000d, 1000d, 500d));
+        assertEquals(14, months.length);
+        for (int month = 0; month < months.length; month++) {
+            YearMonth yearMonth = YearMonth.of(2030 + month / 12, month % 12 + 1);
+            expected.change(Arrays.asList(1d, 0.5d, -0.25d), yearMonth);
+            String balance = expected.balance(yearMonth);
+            assertEquals(
+                    portfolioData.describe(month)
+                            + " P10 " + balance + " P50 " + balance + " P90 " + balance,
+                    months[month]);
+        }
+    }
+
+    @Test
+    void testSimulatePercentilesAreOrdered() throws DataFormatException {
+        defaultPortfolioService.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        defaultPortfolioService.sip(Arrays.asList(2000d, 1000d, 500d));
+        String[] months =
+                defaultPortfolioService
+                        .simulate(10000, 6, Arrays.asList(1d, 0.5d, 0d), Arrays.asList(5d, 1d, 3d))
+                        .split(System.lineSeparator());
+        assertEquals(6, months.length);
+        for (String month : months) {
+            // e.g. JUNE P10 a b c P50 a b c P90 a b c
+            String[] columns = month.split(" ");
+            for (int asset = 0; asset < 3; asset++) {
+                double p10 = Double.parseDouble(columns[2 + asset]);
+                double p50 = Double.parseDouble(columns[6 + asset]);
+                double p90 = Double.parseDouble(columns[10 + asset]);
+                assertTrue(p10 <= p50 && p50 <= p90, month);
+            }
+        }
+        assertThrows(
+                DataFormatException.class,
+                () -> defaultPortfolioService.simulate(0, 6, Arrays.asList(1d, 0.5d, 0d), Arrays.asList(5d, 1d, 3d)),
+                "Expected Simulate method to throw Exception, but it didn't.");
+    }
+
+    @Test
+    void testSimulateBeyondTheLimitsIsRefused() throws DataFormatException {
+        defaultPortfolioService.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        List<Double> meanRates = Arrays.asList(1d, 0.5d, 0d);
+        List<Double> volatilities = Arrays.asList(5d, 1d, 3d);
+        ConcurrentPortfolioService concurrent = new ConcurrentPortfolioService(defaultPortfolioService);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> defaultPortfolioService.simulate(Integer.MAX_VALUE, 6, meanRates, volatilities));
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> concurrent.simulate(10, MonteCarloSimulator.DEFAULT_MAX_MONTHS + 1, meanRates, volatilities));
+        assertTrue(MonteCarloSimulator.withinLimits(MonteCarloSimulator.DEFAULT_MAX_PATHS, 12, 3));
+        assertFalse(MonteCarloSimulator.withinLimits(Integer.MAX_VALUE / 2, 1, 3));
+        System.setProperty(MonteCarloSimulator.MAX_MONTHS_PROPERTY, "3");
+        try {
+            assertThrows(IllegalArgumentException.class, () -> concurrent.simulate(10, 4, meanRates, volatilities));
+        } finally {
+            System.clearProperty(MonteCarloSimulator.MAX_MONTHS_PROPERTY);
+        }
+    }
+
+    @Test
+    void testColumnarEngineMatchesPortfolioService() throws DataFormatException {
+        double[][] allocations = {{6000, 3000, 1000}, {8000, 6000, 3500}, {1234.5, 987, 3}, {1, 0, 0}};
+        double[][] sips = {{2000, 1000, 500}, {3000, 2000, 1000}, {10, 20, 30}, null};
+        double[][] rates = {
+                {4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5},
+                {-2.5, 3, 1.25}, {6, 0.5, -1}, {1.75, -4, 2.5}, {-7, 6.5, 3}, {9.25, 1, -0.75}, {3.5, 2.25, 4}
+        };
+        ColumnarPortfolioEngine engine = new ColumnarPortfolioEngine(portfolioData.getAssetCount(), 1);
+        List<DefaultPortfolioService> services = new ArrayList<>();
+        for (int index = 0; index < allocations.length; index++) {
+            engine.add(allocations[index], sips[index]);
+            PortfolioData data = new PortfolioData(portfolioData.getAssetUniverse());
+            DefaultPortfolioService service = new DefaultPortfolioService(data);
+            service.allocate(Arrays.stream(allocations[index]).boxed().collect(Collectors.toList()));
+            if (sips[index] != null) {
+                service.sip(Arrays.stream(sips[index]).boxed().collect(Collectors.toList()));
+            }
+            services.add(service);
+        }
+        assertEquals(CANNOT_REBALANCE, engine.reBalance(0));
+        for (int month = 0; month < 30; month++) {
+            double[] monthRates = rates[month % rates.length];
+            engine.step(monthRates);
+            YearMonth yearMonth = YearMonth.of(2030 + month / 12, month % 12 + 1);
+            for (int index = 0; index < services.size(); index++) {
+                DefaultPortfolioService service = services.get(index);
+                service.change(Arrays.stream(monthRates).boxed().collect(Collectors.toList()), yearMonth);
+                assertEquals(service.balance(yearMonth), engine.balance(index));
+                assertEquals(service.reBalance(), engine.reBalance(index));
+            }
+        }
+    }
+
+    @Test
+    void testFixedPointArithmeticMatchesDoubleSteps() throws DataFormatException {
+        double[][] allocations = {{6000, 3000, 1000}, {8000, 6000, 3500}, {1234.5, 987, 3}, {1, 0, 0}};
+        double[][] sips = {{2000, 1000, 500}, {3000, 2000, 1000}, {10.25, 20, 30}, null};
+        double[][] rates = {
+                {4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5},
+                {-2.5, 3, 1.25}, {6, 0.5, -1}, {1.75, -4, 2.5}, {-7, 6.5, 3}, {9.25, 1, -0.75}, {3.5, 2.25, 4}
+        };
+        for (int index = 0; index < allocations.length; index++) {
+            DefaultPortfolioService doubleSteps =
+                    DefaultPortfolioService.withArithmetic(
+                            new PortfolioData(portfolioData.getAssetUniverse()), RebalancePolicy.DEFAULT, false);
+            DefaultPortfolioService integerSteps =
+                    DefaultPortfolioService.withArithmetic(
+                            new PortfolioData(portfolioData.getAssetUniverse()), RebalancePolicy.DEFAULT, true);
+            for (DefaultPortfolioService service : Arrays.asList(doubleSteps, integerSteps)) {
+                service.allocate(Arrays.stream(allocations[index]).boxed().collect(Collectors.toList()));
+                if (sips[index] != null) {
+                    service.sip(Arrays.stream(sips[index]).boxed().collect(Collectors.toList()));
+                }
+            }
+            for (int month = 0; month < 30; month++) {
+                YearMonth yearMonth = YearMonth.of(2030 + month / 12, month % 12 + 1);
+                List<Double> monthRates = Arrays.stream(rates[month % rates.length]).boxed().collect(Collectors.toList());
+                doubleSteps.change(monthRates, yearMonth);
+                integerSteps.change(monthRates, yearMonth);
+                assertEquals(doubleSteps.balance(yearMonth), integerSteps.balance(yearMonth));
+                assertEquals(doubleSteps.reBalance(), integerSteps.reBalance());
+            }
+        }
+
+        // 1480000 * 1.3537 is exactly 2003476, the double product falls just below it.
+        DefaultPortfolioService doubleSteps =
+                DefaultPortfolioService.withArithmetic(
+                        new PortfolioData(portfolioData.getAssetUniverse()), RebalancePolicy.DEFAULT, false);
+        DefaultPortfolioService integerSteps =
+                DefaultPortfolioService.withArithmetic(
+                        new PortfolioData(portfolioData.getAssetUniverse()), RebalancePolicy.DEFAULT, true);
+        for (DefaultPortfolioService service : Arrays.asList(doubleSteps, integerSteps)) {
+            service.allocate(Arrays.asList(1480000d, 0d, 0d));
+            service.change(Arrays.asList(35.37, 0d, 0d), JANUARY);
+        }
+        assertEquals("2003475 0 0", doubleSteps.balance(JANUARY));
+        assertEquals("2003476 0 0", integerSteps.balance(JANUARY));
+        assertThrows(
+                DataFormatException.class,
+                () -> integerSteps.change(Arrays.asList(1.125, 0d, 0d), FEBRUARY),
+                "Expected rates finer than a basis point to be rejected.");
+    }
+
+    @Test
+    void testPolicyComparisonMatchesPortfolioServices() throws DataFormatException {
+        List<RebalancePolicy> policies = new ArrayList<>();
+        for (String policy : new String[] {
+                "semiannual", "quarterly", "calendar:JANUARY", "drift:1", "drift:2.5", "drift:4", "drift:50"}) {
+            RebalancePolicy parsed = RebalancePolicy.parse(policy);
+            assertEquals(parsed, RebalancePolicy.parse(parsed.toString()));
+            policies.add(parsed);
+        }
+        double[][] rates = {
+                {4, 10, 2}, {-10, 40, 0}, {12.5, 12.5, 12.5}, {8, -3, 7}, {13, 21, 10.5}, {10, 8, -5},
+                {-2.5, 3, 1.25}, {6, 0.5, -1}, {1.75, -4, 2.5}, {-7, 6.5, 3}, {9.25, 1, -0.75}, {3.5, 2.25, 4}
+        };
+        List<DefaultPortfolioService> services = new ArrayList<>();
+        for (RebalancePolicy policy : policies) {
+            services.add(new DefaultPortfolioService(new PortfolioData(portfolioData.getAssetUniverse()), policy));
+        }
+        services.add(defaultPortfolioService);
+        for (DefaultPortfolioService service : services) {
+            service.allocate(Arrays.asList(6000d, 3000d, 1000d));
+            service.sip(Arrays.asList(2000d, 1000d, 500d));
+            for (int month = 0; month < 30; month++) {
+                service.change(
+                        Arrays.stream(rates[month % rates.length]).boxed().collect(Collectors.toList()),
+                        YearMonth.of(2030 + month / 12, month % 12 + 1));
+            }
+        }
+        List<RebalancePolicyComparison.Outcome> outcomes = defaultPortfolioService.comparePolicies(policies);
+        assertEquals(policies.size(), outcomes.size());
+        for (int index = 0; index < policies.size(); index++) {
+            RebalancePolicyComparison.Outcome outcome = outcomes.get(index);
+            assertEquals(policies.get(index), outcome.getPolicy());
+            assertEquals(services.get(index).balance(YearMonth.of(2032, JUNE)), outcome.balance());
+            assertEquals(services.get(index).reBalance(), outcome.reBalance());
+        }
+        // The default policy re-balances in JUNE and DECEMBER, a band of 50 points is never reached.
+        assertEquals(defaultPortfolioService.reBalance(), outcomes.get(0).reBalance());
+        assertEquals(5, outcomes.get(0).getReBalances());
+        assertEquals(CANNOT_REBALANCE, outcomes.get(policies.size() - 1).reBalance());
+    }
+
+    @Test
+    void testConcurrentReadersSeeBalancesOfConsistentRates() throws Exception {
+        List<Double> lowRates = Arrays.asList(1d, 1d, 1d);
+        List<Double> highRates = Arrays.asList(5d, 5d, 5d);
+        ConcurrentPortfolioService service = new ConcurrentPortfolioService(defaultPortfolioService);
+        service.allocate(Arrays.asList(6000d, 3000d, 1000d));
+        service.sip(Arrays.asList(2000d, 1000d, 500d));
+        for (Month month : Arrays.asList(JANUARY, FEBRUARY, MARCH, APRIL, MAY)) {
+            service.change(lowRates, month);
+        }
+        service.change(highRates, JUNE);
+        String high = service.balance(JUNE);
+        service.correct(lowRates, JUNE);
+        String low = service.balance(JUNE);
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        List<String> unexpected = new CopyOnWriteArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int reader = 0; reader < 4; reader++) {
+            Thread thread = new Thread(() -> {
+                while (writing.get()) {
+                    String balance = service.balance(JUNE);
+                    if (!balance.equals(low) && !balance.equals(high)) {
+                        unexpected.add(balance);
+                    }
+                }
+            });
+            thread.start();
+            readers.add(thread);
+        }
+        for (int write = 0; write < 2_000; write++) {
+            service.correct(write % 2 == 0 ? highRates : lowRates, JUNE);
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(new ArrayList<String>(), unexpected);
+    }
+}